@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.Executor;
+
+/*
+    Scrolls a page source down a long forecast and back up, with the pages loaded as soon as
+    they are asked for, and checks every row shows up in order with few pages open at once.
+ */
+public class TestForecastPageSource extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1419033600000L);
+    private static final int DAY_COUNT = 200;
+    private static final int PAGE_SIZE = 10;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private Cursor mFirstPage;
+    private ForecastPageSource mPages;
+    private int mInsertedCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        ContentValues[] days = new ContentValues[DAY_COUNT];
+        for (int i = 0; i < DAY_COUNT; i++) {
+            days[i] = new ContentValues();
+            days[i].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, getDay(i));
+            days[i].put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            days[i].put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            days[i].put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+            days[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            days[i].put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            days[i].put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        mPages = new ForecastPageSource(mContext.getContentResolver(),
+                new String[]{WeatherEntry.COLUMN_DATE}, DIRECT_EXECUTOR, DIRECT_EXECUTOR,
+                PAGE_SIZE);
+        mPages.setListener(new ForecastPageSource.Listener() {
+            @Override
+            public void onRowsInserted(int position, int count) {
+                assertEquals("Error: rows inserted out of order", mInsertedCount, position);
+                mInsertedCount += count;
+            }
+
+            @Override
+            public void onRowsChanged(int position, int count) {
+            }
+
+            @Override
+            public void onDataSetChanged() {
+                mInsertedCount = mPages.getCount();
+            }
+        });
+        // what the loader would deliver
+        Uri firstPageUri = mPages.getFirstPageUri(
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION, getDay(0)));
+        mFirstPage = mContext.getContentResolver().query(firstPageUri,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertNotNull(mFirstPage);
+        mPages.swapFirstPage(firstPageUri, mFirstPage);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPages.close();
+        mFirstPage.close();
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long getDay(int i) {
+        // noon, so a change to daylight saving time can't move it to another day
+        return WeatherContract.normalizeDate(FIRST_DAY + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    /**
+     * Binds the row the way the adapter does, once more if its page had to be loaded.
+     */
+    private long bind(int position) {
+        Cursor cursor = mPages.moveToPosition(position);
+        if (cursor == null) {
+            cursor = mPages.moveToPosition(position);
+        }
+        assertNotNull("Error: no row at " + position, cursor);
+        assertTrue("Error: too many pages open at " + position,
+                mPages.getOpenPageCount() <= ForecastPageSource.MAX_LOADED_PAGES + 1);
+        return cursor.getLong(0);
+    }
+
+    public void testScrollsDownAndBack() {
+        assertEquals(PAGE_SIZE, mPages.getCount());
+        for (int i = 0; i < mPages.getCount(); i++) {
+            assertEquals("Error: wrong day scrolling down", getDay(i), bind(i));
+        }
+        assertEquals("Error: not all the days were paged in", DAY_COUNT, mPages.getCount());
+        assertEquals(DAY_COUNT, mInsertedCount);
+
+        // the first pages were closed on the way down and come back
+        for (int i = DAY_COUNT - 1; i >= 0; i--) {
+            assertEquals("Error: wrong day scrolling up", getDay(i), bind(i));
+        }
+        assertEquals(getDay(0), mPages.peek(0).getLong(0));
+        assertEquals(PAGE_SIZE * 3 + 2, mPages.findLoadedPosition(getDay(PAGE_SIZE * 3 + 2)));
+        assertEquals(-1, mPages.findLoadedPosition(getDay(DAY_COUNT - 1)));
+    }
+
+    public void testJumpsToClosedPage() {
+        for (int i = 0; i < DAY_COUNT; i++) {
+            bind(i);
+        }
+        assertEquals(getDay(PAGE_SIZE * 2 + 5), bind(PAGE_SIZE * 2 + 5));
+        assertNull("Error: a far page stayed open", mPages.peek(DAY_COUNT - 1));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Searches a catalog of made up cities with a few real ones mixed in, for the right city and
+    within the latency autocomplete needs.
+ */
+public class TestCitySearch extends AndroidTestCase {
+    private static final String LOG_TAG = TestCitySearch.class.getSimpleName();
+
+    private static final int SYNTHETIC_CITY_COUNT = 50000;
+    private static final int CHUNK_SIZE = 1000;
+    private static final long MAX_AVERAGE_SEARCH_MILLIS = 50;
+    private static final String[] SYLLABLES = {"ka", "lo", "mer", "st", "vin", "ta", "bur",
+            "ne", "ri", "os", "wa", "gel", "dan", "pi", "for", "u", "sha", "ton", "ber", "ly"};
+
+    private static final String[][] REAL_CITIES = {
+            {"4887398", "Chicago", "US"},
+            {"5206379", "Pittsburgh", "US"},
+            {"2643743", "London", "GB"},
+            {"2643736", "Londonderry", "GB"},
+            {"3448439", "São Paulo", "BR"},
+            {"2657896", "Zürich", "CH"},
+            {"5391959", "San Francisco", "US"}};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(CityEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(CityEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static ContentValues createCity(long id, String name, String country) {
+        ContentValues city = new ContentValues();
+        city.put(CityEntry._ID, id);
+        city.put(CityEntry.COLUMN_NAME, name);
+        city.put(CityEntry.COLUMN_COUNTRY, country);
+        city.put(CityEntry.COLUMN_COORD_LAT, 0.0);
+        city.put(CityEntry.COLUMN_COORD_LONG, 0.0);
+        return city;
+    }
+
+    private void insertCatalog(int syntheticCount) {
+        Random random = new Random(42);
+        List<ContentValues> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (String[] city : REAL_CITIES) {
+            chunk.add(createCity(Long.parseLong(city[0]), city[1], city[2]));
+        }
+        for (int i = 0; i < syntheticCount; i++) {
+            StringBuilder name = new StringBuilder();
+            int syllables = 2 + random.nextInt(3);
+            for (int j = 0; j < syllables; j++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+            chunk.add(createCity(10000000 + i, name.toString(), "XX"));
+            if (chunk.size() == CHUNK_SIZE) {
+                mContext.getContentResolver().bulkInsert(CityEntry.CONTENT_URI,
+                        chunk.toArray(new ContentValues[chunk.size()]));
+                chunk.clear();
+            }
+        }
+        mContext.getContentResolver().bulkInsert(CityEntry.CONTENT_URI,
+                chunk.toArray(new ContentValues[chunk.size()]));
+    }
+
+    private String searchFirst(String text) {
+        Cursor cursor = mContext.getContentResolver().query(CityEntry.buildSearchUri(text),
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst()
+                    ? cursor.getString(cursor.getColumnIndex(CityEntry.COLUMN_NAME)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testFolding() {
+        assertEquals("sao paulo", CitySearch.fold("São  Paulo"));
+        assertEquals("Error: misspellings got different skeletons",
+                CitySearch.skeleton("chicago"), CitySearch.skeleton("chikago"));
+        assertEquals(CitySearch.skeleton("pittsburgh"), CitySearch.skeleton("pitsburg"));
+        assertEquals(1, CitySearch.getPrefixDistance("lnod", "london"));
+        assertEquals(0, CitySearch.getPrefixDistance("lond", "londonderry"));
+    }
+
+    public void testFindsPrefixesAndMisspellings() {
+        insertCatalog(1000);
+        assertEquals("London", searchFirst("lond"));
+        assertEquals("Londonderry", searchFirst("londonde"));
+        assertEquals("São Paulo", searchFirst("sao pa"));
+        assertEquals("Zürich", searchFirst("zurich"));
+        assertEquals("San Francisco", searchFirst("san fran"));
+        assertEquals("Chicago", searchFirst("Chikago"));
+        assertEquals("Pittsburgh", searchFirst("pitsburg"));
+        assertNull("Error: found a city for nonsense", searchFirst("qqqqqq"));
+    }
+
+    public void testSearchLatency() {
+        insertCatalog(SYNTHETIC_CITY_COUNT);
+        String[] queries = {"ka", "lom", "stvi", "tabur", "Chikago", "lond", "merst", "sha to",
+                "gelda", "pifor"};
+        // once to warm up the page cache
+        for (String query : queries) {
+            searchFirst(query);
+        }
+        long startedAt = SystemClock.elapsedRealtime();
+        for (String query : queries) {
+            searchFirst(query);
+        }
+        long average = (SystemClock.elapsedRealtime() - startedAt) / queries.length;
+        Log.i(LOG_TAG, "Average search over " + SYNTHETIC_CITY_COUNT + " cities: " + average
+                + "ms");
+        assertTrue("Error: searches took " + average + "ms on average",
+                average < MAX_AVERAGE_SEARCH_MILLIS);
+    }
+}
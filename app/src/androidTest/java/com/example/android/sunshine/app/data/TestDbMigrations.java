@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Opens databases left by every past version and checks they end up like a new one, data and
+ * all.
+ *
+ * The fixtures are created from the schema each version actually shipped with, written out
+ * literally here so later changes to the contract can't change them.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String FIXTURE_NAME = "weather_fixture.db";
+    private static final String FRESH_NAME = "weather_fresh.db";
+
+    // the schema changes of each version, starting with the oldest migrated one
+    private static final String[][] FIXTURE_SCHEMAS = {
+            // version 2
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                            "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                            "coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+            },
+            // version 3
+            {
+                    "CREATE TABLE history (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, date) ON CONFLICT REPLACE);",
+                    "CREATE INDEX history_date_idx ON history (date);",
+                    "CREATE TABLE history_summary (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, period INTEGER NOT NULL, " +
+                            "start_date INTEGER NOT NULL, day_count INTEGER NOT NULL, " +
+                            "min REAL NOT NULL, max REAL NOT NULL, mean REAL NOT NULL, " +
+                            "storm_days INTEGER NOT NULL, drizzle_days INTEGER NOT NULL, " +
+                            "rain_days INTEGER NOT NULL, snow_days INTEGER NOT NULL, " +
+                            "fog_days INTEGER NOT NULL, clear_days INTEGER NOT NULL, " +
+                            "cloudy_days INTEGER NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, period, start_date) ON CONFLICT REPLACE);"
+            },
+            // version 4
+            {
+                    "CREATE INDEX weather_location_idx ON weather (location_id, date);"
+            },
+            // version 5
+            {
+                    "CREATE TABLE city (_id INTEGER PRIMARY KEY,name TEXT NOT NULL, " +
+                            "country TEXT NOT NULL, coord_lat REAL NOT NULL, " +
+                            "coord_long REAL NOT NULL);",
+                    "CREATE VIRTUAL TABLE city_fts USING fts3(name, skeleton);"
+            },
+            // version 6, which created the location table with the column instead, without
+            // the default the fixture rows need
+            {
+                    "ALTER TABLE location ADD COLUMN geohash TEXT NOT NULL DEFAULT '';",
+                    "CREATE INDEX location_geohash_idx ON location (geohash);"
+            }
+    };
+
+    private static final double[][] FIXTURE_COORDS = {
+            {64.7488, -147.353},
+            {51.5072, -0.1275},
+            {-33.8688, 151.2093}
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(FIXTURE_NAME);
+        mContext.deleteDatabase(FRESH_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(FIXTURE_NAME);
+        mContext.deleteDatabase(FRESH_NAME);
+        super.tearDown();
+    }
+
+    public void testFixturesCoverEveryVersion() {
+        assertEquals(WeatherDbHelper.DATABASE_VERSION - WeatherDbHelper.OLDEST_MIGRATED_VERSION,
+                FIXTURE_SCHEMAS.length);
+    }
+
+    public void testMigrateFromEveryVersion() {
+        SQLiteDatabase fresh = new WeatherDbHelper(mContext, FRESH_NAME).getReadableDatabase();
+        Map<String, List<String>> freshSchema = getSchema(fresh);
+        fresh.close();
+
+        for (int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+                version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            createFixture(version, FIXTURE_COORDS);
+
+            WeatherDbHelper helper = new WeatherDbHelper(mContext, FIXTURE_NAME);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Schema migrated from version " + version,
+                    freshSchema, getSchema(db));
+
+            assertEquals(FIXTURE_COORDS.length, count(db, LocationEntry.TABLE_NAME));
+            assertEquals(FIXTURE_COORDS.length * 2, count(db, WeatherEntry.TABLE_NAME));
+            if (version >= 3) {
+                assertEquals(FIXTURE_COORDS.length, count(db, HistoryEntry.TABLE_NAME));
+                assertEquals(1, count(db, HistorySummaryEntry.TABLE_NAME));
+            }
+            if (version >= 5) {
+                assertEquals(1, count(db, CityEntry.TABLE_NAME));
+                assertEquals(1, count(db, CityEntry.FTS_TABLE_NAME));
+            }
+
+            // none of the fixture locations has a geohash yet
+            assertTrue(WeatherDbHelper.needsBackfill(db));
+            WeatherDbHelper.backfill(db, WeatherDbHelper.BACKFILL_CHUNK_SIZE);
+            assertFalse(WeatherDbHelper.needsBackfill(db));
+            assertGeohashes(db);
+
+            helper.close();
+            mContext.deleteDatabase(FIXTURE_NAME);
+        }
+    }
+
+    public void testBackfillInChunks() {
+        double[][] coords = new double[1234][];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = new double[]{-80 + 160.0 * i / coords.length, -170 + 0.25 * i};
+        }
+        createFixture(5, coords);
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, FIXTURE_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(coords.length, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                LocationEntry.TABLE_NAME + " WHERE " + LocationEntry.COLUMN_GEOHASH + " = ''",
+                null));
+
+        assertEquals(coords.length, WeatherDbHelper.backfill(db, 500));
+        assertFalse(WeatherDbHelper.needsBackfill(db));
+        assertEquals(0, WeatherDbHelper.backfill(db, 500));
+        assertGeohashes(db);
+        helper.close();
+    }
+
+    public void testNearestBeforeBackfill() {
+        createFixture(5, FIXTURE_COORDS);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, FIXTURE_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertTrue(WeatherDbHelper.needsBackfill(db));
+
+        // from Fairbanks, the nearest is the Fairbanks fixture, then London, then Sydney
+        Cursor cursor = GeoIndex.findNearest(db, 64.8378, -147.7164, FIXTURE_COORDS.length);
+        try {
+            assertEquals("Error: locations without a geohash were missed",
+                    FIXTURE_COORDS.length, cursor.getCount());
+            int settingIndex = cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING);
+            for (int i = 0; i < FIXTURE_COORDS.length; i++) {
+                assertTrue(cursor.moveToPosition(i));
+                assertEquals("setting" + i, cursor.getString(settingIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // the same point's single nearest is found from its cells, with and without the hashes
+        for (int pass = 0; pass < 2; pass++) {
+            cursor = GeoIndex.findNearest(db, 51.5, -0.12, 1);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("setting1", cursor.getString(
+                        cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+            } finally {
+                cursor.close();
+            }
+            WeatherDbHelper.backfill(db, WeatherDbHelper.BACKFILL_CHUNK_SIZE);
+        }
+        helper.close();
+    }
+
+    public void testOlderVersionStartsOver() {
+        createFixture(WeatherDbHelper.OLDEST_MIGRATED_VERSION, FIXTURE_COORDS);
+        SQLiteDatabase fixture = SQLiteDatabase.openDatabase(
+                mContext.getDatabasePath(FIXTURE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        fixture.setVersion(WeatherDbHelper.OLDEST_MIGRATED_VERSION - 1);
+        fixture.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, FIXTURE_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals(0, count(db, LocationEntry.TABLE_NAME));
+        helper.close();
+    }
+
+    /**
+     * Writes a database as the given version left it, with a few rows in every table it had.
+     */
+    private void createFixture(int version, double[][] coords) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(FIXTURE_NAME, 0, null);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i <= version - WeatherDbHelper.OLDEST_MIGRATED_VERSION; i++) {
+                for (String sql : FIXTURE_SCHEMAS[i]) {
+                    db.execSQL(sql);
+                }
+            }
+            for (int i = 0; i < coords.length; i++) {
+                long id = i + 1;
+                db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, " +
+                        "coord_long) VALUES (?, ?, ?, ?, ?)", new Object[]{
+                        id, "setting" + i, "City " + i, coords[i][0], coords[i][1]});
+                if (i >= FIXTURE_COORDS.length) {
+                    continue;
+                }
+                for (int day = 0; day < 2; day++) {
+                    db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, " +
+                            "min, max, humidity, pressure, wind, degrees) " +
+                            "VALUES (?, ?, 'Clear', 800, 5, 15, 50, 1013, 3, 180)",
+                            new Object[]{id,
+                                    TestUtilities.TEST_DATE + day * DateUtils.DAY_IN_MILLIS});
+                }
+                if (version >= 3) {
+                    db.execSQL("INSERT INTO history (location_id, date, short_desc, weather_id, " +
+                            "min, max, humidity, pressure, wind, degrees) " +
+                            "VALUES (?, ?, 'Rain', 500, 2, 9, 90, 1002, 7, 270)",
+                            new Object[]{id, TestUtilities.TEST_DATE - DateUtils.DAY_IN_MILLIS});
+                }
+            }
+            if (version >= 3) {
+                db.execSQL("INSERT INTO history_summary (location_id, period, start_date, " +
+                        "day_count, min, max, mean, storm_days, drizzle_days, rain_days, " +
+                        "snow_days, fog_days, clear_days, cloudy_days) " +
+                        "VALUES (1, 0, ?, 7, 1, 12, 6, 0, 1, 2, 0, 0, 3, 1)",
+                        new Object[]{TestUtilities.TEST_DATE - 30 * DateUtils.DAY_IN_MILLIS});
+            }
+            if (version >= 5) {
+                db.execSQL("INSERT INTO city VALUES (1, 'Fairbanks', 'US', 64.8378, -147.7164)");
+                db.execSQL("INSERT INTO city_fts (docid, name, skeleton) " +
+                        "VALUES (1, 'fairbanks', 'frbnks')");
+            }
+            db.setVersion(version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    /**
+     * @return the columns of every table and the names of every index, by name
+     */
+    private static Map<String, List<String>> getSchema(SQLiteDatabase db) {
+        Map<String, List<String>> schema = new TreeMap<>();
+        Cursor cursor = db.rawQuery("SELECT name, type FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                List<String> columns = new ArrayList<>();
+                if ("table".equals(cursor.getString(1))) {
+                    Cursor info = db.rawQuery("PRAGMA table_info(" + cursor.getString(0) + ")",
+                            null);
+                    try {
+                        while (info.moveToNext()) {
+                            columns.add(info.getString(info.getColumnIndex("name")) + " " +
+                                    info.getString(info.getColumnIndex("type")));
+                        }
+                    } finally {
+                        info.close();
+                    }
+                }
+                schema.put(cursor.getString(1) + " " + cursor.getString(0), columns);
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    private static long count(SQLiteDatabase db, String table) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + table, null);
+    }
+
+    private static void assertGeohashes(SQLiteDatabase db) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG,
+                        LocationEntry.COLUMN_GEOHASH},
+                null, null, null, null, null);
+        try {
+            assertTrue(cursor.getCount() > 0);
+            while (cursor.moveToNext()) {
+                assertEquals(GeoIndex.encode(cursor.getDouble(0), cursor.getDouble(1),
+                        GeoIndex.PRECISION), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
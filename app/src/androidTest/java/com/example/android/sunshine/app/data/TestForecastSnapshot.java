@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+/*
+    Round-trips forecasts through the snapshot file and checks when readers must fall back.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "North Pole, AK";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastSnapshot.delete(mContext, TEST_LOCATION);
+        super.tearDown();
+    }
+
+    private static ContentValues createDay(long date, int weatherId, String desc) {
+        ContentValues day = new ContentValues();
+        day.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 21.5);
+        day.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, -3.25);
+        day.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, desc);
+        return day;
+    }
+
+    public void testRoundTripSkipsPastDays() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = {
+                createDay(today - DAY_IN_MILLIS, 500, "Rain"),
+                createDay(today, 800, "Clear"),
+                createDay(today + DAY_IN_MILLIS, 602, "A very long description indeed")
+        };
+        assertTrue(ForecastSnapshot.write(mContext, TEST_LOCATION, days));
+
+        ForecastSnapshot snapshot = ForecastSnapshot.read(mContext, TEST_LOCATION);
+        assertNotNull("Error: the snapshot just written could not be read", snapshot);
+        assertEquals("Error: yesterday was not skipped", 2, snapshot.getCount());
+        assertEquals(today, snapshot.getDate(0));
+        assertEquals(800, snapshot.getWeatherId(0));
+        assertEquals("Clear", snapshot.getShortDesc(0));
+        assertEquals(21.5, snapshot.getMaxTemp(0), 0.001);
+        assertEquals(-3.25, snapshot.getMinTemp(0), 0.001);
+        assertEquals(602, snapshot.getWeatherId(1));
+        assertEquals("A very long descript", snapshot.getShortDesc(1));
+    }
+
+    public void testFallsBackWhenMissingOrOutdated() {
+        assertNull(ForecastSnapshot.read(mContext, TEST_LOCATION));
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        assertTrue(ForecastSnapshot.write(mContext, TEST_LOCATION, new ContentValues[]{
+                createDay(today - 2 * DAY_IN_MILLIS, 500, "Rain")}));
+        assertNull("Error: a snapshot with only past days was used",
+                ForecastSnapshot.read(mContext, TEST_LOCATION));
+
+        assertTrue(ForecastSnapshot.write(mContext, TEST_LOCATION, new ContentValues[]{
+                createDay(today, 800, "Clear")}));
+        ForecastSnapshot.delete(mContext, TEST_LOCATION);
+        assertNull(ForecastSnapshot.read(mContext, TEST_LOCATION));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Looks up the nearest of many made up locations through the geohash index and checks the
+    answers, and their speed, against measuring the distance to every location.
+ */
+public class TestGeoIndex extends AndroidTestCase {
+    private static final String LOG_TAG = TestGeoIndex.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 100000;
+    private static final int CHUNK_SIZE = 1000;
+    private static final int QUERY_COUNT = 20;
+    private static final int K = 10;
+    private static final double DELTA = 1e-6;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllLocations();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllLocations();
+        super.tearDown();
+    }
+
+    private void deleteAllLocations() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static ContentValues createLocation(int i, double lat, double lon) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, "location-" + i);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+        location.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        location.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return location;
+    }
+
+    /**
+     * Inserts locations spread over the globe, half of them crowded around a few cities.
+     */
+    private void insertLocations(int count) {
+        Random random = new Random(42);
+        double[][] cities = {{37.39, -122.08}, {51.51, -0.13}, {-23.55, -46.63}, {35.69, 139.69}};
+        List<ContentValues> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < count; i++) {
+            double lat;
+            double lon;
+            if (i % 2 == 0) {
+                // uniform over the sphere
+                lat = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+                lon = random.nextDouble() * 360 - 180;
+            } else {
+                double[] city = cities[random.nextInt(cities.length)];
+                lat = city[0] + random.nextGaussian();
+                lon = city[1] + random.nextGaussian();
+            }
+            chunk.add(createLocation(i, lat, lon));
+            if (chunk.size() == CHUNK_SIZE) {
+                mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI,
+                        chunk.toArray(new ContentValues[chunk.size()]));
+                chunk.clear();
+            }
+        }
+        mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI,
+                chunk.toArray(new ContentValues[chunk.size()]));
+    }
+
+    private double[] queryNearDistances(double lat, double lon, int k) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.buildNearUri(lat, lon, k),
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            double[] distances = new double[cursor.getCount()];
+            int distanceIndex = cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE);
+            while (cursor.moveToNext()) {
+                distances[cursor.getPosition()] = cursor.getDouble(distanceIndex);
+            }
+            return distances;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the distances of the k nearest locations, measuring every location
+     */
+    private double[] scanNearDistances(double lat, double lon, int k) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG},
+                null, null, null);
+        assertNotNull(cursor);
+        double[] distances;
+        try {
+            distances = new double[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                distances[cursor.getPosition()] = GeoIndex.getDistance(lat, lon,
+                        cursor.getDouble(0), cursor.getDouble(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        Arrays.sort(distances);
+        return Arrays.copyOf(distances, Math.min(k, distances.length));
+    }
+
+    private void assertDistancesEqual(String message, double[] expected, double[] actual) {
+        assertEquals(message + ", wrong number of locations", expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(message + ", wrong location " + i, expected[i], actual[i], DELTA);
+        }
+    }
+
+    public void testGeohash() {
+        assertEquals("ezs42", GeoIndex.encode(42.6, -5.6, 5));
+        assertEquals("u4pruydqqvj", GeoIndex.encode(57.64911, 10.40744, 11));
+        // a degree of latitude
+        assertEquals(111.19, GeoIndex.getDistance(0, 0, 1, 0), 0.01);
+    }
+
+    public void testProviderKeepsGeohash() {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, 42.6);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, -5.6);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, moved, null, null);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_GEOHASH}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertTrue("Error: the geohash didn't follow the coordinates",
+                    cursor.getString(0).startsWith("ezs42"));
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues half = new ContentValues();
+        half.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        try {
+            mContext.getContentResolver().update(LocationEntry.CONTENT_URI, half, null, null);
+            fail("Error: updated one coordinate alone");
+        } catch (IllegalArgumentException expected) {
+            // the geohash needs both
+        }
+    }
+
+    public void testFindsNearest() {
+        insertLocations(2000);
+        Random random = new Random(7);
+        // the poles, the antimeridian and random points
+        double[][] points = {{90, 0}, {-89.99, 120}, {0, 180}, {12.5, -179.999}, {51.5, -0.1}};
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            double lat = i < points.length ? points[i][0] : random.nextDouble() * 180 - 90;
+            double lon = i < points.length ? points[i][1] : random.nextDouble() * 360 - 180;
+            int k = 1 + random.nextInt(2 * K);
+            assertDistancesEqual("Error: wrong nearest locations of " + lat + "," + lon,
+                    scanNearDistances(lat, lon, k), queryNearDistances(lat, lon, k));
+        }
+        // more than there are
+        assertEquals(2000, queryNearDistances(0, 0, 5000).length);
+    }
+
+    public void testNearestLatency() {
+        insertLocations(LOCATION_COUNT);
+        Random random = new Random(7);
+        double[][] points = new double[QUERY_COUNT][];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            points[i] = new double[]{random.nextDouble() * 180 - 90,
+                    random.nextDouble() * 360 - 180};
+        }
+        // once to warm up the page cache
+        queryNearDistances(points[0][0], points[0][1], K);
+
+        long indexMillis = 0;
+        long scanMillis = 0;
+        for (double[] point : points) {
+            long startedAt = SystemClock.elapsedRealtime();
+            double[] nearest = queryNearDistances(point[0], point[1], K);
+            indexMillis += SystemClock.elapsedRealtime() - startedAt;
+
+            startedAt = SystemClock.elapsedRealtime();
+            double[] scanned = scanNearDistances(point[0], point[1], K);
+            scanMillis += SystemClock.elapsedRealtime() - startedAt;
+            assertDistancesEqual("Error: the index and the scan disagree", scanned, nearest);
+        }
+        Log.i(LOG_TAG, "Average " + K + " nearest of " + LOCATION_COUNT + " locations: "
+                + indexMillis / QUERY_COUNT + "ms with the geohash index, "
+                + scanMillis / QUERY_COUNT + "ms measuring every location");
+        assertTrue("Error: the index was no faster than a full scan", indexMillis < scanMillis);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Archives expired forecast days and checks that compaction summarizes them without losing or
+    double counting any.
+ */
+public class TestHistory extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAY_COUNT = 40;
+    // storm, rain, clear and cloudy days, in turn
+    private static final int[] WEATHER_IDS = {211, 500, 800, 802};
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        ContentValues dropAllSummaries = new ContentValues();
+        dropAllSummaries.put(HistoryEntry.COMPACT_WEEKS_BEFORE, Long.MAX_VALUE);
+        dropAllSummaries.put(HistoryEntry.COMPACT_MONTHS_BEFORE, Long.MAX_VALUE);
+        mContext.getContentResolver().update(HistoryEntry.COMPACT_URI, dropAllSummaries,
+                null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long getDay(int i) {
+        // noon, so a change to daylight saving time can't move it to another day
+        return WeatherContract.normalizeDate(TestUtilities.TEST_DATE * 1000
+                + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    private void insertDays() {
+        ContentValues[] days = new ContentValues[DAY_COUNT];
+        for (int i = 0; i < DAY_COUNT; i++) {
+            days[i] = TestUtilities.createWeatherValues(mLocationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, getDay(i));
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, i);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, i + 10);
+            days[i].put(WeatherEntry.COLUMN_WEATHER_ID, WEATHER_IDS[i % WEATHER_IDS.length]);
+        }
+        assertEquals(DAY_COUNT,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days));
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int compactDaysBefore(long date) {
+        ContentValues cutoffs = new ContentValues();
+        cutoffs.put(HistoryEntry.COMPACT_DAYS_BEFORE, date);
+        return mContext.getContentResolver().update(HistoryEntry.COMPACT_URI, cutoffs, null, null);
+    }
+
+    /**
+     * Checks the summaries of the period cover the given number of days, once each, and add up
+     * to what was inserted.
+     */
+    private void assertSummaries(Uri uri, int days) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{HistorySummaryEntry.COLUMN_START_DATE,
+                        HistorySummaryEntry.COLUMN_DAY_COUNT,
+                        HistorySummaryEntry.COLUMN_MIN_TEMP,
+                        HistorySummaryEntry.COLUMN_MAX_TEMP,
+                        HistorySummaryEntry.COLUMN_STORM_DAYS,
+                        HistorySummaryEntry.COLUMN_RAIN_DAYS,
+                        HistorySummaryEntry.COLUMN_CLEAR_DAYS,
+                        HistorySummaryEntry.COLUMN_CLOUDY_DAYS},
+                null, null, HistorySummaryEntry.COLUMN_START_DATE + " ASC");
+        assertNotNull(cursor);
+        try {
+            assertTrue("Error: no summaries for " + uri, cursor.moveToFirst());
+            Set<Long> starts = new HashSet<>();
+            int dayCount = 0;
+            int conditionCount = 0;
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            do {
+                assertTrue("Error: two summaries of the same period", starts.add(cursor.getLong(0)));
+                dayCount += cursor.getInt(1);
+                min = Math.min(min, cursor.getDouble(2));
+                max = Math.max(max, cursor.getDouble(3));
+                conditionCount += cursor.getInt(4) + cursor.getInt(5) + cursor.getInt(6)
+                        + cursor.getInt(7);
+            } while (cursor.moveToNext());
+            assertEquals("Error: summaries don't cover each day once", days, dayCount);
+            assertEquals("Error: the condition histogram doesn't add up", days, conditionCount);
+            assertEquals(0.0, min);
+            assertEquals(days - 1 + 10.0, max);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testArchiveAndCompact() {
+        insertDays();
+
+        // the forecast keeps its last five days, the rest goes to the history
+        int archived = mContext.getContentResolver().delete(WeatherEntry.ARCHIVE_URI,
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(getDay(35))});
+        assertEquals(35, archived);
+        assertEquals(5, count(WeatherEntry.CONTENT_URI));
+        assertEquals(35, count(HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION)));
+        assertEquals("Error: the history range query returned the wrong days", 10,
+                count(HistoryEntry.buildHistoryLocationWithRange(TestUtilities.TEST_LOCATION,
+                        getDay(10), getDay(19))));
+
+        // summaries are built over two compactions, so some periods get merged
+        assertEquals(20, compactDaysBefore(getDay(20)));
+        assertEquals(15, count(HistoryEntry.CONTENT_URI));
+        assertSummaries(HistorySummaryEntry.buildWeeklyHistory(TestUtilities.TEST_LOCATION), 20);
+        assertSummaries(HistorySummaryEntry.buildMonthlyHistory(TestUtilities.TEST_LOCATION), 20);
+
+        assertEquals(15, compactDaysBefore(getDay(35)));
+        assertEquals(0, count(HistoryEntry.CONTENT_URI));
+        assertSummaries(HistorySummaryEntry.buildWeeklyHistory(TestUtilities.TEST_LOCATION), 35);
+        assertSummaries(HistorySummaryEntry.buildMonthlyHistory(TestUtilities.TEST_LOCATION), 35);
+
+        // dropping the weeks keeps the months
+        ContentValues cutoffs = new ContentValues();
+        cutoffs.put(HistoryEntry.COMPACT_WEEKS_BEFORE, getDay(DAY_COUNT));
+        mContext.getContentResolver().update(HistoryEntry.COMPACT_URI, cutoffs, null, null);
+        assertEquals(0,
+                count(HistorySummaryEntry.buildWeeklyHistory(TestUtilities.TEST_LOCATION)));
+        assertSummaries(HistorySummaryEntry.buildMonthlyHistory(TestUtilities.TEST_LOCATION), 35);
+    }
+
+    public void testCutoffsFollowRetention() {
+        long now = getDay(DAY_COUNT);
+        ContentValues cutoffs = new HistoryCompactor(30, 8, 0).getCutoffs(now);
+        assertEquals(now - 30 * DAY_IN_MILLIS,
+                (long) cutoffs.getAsLong(HistoryEntry.COMPACT_DAYS_BEFORE));
+        assertEquals(now - 8 * 7 * DAY_IN_MILLIS,
+                (long) cutoffs.getAsLong(HistoryEntry.COMPACT_WEEKS_BEFORE));
+        assertFalse("Error: months kept forever got a cutoff",
+                cutoffs.containsKey(HistoryEntry.COMPACT_MONTHS_BEFORE));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that upserting a location keeps its id and that the id cache never outlives the row.
+ */
+public class TestLocationIdCache extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long upsert(String cityName) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, values));
+    }
+
+    public void testUpsertKeepsTheId() {
+        long id = upsert("North Pole");
+        assertTrue("Error: upsert didn't return an id", id >= 0);
+        assertEquals("Error: a second upsert created a new row", id, upsert("Santa's Village"));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_CITY_NAME},
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals("Error: expected exactly one location", 1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(id, cursor.getLong(0));
+            assertEquals("Error: upsert didn't replace the city name",
+                    "Santa's Village", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testCacheFollowsTheTable() {
+        long id = upsert("North Pole");
+        int hits = LocationIdCache.getHitCount();
+        assertEquals(id, LocationIdCache.peek(LOCATION));
+        assertEquals(id, LocationIdCache.getLocationId(mContext.getContentResolver(), LOCATION));
+        assertEquals("Error: cached lookups missed", hits + 2, LocationIdCache.getHitCount());
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{LOCATION});
+        assertEquals("Error: the cache still has a deleted location",
+                -1, LocationIdCache.peek(LOCATION));
+        assertEquals(-1, LocationIdCache.getLocationId(mContext.getContentResolver(), LOCATION));
+
+        // a lookup after a miss remembers the row
+        long newId = upsert("North Pole");
+        LocationIdCache.invalidate();
+        assertEquals(newId,
+                LocationIdCache.getLocationId(mContext.getContentResolver(), LOCATION));
+        assertEquals(newId, LocationIdCache.peek(LOCATION));
+    }
+
+    public void testRolledBackInsertIsNotCached() throws RemoteException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        // fails, rolling back the whole batch
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withSelection(LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{"no such location"})
+                .withValue(LocationEntry.COLUMN_CITY_NAME, "Nowhere")
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: the batch didn't fail");
+        } catch (OperationApplicationException e) {
+            // expected
+        }
+
+        String location = TestUtilities.createNorthPoleLocationValues()
+                .getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        assertEquals("Error: the id of a rolled back insert was cached",
+                -1, LocationIdCache.peek(location));
+        assertEquals(-1, LocationIdCache.getLocationId(mContext.getContentResolver(), location));
+    }
+}
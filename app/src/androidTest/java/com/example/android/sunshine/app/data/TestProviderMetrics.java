@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.task.TaskScheduler;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Checks that the metrics URI reports the calls made through the provider, and that the slow
+    calls come with the plans of their queries.
+ */
+public class TestProviderMetrics extends AndroidTestCase {
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        mResolver.delete(MetricsEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setEnabled(true);
+        setSlowThreshold(ProviderMetrics.DEFAULT_SLOW_THRESHOLD_MS);
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testHistogramBuckets() {
+        assertEquals(0, ProviderMetrics.getHistogramBucket(0));
+        assertEquals(1, ProviderMetrics.getHistogramBucket(1));
+        assertEquals(2, ProviderMetrics.getHistogramBucket(3));
+        assertEquals(3, ProviderMetrics.getHistogramBucket(4));
+        assertEquals(10, ProviderMetrics.getHistogramBucket(1023));
+        assertEquals(11, ProviderMetrics.getHistogramBucket(1024));
+        assertEquals(11, ProviderMetrics.getHistogramBucket(60000));
+    }
+
+    public void testCountsCallsByPattern() {
+        long locationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] days = new ContentValues[3];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * 86400000L);
+        }
+        assertEquals(days.length, mResolver.bulkInsert(WeatherEntry.CONTENT_URI, days));
+        for (int i = 0; i < 2; i++) {
+            Cursor cursor = mResolver.query(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                    null, null, null, null);
+            assertNotNull(cursor);
+            cursor.close();
+        }
+
+        Cursor metrics = mResolver.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(metrics);
+        try {
+            assertRow(metrics, MetricsEntry.OPERATION_INSERT, WeatherContract.PATH_LOCATION, 1, 1);
+            assertRow(metrics, MetricsEntry.OPERATION_BULK_INSERT, WeatherContract.PATH_WEATHER,
+                    1, days.length);
+            assertRow(metrics, MetricsEntry.OPERATION_QUERY, WeatherContract.PATH_WEATHER + "/*",
+                    2, 2 * days.length);
+        } finally {
+            metrics.close();
+        }
+    }
+
+    public void testResetForgetsTheCalls() {
+        mResolver.query(LocationEntry.CONTENT_URI, null, null, null, null).close();
+        assertTrue(mResolver.delete(MetricsEntry.CONTENT_URI, null, null) > 0);
+
+        Cursor metrics = mResolver.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(metrics);
+        try {
+            // the metrics queries themselves aren't counted
+            assertEquals(0, metrics.getCount());
+        } finally {
+            metrics.close();
+        }
+    }
+
+    public void testSlowCallsAreExplained() {
+        TestUtilities.insertNorthPoleLocationValues(mContext);
+        setSlowThreshold(0);
+        Cursor cursor = mResolver.query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertNotNull(cursor);
+        cursor.close();
+        setSlowThreshold(ProviderMetrics.DEFAULT_SLOW_THRESHOLD_MS);
+
+        Cursor slow = mResolver.query(MetricsEntry.SLOW_URI, null, null, null, null);
+        assertNotNull(slow);
+        try {
+            assertTrue("Error: the slow call wasn't logged", slow.moveToFirst());
+            assertEquals(MetricsEntry.OPERATION_QUERY,
+                    slow.getString(slow.getColumnIndex(MetricsEntry.COLUMN_OPERATION)));
+            assertEquals(Thread.currentThread().getName(),
+                    slow.getString(slow.getColumnIndex(MetricsEntry.COLUMN_CALLER)));
+            String plan = slow.getString(slow.getColumnIndex(MetricsEntry.COLUMN_QUERY_PLAN));
+            // the statement itself, then at least a step of its plan
+            assertTrue(plan, plan.contains(WeatherEntry.TABLE_NAME + " INNER JOIN "));
+            assertTrue(plan, plan.split("\n").length >= 2);
+        } finally {
+            slow.close();
+        }
+    }
+
+    public void testLanesReportTheScheduler() {
+        final TaskScheduler scheduler = TaskScheduler.getInstance();
+        final int completed = scheduler.getCompletedCount(TaskScheduler.LANE_UI);
+        scheduler.submit(TaskScheduler.LANE_UI, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return scheduler.getCompletedCount(TaskScheduler.LANE_UI) > completed;
+            }
+        }.run();
+
+        Cursor lanes = mResolver.query(MetricsEntry.LANES_URI, null, null, null, null);
+        assertNotNull(lanes);
+        try {
+            assertEquals(TaskScheduler.LANE_COUNT, lanes.getCount());
+            int laneIndex = lanes.getColumnIndex(MetricsEntry.COLUMN_LANE);
+            int completedIndex = lanes.getColumnIndex(MetricsEntry.COLUMN_COMPLETED_COUNT);
+            assertTrue(lanes.moveToPosition(TaskScheduler.LANE_UI));
+            assertEquals(TaskScheduler.LANE_UI, lanes.getInt(laneIndex));
+            assertTrue("Error: the completed UI task wasn't reported",
+                    lanes.getInt(completedIndex) > completed);
+            assertTrue(lanes.getColumnIndex(MetricsEntry.COLUMN_REJECTED_COUNT) >= 0);
+        } finally {
+            lanes.close();
+        }
+    }
+
+    public void testDisabledMetricsRecordNothing() {
+        setEnabled(false);
+        mResolver.query(LocationEntry.CONTENT_URI, null, null, null, null).close();
+        try {
+            mResolver.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+            fail("Error: the metrics were served while off");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        setEnabled(true);
+        Cursor metrics = mResolver.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(metrics);
+        try {
+            assertEquals("Error: a call was recorded while the metrics were off",
+                    0, metrics.getCount());
+        } finally {
+            metrics.close();
+        }
+    }
+
+    private void setEnabled(boolean enabled) {
+        ContentValues values = new ContentValues();
+        values.put(MetricsEntry.ENABLED, enabled);
+        mResolver.update(MetricsEntry.CONTENT_URI, values, null, null);
+    }
+
+    private void setSlowThreshold(long thresholdMs) {
+        ContentValues values = new ContentValues();
+        values.put(MetricsEntry.SLOW_THRESHOLD_MS, thresholdMs);
+        mResolver.update(MetricsEntry.CONTENT_URI, values, null, null);
+    }
+
+    private void assertRow(Cursor metrics, String operation, String pattern, int callCount,
+                           long rowCount) {
+        int operationIndex = metrics.getColumnIndex(MetricsEntry.COLUMN_OPERATION);
+        int patternIndex = metrics.getColumnIndex(MetricsEntry.COLUMN_URI_PATTERN);
+        for (metrics.moveToFirst(); !metrics.isAfterLast(); metrics.moveToNext()) {
+            if (!operation.equals(metrics.getString(operationIndex))
+                    || !pattern.equals(metrics.getString(patternIndex))) {
+                continue;
+            }
+            assertEquals(callCount,
+                    metrics.getInt(metrics.getColumnIndex(MetricsEntry.COLUMN_CALL_COUNT)));
+            assertEquals(rowCount,
+                    metrics.getLong(metrics.getColumnIndex(MetricsEntry.COLUMN_ROW_COUNT)));
+
+            int[] histogram = MetricsEntry.parseHistogram(
+                    metrics.getString(metrics.getColumnIndex(MetricsEntry.COLUMN_HISTOGRAM)));
+            assertEquals(ProviderMetrics.HISTOGRAM_SIZE, histogram.length);
+            int total = 0;
+            for (int count : histogram) {
+                total += count;
+            }
+            assertEquals("Error: the histogram doesn't add up", callCount, total);
+
+            String callers = metrics.getString(metrics.getColumnIndex(MetricsEntry.COLUMN_CALLERS));
+            assertEquals(Thread.currentThread().getName() + "=" + callCount, callers);
+            return;
+        }
+        fail("Error: no metrics for " + operation + " " + pattern);
+    }
+}
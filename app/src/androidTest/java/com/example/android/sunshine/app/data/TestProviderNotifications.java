@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Counts how often observers of different locations and days wake up for each kind of write.
+ */
+public class TestProviderNotifications extends AndroidTestCase {
+
+    private static final String LOCATION_A = "99705";
+    private static final String LOCATION_B = "94043";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long DAY_1 = WeatherContract.normalizeDate(1419033600000L);
+    private static final long DAY_2 = DAY_1 + DAY_IN_MILLIS;
+    private static final long DAY_3 = DAY_2 + DAY_IN_MILLIS;
+    // time for a stray notification to show up after the expected ones
+    private static final long SETTLE_MS = 300;
+
+    private static class CountingObserver extends ContentObserver {
+        final AtomicInteger mWakeups = new AtomicInteger();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mWakeups.incrementAndGet();
+        }
+
+        int getAndReset() {
+            return mWakeups.getAndSet(0);
+        }
+    }
+
+    private HandlerThread mThread;
+    private long mLocationIdA;
+    private long mLocationIdB;
+    private CountingObserver mAll;
+    private CountingObserver mA;
+    private CountingObserver mB;
+    private CountingObserver mADay1;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationIdA = insertLocation(LOCATION_A);
+        mLocationIdB = insertLocation(LOCATION_B);
+
+        mThread = new HandlerThread("TestProviderNotifications");
+        mThread.start();
+        Handler handler = new Handler(mThread.getLooper());
+        mAll = register(WeatherEntry.CONTENT_URI, handler);
+        mA = register(WeatherEntry.buildWeatherLocation(LOCATION_A), handler);
+        mB = register(WeatherEntry.buildWeatherLocation(LOCATION_B), handler);
+        mADay1 = register(WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, DAY_1), handler);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mAll);
+        mContext.getContentResolver().unregisterContentObserver(mA);
+        mContext.getContentResolver().unregisterContentObserver(mB);
+        mContext.getContentResolver().unregisterContentObserver(mADay1);
+        mThread.quit();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        ContentValues dropAllSummaries = new ContentValues();
+        dropAllSummaries.put(HistoryEntry.COMPACT_WEEKS_BEFORE, Long.MAX_VALUE);
+        dropAllSummaries.put(HistoryEntry.COMPACT_MONTHS_BEFORE, Long.MAX_VALUE);
+        mContext.getContentResolver().update(HistoryEntry.COMPACT_URI, dropAllSummaries,
+                null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        location.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+    }
+
+    private CountingObserver register(Uri uri, Handler handler) {
+        CountingObserver observer = new CountingObserver(handler);
+        // the same registration a cursor's notification uri gets
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        return observer;
+    }
+
+    private static ContentValues createDay(long locationId, long date) {
+        ContentValues weather = TestUtilities.createWeatherValues(locationId);
+        weather.put(WeatherEntry.COLUMN_DATE, date);
+        return weather;
+    }
+
+    /**
+     * Waits for the catch-all observer to see the expected notifications, then checks every
+     * observer woke up exactly as often as expected.
+     */
+    private void assertWakeups(final int all, int a, int b, int aDay1) throws InterruptedException {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return mAll.mWakeups.get() >= all;
+            }
+        }.run();
+        Thread.sleep(SETTLE_MS);
+        assertEquals("Error: unexpected wake-ups of the whole table observer",
+                all, mAll.getAndReset());
+        assertEquals("Error: unexpected wake-ups of location A", a, mA.getAndReset());
+        assertEquals("Error: unexpected wake-ups of location B", b, mB.getAndReset());
+        assertEquals("Error: unexpected wake-ups of location A's first day",
+                aDay1, mADay1.getAndReset());
+    }
+
+    public void testWritesOnlyWakeTheirLocationAndDays() throws Exception {
+        // a sync of location A notifies it once for all its days
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createDay(mLocationIdA, DAY_1),
+                createDay(mLocationIdA, DAY_2),
+                createDay(mLocationIdA, DAY_3)});
+        assertWakeups(1, 1, 0, 1);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createDay(mLocationIdB, DAY_1),
+                createDay(mLocationIdB, DAY_2)});
+        assertWakeups(1, 0, 1, 0);
+
+        // a single day of location A leaves its other days alone
+        ContentValues change = new ContentValues();
+        change.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, change,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationIdA), Long.toString(DAY_2)});
+        assertWakeups(1, 1, 0, 0);
+
+        // a batch notifies once at the end, once per location it touched
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (long locationId : new long[]{mLocationIdA, mLocationIdB}) {
+            batch.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                    .withValues(change)
+                    .withSelection(WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                    + WeatherEntry.COLUMN_DATE + " = ?",
+                            new String[]{Long.toString(locationId), Long.toString(DAY_1)})
+                    .build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, batch);
+        assertWakeups(2, 1, 1, 1);
+
+        // deleting the old days of every location
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(DAY_1)});
+        assertWakeups(2, 1, 1, 1);
+
+        // nothing matched, nobody wakes up
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, change,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(DAY_1)});
+        assertWakeups(0, 0, 0, 0);
+    }
+
+    public void testStatsWakeForTheDaysAndHistoryOfTheirLocation() throws Exception {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createDay(mLocationIdA, DAY_1),
+                createDay(mLocationIdA, DAY_2),
+                createDay(mLocationIdA, DAY_3)});
+        assertWakeups(1, 1, 0, 1);
+        // the first two days of location A become history
+        mContext.getContentResolver().delete(WeatherEntry.ARCHIVE_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(mLocationIdA), Long.toString(DAY_2)});
+        assertWakeups(1, 1, 0, 1);
+
+        Cursor stats = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(LOCATION_A, DAY_1, DAY_3, StatsEntry.BUCKET_WEEK),
+                null, null, null, null);
+        assertNotNull(stats);
+        CountingObserver statsObserver = new CountingObserver(new Handler(mThread.getLooper()));
+        stats.registerContentObserver(statsObserver);
+        try {
+            // a delta of the single forecast day left
+            ContentValues change = new ContentValues();
+            change.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+            mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, change,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{Long.toString(mLocationIdA), Long.toString(DAY_3)});
+            assertWakeups(1, 1, 0, 0);
+            assertEquals("Error: a changed day didn't wake the stats of its location",
+                    1, statsObserver.getAndReset());
+
+            mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI,
+                    HistoryEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(DAY_2)});
+            assertWakeups(1, 1, 0, 1);
+            assertEquals("Error: deleted history didn't wake the stats of its location",
+                    1, statsObserver.getAndReset());
+
+            // compaction rolls the day left in the history into summaries
+            ContentValues cutoffs = new ContentValues();
+            cutoffs.put(HistoryEntry.COMPACT_DAYS_BEFORE, DAY_3);
+            mContext.getContentResolver().update(HistoryEntry.COMPACT_URI, cutoffs, null, null);
+            assertWakeups(1, 1, 0, 1);
+            assertEquals("Error: compaction didn't wake the stats of its location",
+                    1, statsObserver.getAndReset());
+
+            // compacting again changes nothing of location A
+            mContext.getContentResolver().update(HistoryEntry.COMPACT_URI, cutoffs, null, null);
+            assertWakeups(0, 0, 0, 0);
+            assertEquals(0, statsObserver.getAndReset());
+        } finally {
+            stats.unregisterContentObserver(statsObserver);
+            stats.close();
+        }
+    }
+}
@@ -0,0 +1,597 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+    Runs every URI of the provider against a database far bigger than any real one: 10k
+    locations of 100 days each, with their history and a city catalog.  Each call has to stay
+    within its latency budget, and none of the queries it runs may scan a whole table, which the
+    plans in the slow-call log of the metrics show.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    private static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 10000;
+    private static final int DAYS_PER_LOCATION = 100;
+    private static final int HISTORY_DAYS_PER_LOCATION = 10;
+    private static final int SUMMARIES_PER_PERIOD = 5;
+    private static final int CITY_COUNT = 10000;
+    private static final int CHUNK_SIZE = 1000;
+
+    // a frame's worth of work for a loader, as for the city search
+    private static final long READ_BUDGET_MILLIS = 50;
+    // the writes of a single location, as the sync and the deltas make them
+    private static final long WRITE_BUDGET_MILLIS = 100;
+    // archiving a day of every location, or compacting their history, in the background
+    private static final long MAINTENANCE_BUDGET_MILLIS = 2000;
+
+    private static final String PLANS_DB_NAME = "weather_plans.db";
+    private static final String LOCATION = "loc42";
+
+    private ContentResolver mResolver;
+    private long mFirstDay;
+
+    /**
+     * A call of one URI through the resolver.
+     */
+    private abstract static class UriCall {
+        final String mName;
+        final Uri mUri;
+        final long mBudgetMillis;
+        // a call that can be made twice, the first time to warm up the page cache
+        final boolean mRepeatable;
+
+        UriCall(String name, Uri uri, long budgetMillis, boolean repeatable) {
+            mName = name;
+            mUri = uri;
+            mBudgetMillis = budgetMillis;
+            mRepeatable = repeatable;
+        }
+
+        abstract void call(ContentResolver resolver);
+    }
+
+    /**
+     * A query of the URI, which reads all of its rows.
+     */
+    private static class QueryCall extends UriCall {
+        final String mSelection;
+        final String[] mSelectionArgs;
+        final String mSortOrder;
+
+        QueryCall(String name, Uri uri, String selection, String[] selectionArgs,
+                  String sortOrder) {
+            super(name, uri, READ_BUDGET_MILLIS, true);
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+        }
+
+        @Override
+        void call(ContentResolver resolver) {
+            Cursor cursor = resolver.query(mUri, null, mSelection, mSelectionArgs, mSortOrder);
+            assertNotNull("Error: no cursor for " + mName, cursor);
+            try {
+                while (cursor.moveToNext()) {
+                    // read every row, as a list scrolled to the end would
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mFirstDay = WeatherContract.normalizeDate(System.currentTimeMillis());
+        deleteAll();
+        mContext.deleteDatabase(PLANS_DB_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setSlowThreshold(ProviderMetrics.DEFAULT_SLOW_THRESHOLD_MS);
+        mResolver.delete(MetricsEntry.CONTENT_URI, null, null);
+        deleteAll();
+        mContext.deleteDatabase(PLANS_DB_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Empties the tables directly, since deleting a million rows through the provider would
+     * look at each of them first.
+     */
+    private void deleteAll() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(WeatherEntry.TABLE_NAME, null, null);
+            db.delete(HistoryEntry.TABLE_NAME, null, null);
+            db.delete(HistorySummaryEntry.TABLE_NAME, null, null);
+            db.delete(LocationEntry.TABLE_NAME, null, null);
+            db.delete(CityEntry.TABLE_NAME, null, null);
+            db.delete(CityEntry.FTS_TABLE_NAME, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        helper.close();
+        LocationIdCache.invalidate();
+    }
+
+    public void testFullScanDetection() {
+        // the formats of SQLite 3.7 to 3.8, and of 3.36 on
+        assertTrue(isFullScan("SCAN TABLE weather"));
+        assertTrue(isFullScan("SCAN TABLE history USING INDEX sqlite_autoindex_history_1"));
+        assertTrue(isFullScan("SCAN history_summary"));
+        assertTrue(isFullScan("SCAN city_fts VIRTUAL TABLE INDEX 0:"));
+        assertFalse(isFullScan("SEARCH TABLE weather USING INDEX weather_location_idx "
+                + "(location_id=? AND date>?)"));
+        assertFalse(isFullScan("SCAN SUBQUERY 1"));
+        assertFalse(isFullScan("SCAN (subquery-4)"));
+        assertFalse(isFullScan("SCAN CONSTANT ROW"));
+        assertFalse(isFullScan("SCAN TABLE city_fts VIRTUAL TABLE INDEX 3:"));
+        assertFalse(isFullScan("USE TEMP B-TREE FOR ORDER BY"));
+        // SQLite 3.6
+        assertTrue(isFullScan("TABLE weather"));
+        assertFalse(isFullScan("TABLE weather WITH INDEX weather_location_idx"));
+        assertFalse(isFullScan("TABLE location USING PRIMARY KEY"));
+    }
+
+    /**
+     * The writes run statements the cursor factory of the metrics never sees, so their plans
+     * are checked here, on an empty database since SQLite only has statistics after ANALYZE.
+     */
+    public void testWriteStatementsAreIndexed() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, PLANS_DB_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            String[] statements = {
+                    // the archiving of the sync
+                    WeatherProvider.sArchiveWeatherSql + WeatherEntry.COLUMN_DATE + " <= ?",
+                    "DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                            + WeatherEntry.COLUMN_DATE + " <= ?",
+                    // the days a delta changes
+                    "UPDATE " + WeatherEntry.TABLE_NAME + " SET " + WeatherEntry.COLUMN_MIN_TEMP
+                            + " = ? WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                            + WeatherEntry.COLUMN_DATE + " = ?",
+                    WeatherProvider.sUpsertLocationSql,
+                    // compaction
+                    HistoryCompactor.buildMergeSql(HistorySummaryEntry.PERIOD_WEEK,
+                            HistoryCompactor.WEEK_START_SQL),
+                    HistoryCompactor.buildMergeSql(HistorySummaryEntry.PERIOD_MONTH,
+                            HistoryCompactor.MONTH_START_SQL),
+                    "DELETE FROM " + HistoryEntry.TABLE_NAME + " WHERE "
+                            + HistoryCompactor.EXPIRED_DAYS_SELECTION,
+                    "DELETE FROM " + HistorySummaryEntry.TABLE_NAME + " WHERE "
+                            + HistoryCompactor.EXPIRED_SUMMARIES_SELECTION
+            };
+            for (String sql : statements) {
+                StringBuilder plan = new StringBuilder(sql).append('\n');
+                Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+                try {
+                    int detail = cursor.getColumnCount() - 1;
+                    while (cursor.moveToNext()) {
+                        plan.append("  ").append(cursor.getString(detail)).append('\n');
+                    }
+                } finally {
+                    cursor.close();
+                }
+                assertNoFullScan(sql, plan.toString());
+            }
+        } finally {
+            helper.close();
+        }
+    }
+
+    public void testEveryUriIsIndexed() {
+        long startedAt = SystemClock.elapsedRealtime();
+        insertSyntheticData();
+        Log.i(LOG_TAG, "Wrote " + LOCATION_COUNT * DAYS_PER_LOCATION + " days of "
+                + LOCATION_COUNT + " locations in "
+                + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+
+        List<UriCall> calls = buildCalls();
+        UriMatcher matcher = WeatherProvider.buildUriMatcher();
+        Set<Integer> uncalled = getRecordedMatches();
+        for (UriCall call : calls) {
+            uncalled.remove(matcher.match(call.mUri));
+        }
+        assertTrue("Error: no call of the URIs matching " + uncalled, uncalled.isEmpty());
+
+        // every call is slow enough to be explained
+        setSlowThreshold(0);
+        for (UriCall call : calls) {
+            if (call.mRepeatable) {
+                call.call(mResolver);
+            }
+            mResolver.delete(MetricsEntry.CONTENT_URI, null, null);
+            call.call(mResolver);
+
+            Cursor slow = mResolver.query(MetricsEntry.SLOW_URI, null, null, null, null);
+            assertNotNull(slow);
+            double durationMillis = 0;
+            try {
+                assertTrue("Error: " + call.mName + " wasn't recorded", slow.moveToFirst());
+                do {
+                    durationMillis = Math.max(durationMillis, slow.getDouble(
+                            slow.getColumnIndex(MetricsEntry.COLUMN_DURATION)));
+                    assertNoFullScan(call.mName, slow.getString(
+                            slow.getColumnIndex(MetricsEntry.COLUMN_QUERY_PLAN)));
+                } while (slow.moveToNext());
+            } finally {
+                slow.close();
+            }
+            Log.i(LOG_TAG, call.mName + ": " + durationMillis + "ms");
+            assertTrue("Error: " + call.mName + " took " + durationMillis
+                    + "ms, over its budget of " + call.mBudgetMillis + "ms",
+                    durationMillis <= call.mBudgetMillis);
+        }
+    }
+
+    /**
+     * @return a call of each URI, the reads first, with the selections the app uses
+     */
+    private List<UriCall> buildCalls() {
+        final long locationId = 42;
+        final long midDay = mFirstDay + DAYS_PER_LOCATION / 2 * DateUtils.DAY_IN_MILLIS;
+        long lastDay = mFirstDay + (DAYS_PER_LOCATION - 1) * DateUtils.DAY_IN_MILLIS;
+        long firstHistoryDay = mFirstDay - HISTORY_DAYS_PER_LOCATION * DateUtils.DAY_IN_MILLIS;
+        String byDate = WeatherEntry.COLUMN_DATE + " ASC";
+
+        List<UriCall> calls = new ArrayList<>();
+        calls.add(new QueryCall("forecast of a location",
+                WeatherEntry.buildWeatherLocation(LOCATION), null, null, byDate));
+        calls.add(new QueryCall("forecast from a day",
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION, midDay),
+                null, null, byDate));
+        calls.add(new QueryCall("page of the forecast", WeatherEntry.buildPageUri(
+                WeatherEntry.buildWeatherLocation(LOCATION), midDay, 30), null, null, null));
+        calls.add(new QueryCall("day of a location",
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION, midDay), null, null, null));
+        calls.add(new QueryCall("weekly stats", StatsEntry.buildStatsUri(LOCATION,
+                firstHistoryDay, lastDay, StatsEntry.BUCKET_WEEK), null, null, null));
+        calls.add(new QueryCall("days of a location id", WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(locationId), Long.toString(midDay)}, null));
+        calls.add(new QueryCall("location id of a setting", LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{LOCATION}, null));
+        calls.add(new QueryCall("nearest locations",
+                LocationEntry.buildNearUri(51.5, -0.1, 5), null, null, null));
+        calls.add(new QueryCall("history of a location",
+                HistoryEntry.buildHistoryLocationWithRange(LOCATION, firstHistoryDay, mFirstDay),
+                null, null, byDate));
+        calls.add(new QueryCall("expired history", HistoryEntry.CONTENT_URI,
+                HistoryEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(firstHistoryDay + DateUtils.DAY_IN_MILLIS)}, null));
+        calls.add(new QueryCall("weekly history",
+                HistorySummaryEntry.buildWeeklyHistory(LOCATION), null, null, null));
+        calls.add(new QueryCall("city by id", CityEntry.CONTENT_URI,
+                CityEntry._ID + " = ?", new String[]{"4242"}, null));
+        calls.add(new QueryCall("city search",
+                CityEntry.buildSearchUri("City424"), null, null, null));
+
+        calls.add(new UriCall("location upsert", LocationEntry.UPSERT_URI,
+                WRITE_BUDGET_MILLIS, false) {
+            @Override
+            void call(ContentResolver resolver) {
+                ContentValues values = new ContentValues();
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+                values.put(LocationEntry.COLUMN_CITY_NAME, "Renamed");
+                values.put(LocationEntry.COLUMN_COORD_LAT, 10.0);
+                values.put(LocationEntry.COLUMN_COORD_LONG, 20.0);
+                assertNotNull(resolver.insert(mUri, values));
+            }
+        });
+        calls.add(new UriCall("day of a delta", WeatherEntry.CONTENT_URI,
+                WRITE_BUDGET_MILLIS, false) {
+            @Override
+            void call(ContentResolver resolver) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, -5);
+                assertEquals(1, resolver.update(mUri, values,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE
+                                + " = ?",
+                        new String[]{Long.toString(locationId), Long.toString(midDay)}));
+            }
+        });
+        calls.add(new UriCall("forecast of a sync", WeatherEntry.CONTENT_URI,
+                WRITE_BUDGET_MILLIS, false) {
+            @Override
+            void call(ContentResolver resolver) {
+                ContentValues[] days = new ContentValues[14];
+                for (int i = 0; i < days.length; i++) {
+                    days[i] = TestUtilities.createWeatherValues(locationId);
+                    days[i].put(WeatherEntry.COLUMN_DATE, midDay + i * DateUtils.DAY_IN_MILLIS);
+                }
+                assertEquals(days.length, resolver.bulkInsert(mUri, days));
+            }
+        });
+        calls.add(new UriCall("archive of a day", WeatherEntry.ARCHIVE_URI,
+                MAINTENANCE_BUDGET_MILLIS, false) {
+            @Override
+            void call(ContentResolver resolver) {
+                assertEquals(LOCATION_COUNT, resolver.delete(mUri,
+                        WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(mFirstDay)}));
+            }
+        });
+        calls.add(new UriCall("history compaction", HistoryEntry.COMPACT_URI,
+                MAINTENANCE_BUDGET_MILLIS, false) {
+            @Override
+            void call(ContentResolver resolver) {
+                ContentValues cutoffs = new ContentValues();
+                cutoffs.put(HistoryEntry.COMPACT_DAYS_BEFORE,
+                        mFirstDay - HISTORY_DAYS_PER_LOCATION / 2 * DateUtils.DAY_IN_MILLIS);
+                cutoffs.put(HistoryEntry.COMPACT_WEEKS_BEFORE, getSummaryStart(
+                        HistorySummaryEntry.PERIOD_WEEK, SUMMARIES_PER_PERIOD - 1));
+                cutoffs.put(HistoryEntry.COMPACT_MONTHS_BEFORE, getSummaryStart(
+                        HistorySummaryEntry.PERIOD_MONTH, SUMMARIES_PER_PERIOD - 1));
+                assertTrue(resolver.update(mUri, cutoffs, null, null) > 0);
+            }
+        });
+        calls.add(new UriCall("deleted location", LocationEntry.CONTENT_URI,
+                WRITE_BUDGET_MILLIS, false) {
+            @Override
+            void call(ContentResolver resolver) {
+                assertEquals(1, resolver.delete(mUri, LocationEntry.COLUMN_LOCATION_SETTING
+                        + " = ?", new String[]{"loc" + (LOCATION_COUNT - 1)}));
+            }
+        });
+        calls.add(new UriCall("deleted days", HistoryEntry.CONTENT_URI,
+                WRITE_BUDGET_MILLIS, false) {
+            @Override
+            void call(ContentResolver resolver) {
+                assertTrue(resolver.delete(mUri, HistoryEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{Long.toString(locationId)}) > 0);
+            }
+        });
+        return calls;
+    }
+
+    /**
+     * @return the start of a weekly or monthly summary, the given number of periods before the
+     * history
+     */
+    private long getSummaryStart(int period, int periodsBefore) {
+        long periodMillis = (period == HistorySummaryEntry.PERIOD_WEEK ? 7 : 30)
+                * DateUtils.DAY_IN_MILLIS;
+        return mFirstDay - HISTORY_DAYS_PER_LOCATION * DateUtils.DAY_IN_MILLIS
+                - (periodsBefore + 1) * periodMillis;
+    }
+
+    /**
+     * @return the codes the provider matches URIs to and records metrics for, which is every
+     * one but those of the metrics themselves
+     */
+    private static Set<Integer> getRecordedMatches() {
+        Set<Integer> matches = new TreeSet<>();
+        for (Field field : WeatherProvider.class.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (field.getType() != int.class || !Modifier.isStatic(modifiers)
+                    || !Modifier.isFinal(modifiers) || Modifier.isPrivate(modifiers)) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                int match = field.getInt(null);
+                if (WeatherProvider.getPattern(match) != null) {
+                    matches.add(match);
+                }
+            } catch (IllegalAccessException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return matches;
+    }
+
+    private void insertSyntheticData() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        Random random = new Random(42);
+        db.beginTransaction();
+        try {
+            SQLiteStatement location = compileInsert(db, LocationEntry.TABLE_NAME,
+                    LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING,
+                    LocationEntry.COLUMN_CITY_NAME, LocationEntry.COLUMN_COORD_LAT,
+                    LocationEntry.COLUMN_COORD_LONG, LocationEntry.COLUMN_GEOHASH);
+            SQLiteStatement weather = compileInsert(db, WeatherEntry.TABLE_NAME,
+                    WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_SHORT_DESC, WeatherEntry.COLUMN_WEATHER_ID,
+                    WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherEntry.COLUMN_HUMIDITY, WeatherEntry.COLUMN_PRESSURE,
+                    WeatherEntry.COLUMN_WIND_SPEED, WeatherEntry.COLUMN_DEGREES);
+            SQLiteStatement history = compileInsert(db, HistoryEntry.TABLE_NAME,
+                    HistoryEntry.COLUMN_LOC_KEY, HistoryEntry.COLUMN_DATE,
+                    HistoryEntry.COLUMN_SHORT_DESC, HistoryEntry.COLUMN_WEATHER_ID,
+                    HistoryEntry.COLUMN_MIN_TEMP, HistoryEntry.COLUMN_MAX_TEMP,
+                    HistoryEntry.COLUMN_HUMIDITY, HistoryEntry.COLUMN_PRESSURE,
+                    HistoryEntry.COLUMN_WIND_SPEED, HistoryEntry.COLUMN_DEGREES);
+            SQLiteStatement summary = compileInsert(db, HistorySummaryEntry.TABLE_NAME,
+                    HistorySummaryEntry.COLUMN_LOC_KEY, HistorySummaryEntry.COLUMN_PERIOD,
+                    HistorySummaryEntry.COLUMN_START_DATE, HistorySummaryEntry.COLUMN_DAY_COUNT,
+                    HistorySummaryEntry.COLUMN_MIN_TEMP, HistorySummaryEntry.COLUMN_MAX_TEMP,
+                    HistorySummaryEntry.COLUMN_MEAN_TEMP, HistorySummaryEntry.COLUMN_STORM_DAYS,
+                    HistorySummaryEntry.COLUMN_DRIZZLE_DAYS, HistorySummaryEntry.COLUMN_RAIN_DAYS,
+                    HistorySummaryEntry.COLUMN_SNOW_DAYS, HistorySummaryEntry.COLUMN_FOG_DAYS,
+                    HistorySummaryEntry.COLUMN_CLEAR_DAYS, HistorySummaryEntry.COLUMN_CLOUDY_DAYS);
+            try {
+                for (long id = 1; id <= LOCATION_COUNT; id++) {
+                    double lat = random.nextDouble() * 180 - 90;
+                    double lon = random.nextDouble() * 360 - 180;
+                    location.bindLong(1, id);
+                    location.bindString(2, "loc" + id);
+                    location.bindString(3, "City " + id);
+                    location.bindDouble(4, lat);
+                    location.bindDouble(5, lon);
+                    location.bindString(6, GeoIndex.encode(lat, lon, GeoIndex.PRECISION));
+                    location.executeInsert();
+
+                    for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                        bindDay(weather, id, mFirstDay + day * DateUtils.DAY_IN_MILLIS, random);
+                        weather.executeInsert();
+                    }
+                    for (int day = 1; day <= HISTORY_DAYS_PER_LOCATION; day++) {
+                        bindDay(history, id, mFirstDay - day * DateUtils.DAY_IN_MILLIS, random);
+                        history.executeInsert();
+                    }
+                    for (int period : new int[]{HistorySummaryEntry.PERIOD_WEEK,
+                            HistorySummaryEntry.PERIOD_MONTH}) {
+                        for (int i = 0; i < SUMMARIES_PER_PERIOD; i++) {
+                            summary.bindLong(1, id);
+                            summary.bindLong(2, period);
+                            summary.bindLong(3, getSummaryStart(period, i));
+                            summary.bindLong(4, 7);
+                            summary.bindDouble(5, 2);
+                            summary.bindDouble(6, 14);
+                            summary.bindDouble(7, 8);
+                            for (int column = 8; column <= 14; column++) {
+                                summary.bindLong(column, column == 13 ? 7 : 0);
+                            }
+                            summary.executeInsert();
+                        }
+                    }
+                }
+            } finally {
+                location.close();
+                weather.close();
+                history.close();
+                summary.close();
+            }
+
+            ContentValues[] cities = new ContentValues[CHUNK_SIZE];
+            for (int i = 0; i < CITY_COUNT; i += CHUNK_SIZE) {
+                for (int j = 0; j < CHUNK_SIZE; j++) {
+                    cities[j] = new ContentValues();
+                    cities[j].put(CityEntry._ID, i + j + 1);
+                    cities[j].put(CityEntry.COLUMN_NAME, "City" + (i + j + 1));
+                    cities[j].put(CityEntry.COLUMN_COUNTRY, "US");
+                    cities[j].put(CityEntry.COLUMN_COORD_LAT, random.nextDouble() * 180 - 90);
+                    cities[j].put(CityEntry.COLUMN_COORD_LONG, random.nextDouble() * 360 - 180);
+                }
+                CitySearch.insert(db, cities);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        helper.close();
+    }
+
+    private static SQLiteStatement compileInsert(SQLiteDatabase db, String table,
+                                                 String... columns) {
+        String[] arguments = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            arguments[i] = "?";
+        }
+        return db.compileStatement("INSERT INTO " + table + " (" + TextUtils.join(", ", columns)
+                + ") VALUES (" + TextUtils.join(", ", arguments) + ")");
+    }
+
+    private static void bindDay(SQLiteStatement statement, long locationId, long date,
+                                Random random) {
+        double min = random.nextInt(30) - 10;
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, date);
+        statement.bindString(3, "Clear");
+        statement.bindLong(4, 800);
+        statement.bindDouble(5, min);
+        statement.bindDouble(6, min + random.nextInt(15));
+        statement.bindDouble(7, random.nextInt(100));
+        statement.bindDouble(8, 980 + random.nextInt(60));
+        statement.bindDouble(9, random.nextInt(20));
+        statement.bindDouble(10, random.nextInt(360));
+    }
+
+    private void setSlowThreshold(long thresholdMs) {
+        ContentValues values = new ContentValues();
+        values.put(MetricsEntry.SLOW_THRESHOLD_MS, thresholdMs);
+        mResolver.update(MetricsEntry.CONTENT_URI, values, null, null);
+    }
+
+    /**
+     * @param plan statements, each followed by the steps of its plan indented by two spaces, as
+     *             MetricsEntry.COLUMN_QUERY_PLAN has them
+     */
+    private static void assertNoFullScan(String name, String plan) {
+        String statement = null;
+        for (String line : plan.split("\n")) {
+            if (!line.startsWith("  ")) {
+                statement = line;
+            } else if (isFullScan(line.trim())) {
+                fail("Error: " + name + " scans a whole table: " + line.trim() + " in "
+                        + statement);
+            }
+        }
+    }
+
+    /**
+     * @return whether the step of a query plan reads every row of a table or index
+     */
+    static boolean isFullScan(String detail) {
+        if (detail.startsWith("TABLE ")) {
+            // SQLite 3.6 names the index of a search, and nothing for a scan
+            return !detail.contains(" WITH INDEX") && !detail.contains(" USING ");
+        }
+        if (!detail.startsWith("SCAN ")) {
+            return false;
+        }
+        // the rows of a subquery or a constant, rather than of a table
+        if (detail.contains("SUBQUERY") || detail.contains("(subquery")
+                || detail.contains("CONSTANT ROW")) {
+            return false;
+        }
+        // a full-text table is always scanned, by index 0 only if there is nothing to match
+        String virtualIndex = "VIRTUAL TABLE INDEX ";
+        int index = detail.indexOf(virtualIndex);
+        if (index >= 0) {
+            return detail.startsWith("0:", index + virtualIndex.length());
+        }
+        return true;
+    }
+}
@@ -34,8 +34,22 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_STATS_DIR = WeatherContract.StatsEntry.buildStatsUri(LOCATION_QUERY, TEST_DATE, TEST_DATE, WeatherContract.StatsEntry.BUCKET_WEEK);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_NEAR_DIR = WeatherContract.LocationEntry.buildNearUri(51.5, -0.1, 5);
+    // content://com.example.android.sunshine.app/city"
+    private static final Uri TEST_CITY_DIR = WeatherContract.CityEntry.CONTENT_URI;
+    private static final Uri TEST_CITY_SEARCH = WeatherContract.CityEntry.buildSearchUri("Lond");
+    // content://com.example.android.sunshine.app/history"
+    private static final Uri TEST_HISTORY_DIR = WeatherContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_COMPACT = WeatherContract.HistoryEntry.COMPACT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocation(LOCATION_QUERY);
+    private static final Uri TEST_HISTORY_WEEKLY_DIR = WeatherContract.HistorySummaryEntry.buildWeeklyHistory(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/metrics"
+    private static final Uri TEST_METRICS_DIR = WeatherContract.MetricsEntry.CONTENT_URI;
+    private static final Uri TEST_METRICS_SLOW_DIR = WeatherContract.MetricsEntry.SLOW_URI;
+    private static final Uri TEST_METRICS_LANES_DIR = WeatherContract.MetricsEntry.LANES_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +65,29 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_DIR), WeatherProvider.WEATHER_STATS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAR URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAR_DIR), WeatherProvider.LOCATION_NEAR);
+        assertEquals("Error: The CITY URI was matched incorrectly.",
+                testMatcher.match(TEST_CITY_DIR), WeatherProvider.CITY);
+        assertEquals("Error: The CITY SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_CITY_SEARCH), WeatherProvider.CITY_SEARCH);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY COMPACT URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_COMPACT), WeatherProvider.HISTORY_COMPACT);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The HISTORY SUMMARY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WEEKLY_DIR), WeatherProvider.HISTORY_SUMMARY);
+        assertEquals("Error: The METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_DIR), WeatherProvider.METRICS);
+        assertEquals("Error: The METRICS SLOW URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_SLOW_DIR), WeatherProvider.METRICS_SLOW);
+        assertEquals("Error: The METRICS LANES URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_LANES_DIR), WeatherProvider.METRICS_LANES);
     }
 }
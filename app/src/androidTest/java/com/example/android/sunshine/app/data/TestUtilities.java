@@ -88,6 +88,9 @@ public class TestUtilities extends AndroidTestCase {
         testValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
         testValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
         testValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        // the provider derives it, but the database wants it too
+        testValues.put(WeatherContract.LocationEntry.COLUMN_GEOHASH,
+                GeoIndex.encode(64.7488, -147.353, GeoIndex.PRECISION));
 
         return testValues;
     }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Pages through the days of a location and its history, and checks the pages add up to all
+    the days in order.
+ */
+public class TestWeatherPaging extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAY_COUNT = 95;
+    private static final int ARCHIVED_COUNT = 50;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long getDay(int i) {
+        // noon, so a change to daylight saving time can't move it to another day
+        return WeatherContract.normalizeDate(TestUtilities.TEST_DATE * 1000
+                + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    private void insertDays(int count) {
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            days[i] = TestUtilities.createWeatherValues(mLocationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, getDay(i));
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    /**
+     * Follows the pages of the URI to the end, asking for the newest days first to check the
+     * pages ignore it.
+     *
+     * @return the dates of all the pages
+     */
+    private List<Long> readPages(Uri uri, int limit) {
+        List<Long> dates = new ArrayList<>();
+        Uri pageUri = WeatherEntry.buildPageUri(uri, limit);
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(pageUri,
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null,
+                    WeatherEntry.COLUMN_DATE + " DESC");
+            assertNotNull(cursor);
+            try {
+                assertTrue("Error: a page had more days than its limit",
+                        cursor.getCount() <= limit);
+                while (cursor.moveToNext()) {
+                    dates.add(cursor.getLong(0));
+                }
+                if (cursor.getCount() < limit) {
+                    return dates;
+                }
+            } finally {
+                cursor.close();
+            }
+            pageUri = WeatherEntry.buildPageUri(uri, dates.get(dates.size() - 1), limit);
+        }
+    }
+
+    private static void assertDays(String message, int first, int count, List<Long> dates) {
+        assertEquals(message + ", wrong number of days", count, dates.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(message + ", wrong day " + i, getDay(first + i), (long) dates.get(i));
+        }
+    }
+
+    public void testPageUri() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, getDay(0));
+        Uri page = WeatherEntry.buildPageUri(WeatherEntry.buildPageUri(uri, 42, 10), 7, 3);
+        assertEquals(getDay(0), WeatherEntry.getStartDateFromUri(page));
+        assertEquals(7, WeatherEntry.getAfterDateFromUri(page));
+        assertEquals(3, WeatherEntry.getLimitFromUri(page));
+
+        Uri first = WeatherEntry.buildPageUri(page, 10);
+        assertEquals(-1, WeatherEntry.getAfterDateFromUri(first));
+        assertEquals(10, WeatherEntry.getLimitFromUri(first));
+        assertEquals(0, WeatherEntry.getLimitFromUri(uri));
+    }
+
+    public void testPagesAddUp() {
+        insertDays(DAY_COUNT);
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, getDay(0));
+        assertDays("Error: pages of 10", 0, DAY_COUNT, readPages(uri, 10));
+        assertDays("Error: pages of one", 0, DAY_COUNT, readPages(uri, 1));
+        assertDays("Error: one page", 0, DAY_COUNT, readPages(uri, DAY_COUNT + 1));
+
+        // the start date still applies
+        uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, getDay(40));
+        assertDays("Error: pages from a start date", 40, DAY_COUNT - 40, readPages(uri, 7));
+    }
+
+    public void testHistoryPagesAddUp() {
+        insertDays(DAY_COUNT);
+        mContext.getContentResolver().delete(WeatherEntry.ARCHIVE_URI,
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(getDay(ARCHIVED_COUNT))});
+        Uri uri = HistoryEntry.buildHistoryLocationWithRange(TestUtilities.TEST_LOCATION,
+                getDay(0), getDay(DAY_COUNT));
+        assertDays("Error: pages of the history", 0, ARCHIVED_COUNT, readPages(uri, 8));
+        uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertDays("Error: pages of what is left", ARCHIVED_COUNT, DAY_COUNT - ARCHIVED_COUNT,
+                readPages(uri, 8));
+    }
+}
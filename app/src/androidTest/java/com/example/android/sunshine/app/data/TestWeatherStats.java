@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+    Checks the stats computed in SQL against the same stats computed from the rows, and times
+    both over a few years of history.
+ */
+public class TestWeatherStats extends AndroidTestCase {
+    private static final String LOG_TAG = TestWeatherStats.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int BENCHMARK_DAYS = 5 * 365;
+    private static final int BENCHMARK_RUNS = 5;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        ContentValues dropAllSummaries = new ContentValues();
+        dropAllSummaries.put(HistoryEntry.COMPACT_WEEKS_BEFORE, Long.MAX_VALUE);
+        dropAllSummaries.put(HistoryEntry.COMPACT_MONTHS_BEFORE, Long.MAX_VALUE);
+        mContext.getContentResolver().update(HistoryEntry.COMPACT_URI, dropAllSummaries,
+                null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long getDay(int i) {
+        // noon, so a change to daylight saving time can't move it to another day
+        return WeatherContract.normalizeDate(TestUtilities.TEST_DATE * 1000
+                + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    /**
+     * Inserts the days, archiving all but the last ones, so the stats have to combine the
+     * forecast and the history.
+     */
+    private void insertDays(int count, int forecastCount) {
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            days[i] = TestUtilities.createWeatherValues(mLocationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, getDay(i));
+            // a yearly cycle with a cold spell every 10 days
+            double temperature = 10 + 15 * Math.sin(2 * Math.PI * i / 365) - (i % 10 == 3 ? 8 : 0);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, temperature - 5);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, temperature + 5);
+            days[i].put(WeatherEntry.COLUMN_HUMIDITY, 40 + i % 50);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        mContext.getContentResolver().delete(WeatherEntry.ARCHIVE_URI,
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(getDay(count - forecastCount))});
+    }
+
+    /**
+     * The client-side way: reads every day of the location and groups them by month in Java.
+     *
+     * @return the day count, lowest minimum and highest maximum by month start
+     */
+    private Map<Long, double[]> aggregateMonthsInJava(long from, long to) {
+        Map<Long, double[]> months = new TreeMap<>();
+        Calendar calendar = Calendar.getInstance();
+        for (Uri uri : new Uri[]{
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, from),
+                HistoryEntry.buildHistoryLocationWithRange(
+                        TestUtilities.TEST_LOCATION, from, to)}) {
+            Cursor cursor = mContext.getContentResolver().query(uri,
+                    new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MIN_TEMP,
+                            WeatherEntry.COLUMN_MAX_TEMP},
+                    null, null, null);
+            assertNotNull(cursor);
+            try {
+                while (cursor.moveToNext()) {
+                    long date = cursor.getLong(0);
+                    if (date > to) {
+                        continue;
+                    }
+                    calendar.setTimeInMillis(date);
+                    calendar.set(Calendar.DAY_OF_MONTH, 1);
+                    long monthStart = calendar.getTimeInMillis();
+                    double[] month = months.get(monthStart);
+                    if (month == null) {
+                        month = new double[]{0, Double.MAX_VALUE, -Double.MAX_VALUE};
+                        months.put(monthStart, month);
+                    }
+                    month[0]++;
+                    month[1] = Math.min(month[1], cursor.getDouble(1));
+                    month[2] = Math.max(month[2], cursor.getDouble(2));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return months;
+    }
+
+    private Map<Long, double[]> aggregateMonthsInSql(long from, long to) {
+        Map<Long, double[]> months = new TreeMap<>();
+        Cursor cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, from, to,
+                        StatsEntry.BUCKET_MONTH),
+                new String[]{StatsEntry.COLUMN_BUCKET_START, StatsEntry.COLUMN_DAY_COUNT,
+                        StatsEntry.COLUMN_MIN_TEMP, StatsEntry.COLUMN_MAX_TEMP},
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                months.put(cursor.getLong(0), new double[]{
+                        cursor.getInt(1), cursor.getDouble(2), cursor.getDouble(3)});
+            }
+        } finally {
+            cursor.close();
+        }
+        return months;
+    }
+
+    private static void assertSameMonths(Map<Long, double[]> expected, Map<Long, double[]> actual) {
+        assertEquals("Error: the stats have different months", expected.keySet(), actual.keySet());
+        for (Map.Entry<Long, double[]> month : expected.entrySet()) {
+            double[] stats = actual.get(month.getKey());
+            for (int i = 0; i < stats.length; i++) {
+                assertEquals("Error: wrong stats for month " + month.getKey(),
+                        month.getValue()[i], stats[i], 1e-9);
+            }
+        }
+    }
+
+    public void testStatsOfTheWholeRange() {
+        insertDays(60, 10);
+        Cursor cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, getDay(5), getDay(54),
+                        StatsEntry.BUCKET_ALL),
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(getDay(5),
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_BUCKET_START)));
+            assertEquals(50, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+        } finally {
+            cursor.close();
+        }
+
+        // by day, ordering by the minimum finds the cold spells
+        cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, getDay(0), getDay(59),
+                        StatsEntry.BUCKET_DAY),
+                new String[]{StatsEntry.COLUMN_BUCKET_START},
+                null, null, StatsEntry.COLUMN_MIN_TEMP + " ASC");
+        assertNotNull(cursor);
+        try {
+            assertEquals(60, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Error: the coldest day is not a cold spell",
+                    getDay(3), cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+
+        assertSameMonths(aggregateMonthsInJava(getDay(0), getDay(59)),
+                aggregateMonthsInSql(getDay(0), getDay(59)));
+    }
+
+    public void testStatsCountCompactedDays() {
+        insertDays(60, 10);
+        Map<Long, double[]> expected = aggregateMonthsInJava(getDay(0), getDay(59));
+
+        // the first 30 days only remain in the weekly and monthly summaries
+        ContentValues cutoffs = new ContentValues();
+        cutoffs.put(HistoryEntry.COMPACT_DAYS_BEFORE, getDay(30));
+        assertEquals(30, mContext.getContentResolver().update(HistoryEntry.COMPACT_URI, cutoffs,
+                null, null));
+        assertSameMonths(expected, aggregateMonthsInSql(getDay(0), getDay(59)));
+
+        int weekDays = 0;
+        Cursor cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, getDay(0), getDay(59),
+                        StatsEntry.BUCKET_WEEK),
+                new String[]{StatsEntry.COLUMN_DAY_COUNT}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                weekDays += cursor.getInt(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals("Error: the weekly stats lost compacted days", 60, weekDays);
+    }
+
+    public void testBenchmarkAgainstClientSideAggregation() {
+        insertDays(BENCHMARK_DAYS, 14);
+        long from = getDay(0);
+        long to = getDay(BENCHMARK_DAYS - 1);
+
+        long javaMillis = 0;
+        long sqlMillis = 0;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            long startedAt = SystemClock.elapsedRealtime();
+            Map<Long, double[]> expected = aggregateMonthsInJava(from, to);
+            javaMillis += SystemClock.elapsedRealtime() - startedAt;
+
+            startedAt = SystemClock.elapsedRealtime();
+            Map<Long, double[]> actual = aggregateMonthsInSql(from, to);
+            sqlMillis += SystemClock.elapsedRealtime() - startedAt;
+
+            assertSameMonths(expected, actual);
+        }
+        Log.i(LOG_TAG, "Monthly stats of " + BENCHMARK_DAYS + " days, average of "
+                + BENCHMARK_RUNS + " runs: " + (javaMillis / BENCHMARK_RUNS) + "ms client-side, "
+                + (sqlMillis / BENCHMARK_RUNS) + "ms in SQL");
+    }
+}
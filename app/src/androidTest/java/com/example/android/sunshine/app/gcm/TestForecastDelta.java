@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+    Applies forecast deltas to the weather provider and checks the version handling.
+ */
+public class TestForecastDelta extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final long TEST_DATE = 1419033600000L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getSharedPreferences(ForecastDelta.VERSIONS_PREFS, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        ContentValues weather = new ContentValues();
+        weather.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        weather.put(WeatherEntry.COLUMN_DATE, TEST_DATE);
+        weather.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        weather.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weather.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weather.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+        weather.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+        weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weather.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static ForecastDelta createDelta(long base, long version, JSONObject... days)
+            throws JSONException {
+        JSONArray daysJson = new JSONArray();
+        for (JSONObject day : days) {
+            daysJson.put(day);
+        }
+        JSONObject json = new JSONObject()
+                .put(ForecastDelta.KEY_TYPE, ForecastDelta.TYPE)
+                .put(ForecastDelta.KEY_LOCATION, TEST_LOCATION)
+                .put(ForecastDelta.KEY_BASE, base)
+                .put(ForecastDelta.KEY_VERSION, version)
+                .put(ForecastDelta.KEY_DAYS, daysJson);
+        assertTrue(ForecastDelta.isForecastDelta(json));
+        return ForecastDelta.fromJson(json);
+    }
+
+    private double queryMax(long date) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP},
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationId), Long.toString(date)}, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue("Error: no weather row for " + date, cursor.moveToFirst());
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testVersionsMustLineUp() throws JSONException {
+        JSONObject day = new JSONObject()
+                .put(WeatherEntry.COLUMN_DATE, TEST_DATE)
+                .put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+
+        // nothing is known about the server versions yet
+        assertEquals(ForecastDelta.RESULT_NEEDS_SYNC, createDelta(4, 5, day).apply(mContext));
+        assertEquals("Error: a delta was applied without a version match",
+                75.0, queryMax(TEST_DATE));
+
+        // not until the sync it asked for has run
+        assertEquals(ForecastDelta.RESULT_NEEDS_SYNC, createDelta(5, 6, day).apply(mContext));
+        assertEquals(75.0, queryMax(TEST_DATE));
+
+        // the version adopted with the sync lets the next delta through
+        ForecastDelta.onSynced(mContext, TEST_LOCATION);
+        assertEquals(ForecastDelta.RESULT_APPLIED, createDelta(6, 7, day).apply(mContext));
+        assertEquals(80.0, queryMax(TEST_DATE));
+
+        assertEquals(ForecastDelta.RESULT_STALE, createDelta(6, 7, day).apply(mContext));
+        assertEquals("Error: a gap in versions did not ask for a sync",
+                ForecastDelta.RESULT_NEEDS_SYNC, createDelta(8, 9, day).apply(mContext));
+        assertEquals("Error: the version of a delta that needed a sync was kept",
+                ForecastDelta.RESULT_NEEDS_SYNC, createDelta(9, 10, day).apply(mContext));
+    }
+
+    public void testUpsertsChangedDays() throws JSONException {
+        createDelta(0, 1, new JSONObject().put(WeatherEntry.COLUMN_DATE, TEST_DATE))
+                .apply(mContext);
+        ForecastDelta.onSynced(mContext, TEST_LOCATION);
+
+        long tomorrow = TEST_DATE + DAY_IN_MILLIS;
+        JSONObject changed = new JSONObject()
+                .put(WeatherEntry.COLUMN_DATE, TEST_DATE)
+                .put(WeatherEntry.COLUMN_MAX_TEMP, 70)
+                .put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        JSONObject added = new JSONObject()
+                .put(WeatherEntry.COLUMN_DATE, tomorrow)
+                .put(WeatherEntry.COLUMN_DEGREES, 2.1)
+                .put(WeatherEntry.COLUMN_HUMIDITY, 2.2)
+                .put(WeatherEntry.COLUMN_PRESSURE, 2.3)
+                .put(WeatherEntry.COLUMN_MAX_TEMP, 60)
+                .put(WeatherEntry.COLUMN_MIN_TEMP, 50)
+                .put(WeatherEntry.COLUMN_SHORT_DESC, "Rain")
+                .put(WeatherEntry.COLUMN_WIND_SPEED, 3.5)
+                .put(WeatherEntry.COLUMN_WEATHER_ID, 500);
+        assertEquals(ForecastDelta.RESULT_APPLIED,
+                createDelta(1, 2, changed, added).apply(mContext));
+        assertEquals(70.0, queryMax(TEST_DATE));
+        assertEquals(60.0, queryMax(tomorrow));
+
+        // a new day missing fields cannot be inserted
+        JSONObject partial = new JSONObject()
+                .put(WeatherEntry.COLUMN_DATE, tomorrow + DAY_IN_MILLIS)
+                .put(WeatherEntry.COLUMN_MAX_TEMP, 55);
+        assertEquals(ForecastDelta.RESULT_NEEDS_SYNC, createDelta(2, 3, partial).apply(mContext));
+        assertEquals("Error: a partly applied delta recorded its version",
+                ForecastDelta.RESULT_NEEDS_SYNC, createDelta(3, 4, changed).apply(mContext));
+    }
+}
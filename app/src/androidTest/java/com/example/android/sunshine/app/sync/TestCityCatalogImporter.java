@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Imports a small catalog a chunk at a time, restarting the importer halfway as if the process
+    had died, and checks every city made it in once.
+ */
+public class TestCityCatalogImporter extends AndroidTestCase {
+
+    private static final String TEST_PREFS = "test_city_import";
+    private static final int CITY_COUNT = 25;
+    private static final int CHUNK_SIZE = 10;
+
+    private SharedPreferences mPrefs;
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mFile = new File(mContext.getCacheDir(), "test.city.list.json.gz");
+        mContext.getContentResolver().delete(CityEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        mFile.delete();
+        mContext.getContentResolver().delete(CityEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /**
+     * Writes the catalog as a JSON array with a city per line, plus a line that doesn't parse.
+     */
+    private void writeCatalog() throws IOException {
+        StringBuilder catalog = new StringBuilder("[\n");
+        for (int i = 0; i < CITY_COUNT; i++) {
+            catalog.append("{\"id\":").append(1000 + i).append(",\"name\":\"City ").append(i)
+                    .append("\",\"country\":\"XX\",\"coord\":{\"lon\":").append(i)
+                    .append(",\"lat\":").append(-i).append("}}")
+                    .append(i < CITY_COUNT - 1 ? "," : "").append("\n");
+            if (i == 12) {
+                catalog.append("{\"id\":\"broken\n");
+            }
+        }
+        writeCatalog(catalog.append("]\n").toString());
+    }
+
+    private void writeCatalog(String catalog) throws IOException {
+        Writer writer = new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(mFile)), "UTF-8");
+        try {
+            writer.write(catalog);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private CityCatalogImporter createImporter() {
+        return new CityCatalogImporter(mContext, mPrefs, mFile, CHUNK_SIZE);
+    }
+
+    private int countCities() {
+        Cursor cursor = mContext.getContentResolver().query(CityEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testResumesAfterRestart() throws IOException {
+        writeCatalog();
+
+        assertTrue(createImporter().importNextChunk());
+        int firstChunk = countCities();
+        assertTrue("Error: the first chunk imported nothing", firstChunk > 0);
+
+        // a new importer, like after the process died, continues after the first chunk
+        CityCatalogImporter importer = createImporter();
+        while (importer.importNextChunk()) {
+            assertTrue("Error: the import doesn't make progress", countCities() > firstChunk);
+        }
+        assertEquals(CITY_COUNT, countCities());
+        assertFalse("Error: the catalog was kept after the import", mFile.exists());
+
+        // once done, nothing more is imported
+        assertFalse(createImporter().importNextChunk());
+    }
+
+    public void testParsesBothCatalogFormats() {
+        assertEquals(707860L, (long) CityCatalogImporter.parseCity(
+                "{\"_id\":707860,\"name\":\"Hurzuf\",\"country\":\"UA\","
+                        + "\"coord\":{\"lon\":34.283333,\"lat\":44.549999}}")
+                .getAsLong(CityEntry._ID));
+        assertEquals("Hurzuf", CityCatalogImporter.parseCity(
+                "{\"id\":707860,\"name\":\"Hurzuf\",\"country\":\"UA\","
+                        + "\"coord\":{\"lon\":34.283333,\"lat\":44.549999}}")
+                .getAsString(CityEntry.COLUMN_NAME));
+        assertNull(CityCatalogImporter.parseCity("{\"id\":707860}"));
+    }
+
+    public void testReadsObjectsAcrossLines() throws IOException {
+        // the current catalog is pretty-printed, with braces and quotes inside the names
+        StringReader reader = new StringReader("[\n  {\n    \"id\": 1,\n"
+                + "    \"name\": \"A {\\\"B\\\"}\",\n"
+                + "    \"coord\": {\n      \"lon\": 1,\n      \"lat\": 2\n    }\n  },\n"
+                + "  {\"id\": \"broken\n  {\"id\": 2, \"coord\": {}}\n]\n");
+        String first = CityCatalogImporter.readObject(reader);
+        assertNotNull(first);
+        assertEquals("A {\"B\"}", CityCatalogImporter.parseCity(first)
+                .getAsString(CityEntry.COLUMN_NAME));
+        assertEquals("{\"id\": 2, \"coord\": {}}", CityCatalogImporter.readObject(reader));
+        assertNull(CityCatalogImporter.readObject(reader));
+    }
+
+    public void testPrettyPrintedCatalog() throws IOException {
+        StringBuilder catalog = new StringBuilder("[\n");
+        for (int i = 0; i < CITY_COUNT; i++) {
+            catalog.append("  {\n    \"id\": ").append(1000 + i)
+                    .append(",\n    \"name\": \"City ").append(i)
+                    .append("\",\n    \"country\": \"XX\",\n    \"coord\": {\n      \"lon\": ")
+                    .append(i).append(",\n      \"lat\": ").append(-i).append("\n    }\n  }")
+                    .append(i < CITY_COUNT - 1 ? "," : "").append("\n");
+        }
+        writeCatalog(catalog.append("]\n").toString());
+
+        CityCatalogImporter importer = createImporter();
+        while (importer.importNextChunk()) {
+            // a chunk at a time
+        }
+        assertEquals(CITY_COUNT, countCities());
+    }
+
+    public void testNoCitiesIsAFailure() throws IOException {
+        writeCatalog("<html>Not found</html>\n");
+
+        assertFalse(createImporter().importNextChunk());
+        assertEquals(0, countCities());
+        assertFalse("Error: the bad catalog was kept", mFile.exists());
+        // rather than done, the import starts over, downloading the catalog again
+        assertTrue("Error: an import without cities was marked complete",
+                mPrefs.getAll().isEmpty());
+    }
+}
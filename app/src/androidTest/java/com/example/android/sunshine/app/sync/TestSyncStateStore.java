@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+/*
+    Counts the shared preference writes a sync costs and checks the state survives them.
+ */
+public class TestSyncStateStore extends AndroidTestCase {
+
+    private static final String TEST_PREFS = "test_sync_state";
+    private static final String STATUS_KEY = "loc-status";
+    private static final String LAST_NOTIFICATION_KEY = "last_notification";
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    private SyncStateStore createStore() {
+        return new SyncStateStore(mPrefs, STATUS_KEY, LAST_NOTIFICATION_KEY);
+    }
+
+    public void testOneWritePerSync() {
+        SyncStateStore store = createStore();
+
+        // a sync that retries and then succeeds, followed by the notification
+        store.setLocationStatus("94043", SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        store.setLocationStatus("94043", SunshineSyncAdapter.LOCATION_STATUS_OK);
+        store.setLastNotificationTime(1419033600000L);
+        assertEquals("Error: the store wrote before the flush", 0, store.getWriteCount());
+
+        store.flush();
+        assertEquals("Error: a sync took more than one write", 1, store.getWriteCount());
+
+        store.flush();
+        assertEquals("Error: a flush without changes wrote", 1, store.getWriteCount());
+
+        SyncStateStore reloaded = createStore();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, reloaded.getLocationStatus("94043"));
+        assertEquals(1419033600000L, reloaded.getLastNotificationTime());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                mPrefs.getInt(STATUS_KEY, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN));
+    }
+
+    public void testStatusIsKeptPerLocation() {
+        SyncStateStore store = createStore();
+        store.setLocationStatus("94043", SunshineSyncAdapter.LOCATION_STATUS_OK);
+        store.setLocationStatus("99705", SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+        store.flush();
+        assertEquals(1, store.getWriteCount());
+
+        SyncStateStore reloaded = createStore();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, reloaded.getLocationStatus("94043"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                reloaded.getLocationStatus("99705"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN,
+                reloaded.getLocationStatus("10001"));
+
+        // the preference the UI listens to follows the location synced last
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                mPrefs.getInt(STATUS_KEY, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN));
+    }
+}
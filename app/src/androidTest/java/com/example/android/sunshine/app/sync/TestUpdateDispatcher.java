@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+    Counts how often each consumer is woken up when the data changes in bursts.
+ */
+public class TestUpdateDispatcher extends AndroidTestCase {
+
+    private static final long TEST_DEBOUNCE_MS = 100;
+    private static final long TEST_MAX_DELAY_MS = 500;
+
+    private static class CountingConsumer implements UpdateDispatcher.Consumer {
+        volatile int mWakeups;
+        volatile long mLastVersion;
+
+        @Override
+        public void refresh(long dataVersion) {
+            mWakeups++;
+            mLastVersion = dataVersion;
+        }
+    }
+
+    private HandlerThread mThread;
+    private UpdateDispatcher mDispatcher;
+    private CountingConsumer mWidgets;
+    private CountingConsumer mMuzei;
+    private CountingConsumer mNotification;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("TestUpdateDispatcher");
+        mThread.start();
+        mDispatcher = new UpdateDispatcher(mThread.getLooper(), TEST_DEBOUNCE_MS,
+                TEST_MAX_DELAY_MS);
+        mWidgets = new CountingConsumer();
+        mMuzei = new CountingConsumer();
+        mNotification = new CountingConsumer();
+        mDispatcher.setConsumer(UpdateDispatcher.CONSUMER_WIDGETS, mWidgets);
+        mDispatcher.setConsumer(UpdateDispatcher.CONSUMER_MUZEI, mMuzei);
+        mDispatcher.setConsumer(UpdateDispatcher.CONSUMER_NOTIFICATION, mNotification);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private static void waitForWakeups(final CountingConsumer consumer, final int count) {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return consumer.mWakeups >= count;
+            }
+        }.run();
+    }
+
+    /*
+        Three syncs in a row (e.g. a location edit followed by an expedited sync) wake each
+        consumer once, for the newest version.
+     */
+    public void testBurstWakesEachConsumerOnce() {
+        for (int i = 0; i < 3; i++) {
+            mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_ALL);
+        }
+        waitForWakeups(mNotification, 1);
+        // give a stray extra wake-up the chance to show up before asserting on the count
+        SystemClock.sleep(TEST_DEBOUNCE_MS * 3);
+
+        assertEquals("Error: widgets were woken up more than once for a burst",
+                1, mWidgets.mWakeups);
+        assertEquals(1, mMuzei.mWakeups);
+        assertEquals(1, mNotification.mWakeups);
+        assertEquals(3, mWidgets.mLastVersion);
+        assertEquals(3, mDispatcher.getChangeCount());
+        assertEquals(1, mDispatcher.getRefreshCount(UpdateDispatcher.CONSUMER_WIDGETS));
+    }
+
+    /*
+        Only the consumers marked dirty are woken up.
+     */
+    public void testOnlyDirtyConsumersWake() {
+        mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_WIDGETS);
+        mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_WIDGETS
+                | UpdateDispatcher.CONSUMER_MUZEI);
+        waitForWakeups(mMuzei, 1);
+        SystemClock.sleep(TEST_DEBOUNCE_MS * 3);
+
+        assertEquals(1, mWidgets.mWakeups);
+        assertEquals(1, mMuzei.mWakeups);
+        assertEquals("Error: a consumer that was not dirty was woken up",
+                0, mNotification.mWakeups);
+
+        // a later change is a new version, so it wakes the consumer again
+        mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_WIDGETS);
+        waitForWakeups(mWidgets, 2);
+        assertEquals(3, mWidgets.mLastVersion);
+        assertEquals(1, mMuzei.mWakeups);
+    }
+
+    /*
+        A steady stream of changes is not debounced forever.
+     */
+    public void testMaxDelayBoundsTheWait() {
+        long start = SystemClock.uptimeMillis();
+        while (mWidgets.mWakeups == 0
+                && SystemClock.uptimeMillis() - start < TEST_MAX_DELAY_MS * 4) {
+            mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_WIDGETS);
+            SystemClock.sleep(TEST_DEBOUNCE_MS / 2);
+        }
+        assertEquals("Error: the dispatch kept being pushed back past the max delay",
+                1, mWidgets.mWakeups);
+    }
+
+    /*
+        A refresh the executor turns down, because its lane is full, is delivered later rather
+        than counted as done.
+     */
+    public void testRejectedRefreshIsRetried() {
+        UpdateDispatcher dispatcher = new UpdateDispatcher(mThread.getLooper(), new Executor() {
+            private int mRejections = 1;
+
+            @Override
+            public void execute(Runnable command) {
+                if (mRejections-- > 0) {
+                    throw new RejectedExecutionException("full");
+                }
+                command.run();
+            }
+        }, TEST_DEBOUNCE_MS, TEST_MAX_DELAY_MS);
+        CountingConsumer widgets = new CountingConsumer();
+        dispatcher.setConsumer(UpdateDispatcher.CONSUMER_WIDGETS, widgets);
+
+        dispatcher.dataChanged(UpdateDispatcher.CONSUMER_WIDGETS);
+        waitForWakeups(widgets, 1);
+        assertEquals(1, widgets.mLastVersion);
+        assertEquals(1, dispatcher.getRefreshCount(UpdateDispatcher.CONSUMER_WIDGETS));
+    }
+
+    /*
+        Two syncs arriving within the debounce window wake each consumer once: the first one to
+        end leaves the refresh to the second, which waits for it before returning.
+     */
+    public void testOverlappingSyncsWakeEachConsumerOnce() {
+        mDispatcher.beginWork();
+        mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_ALL);
+        mDispatcher.beginWork();
+        mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_ALL);
+
+        mDispatcher.endWork();
+        assertEquals("Error: a sync refreshed while another one was running",
+                0, mWidgets.mWakeups);
+        mDispatcher.endWork();
+        assertEquals("Error: the last sync returned before the consumers refreshed",
+                1, mWidgets.mWakeups);
+        assertEquals(1, mMuzei.mWakeups);
+        assertEquals(1, mNotification.mWakeups);
+        assertEquals(2, mWidgets.mLastVersion);
+
+        SystemClock.sleep(TEST_DEBOUNCE_MS * 3);
+        assertEquals("Error: the refresh ran again", 1, mWidgets.mWakeups);
+    }
+
+    /*
+        A sync waiting for the refresh at its end hands the wait over to a sync starting
+        meanwhile, so the two still cost a single refresh.
+     */
+    public void testWaitIsHandedToTheNextSync() throws InterruptedException {
+        mDispatcher.beginWork();
+        mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_ALL);
+        Thread firstSync = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.endWork();
+            }
+        });
+        firstSync.start();
+        SystemClock.sleep(TEST_DEBOUNCE_MS / 4);
+
+        mDispatcher.beginWork();
+        firstSync.join(TEST_DEBOUNCE_MS);
+        assertFalse("Error: the first sync kept waiting after the second one began",
+                firstSync.isAlive());
+        mDispatcher.dataChanged(UpdateDispatcher.CONSUMER_ALL);
+        mDispatcher.endWork();
+
+        assertEquals(1, mWidgets.mWakeups);
+        assertEquals(1, mMuzei.mWakeups);
+        assertEquals(1, mNotification.mWakeups);
+        assertEquals(2, mWidgets.mLastVersion);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.task;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StrictTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Checks that blocking calls are attributed to their thread and that strict mode turns slow
+    main-thread calls into failures.
+ */
+public class TestBlockingCallDetector extends AndroidTestCase {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        BlockingCallDetector.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        BlockingCallDetector.setStrict(true, StrictTestRunner.STRICT_THRESHOLD_MS);
+        BlockingCallDetector.reset();
+        super.tearDown();
+    }
+
+    private void queryLocations() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        cursor.close();
+    }
+
+    /**
+     * Runs the query on the main thread and returns what it threw, if anything.
+     */
+    private Throwable queryLocationsOnMainThread() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queryLocations();
+                } catch (Throwable t) {
+                    thrown.set(t);
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return thrown.get();
+    }
+
+    public void testRecordsCallingThread() throws InterruptedException {
+        queryLocations();
+        assertEquals(1, BlockingCallDetector.getCallCount());
+        assertEquals(0, BlockingCallDetector.getMainThreadCallCount());
+
+        // never too slow, so only counted
+        BlockingCallDetector.setStrict(true, Long.MAX_VALUE);
+        assertNull(queryLocationsOnMainThread());
+        assertEquals(2, BlockingCallDetector.getCallCount());
+        assertEquals(1, BlockingCallDetector.getMainThreadCallCount());
+        assertTrue(BlockingCallDetector.getViolations().isEmpty());
+    }
+
+    public void testDisabledDetectorRecordsNothing() throws InterruptedException {
+        BlockingCallDetector.setEnabled(false);
+        assertFalse(BlockingCallDetector.isEnabled());
+        queryLocations();
+        assertNull(queryLocationsOnMainThread());
+        assertEquals(0, BlockingCallDetector.getCallCount());
+        assertEquals(0, BlockingCallDetector.getMainThreadCallCount());
+    }
+
+    public void testStrictModeFailsSlowMainThreadCalls() throws InterruptedException {
+        // any duration is over the threshold
+        BlockingCallDetector.setStrict(true, -1);
+        Throwable thrown = queryLocationsOnMainThread();
+        assertTrue("Error: a main-thread query went unnoticed in strict mode",
+                thrown instanceof BlockingCallDetector.BlockingCallException);
+
+        // off the main thread the same query is fine
+        queryLocations();
+        assertEquals(1, BlockingCallDetector.getViolations().size());
+        assertEquals(BlockingCallDetector.KIND_PROVIDER_QUERY,
+                BlockingCallDetector.getViolations().get(0).kind);
+
+        BlockingCallDetector.setStrict(false, -1);
+        assertNull("Error: a slow call threw outside strict mode", queryLocationsOnMainThread());
+        assertEquals(2, BlockingCallDetector.getViolations().size());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.task;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsActivity;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.utils.StrictTestRunner;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Runs the main-thread paths that used to do I/O, the settings changes and the widget binds,
+    with any blocking call failing them.
+ */
+public class TestMainThreadPaths extends InstrumentationTestCase {
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        BlockingCallDetector.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        BlockingCallDetector.setStrict(true, StrictTestRunner.STRICT_THRESHOLD_MS);
+        BlockingCallDetector.reset();
+        super.tearDown();
+    }
+
+    /**
+     * Runs the code on the main thread with any blocking call over the threshold, and fails if
+     * it made one.
+     */
+    private void assertNoBlockingCalls(String what, final Runnable code) {
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        BlockingCallDetector.setStrict(true, -1);
+        try {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        code.run();
+                    } catch (Throwable t) {
+                        thrown.set(t);
+                    }
+                }
+            });
+        } finally {
+            BlockingCallDetector.setStrict(true, StrictTestRunner.STRICT_THRESHOLD_MS);
+        }
+        if (thrown.get() instanceof BlockingCallDetector.BlockingCallException) {
+            fail("Error: " + what + " blocked the main thread: " + thrown.get().getMessage());
+        } else if (thrown.get() != null) {
+            throw new RuntimeException(thrown.get());
+        }
+        assertEquals("Error: " + what + " made a blocking call on the main thread",
+                0, BlockingCallDetector.getMainThreadCallCount());
+    }
+
+    public void testSettingsChanges() {
+        Intent intent = new Intent(mContext, SettingsActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        final SettingsActivity activity =
+                (SettingsActivity) getInstrumentation().startActivitySync(intent);
+        try {
+            final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+            int[] keys = {R.string.pref_units_key, R.string.pref_art_pack_key,
+                    R.string.pref_location_status_key};
+            for (int key : keys) {
+                final String keyString = mContext.getString(key);
+                assertNoBlockingCalls("a change of " + keyString, new Runnable() {
+                    @Override
+                    public void run() {
+                        activity.onSharedPreferenceChanged(prefs, keyString);
+                    }
+                });
+            }
+        } finally {
+            activity.finish();
+        }
+    }
+
+    public void testWidgetBinds() {
+        final AppWidgetManager manager = AppWidgetManager.getInstance(mContext);
+        final int[] noWidgets = new int[0];
+        final Intent dataUpdated = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(mContext.getPackageName());
+        assertNoBlockingCalls("the today widget update", new Runnable() {
+            @Override
+            public void run() {
+                TodayWidgetProvider provider = new TodayWidgetProvider();
+                provider.onUpdate(mContext, manager, noWidgets);
+                provider.onReceive(mContext, dataUpdated);
+            }
+        });
+        assertNoBlockingCalls("the detail widget update", new Runnable() {
+            @Override
+            public void run() {
+                DetailWidgetProvider provider = new DetailWidgetProvider();
+                provider.onUpdate(mContext, manager, noWidgets);
+                provider.onReceive(mContext, dataUpdated);
+            }
+        });
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.task;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks the order lanes are served in, their bounds, cancellation and the wait metrics.
+ */
+public class TestTaskScheduler extends AndroidTestCase {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private static Runnable createBlocker(final CountDownLatch started,
+                                          final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // cancelled
+                }
+            }
+        };
+    }
+
+    private static Runnable createRecorder(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    public void testImportantLanesRunFirst() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(TaskScheduler.LANE_PREFETCH, createBlocker(started, release));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        scheduler.submit(TaskScheduler.LANE_PREFETCH, createRecorder(order, "prefetch"));
+        scheduler.submit(TaskScheduler.LANE_FANOUT, createRecorder(order, "fanout"));
+        scheduler.submit(TaskScheduler.LANE_SYNC, createRecorder(order, "sync"));
+        Future<?> last = scheduler.submit(TaskScheduler.LANE_UI, createRecorder(order, "ui"));
+        assertEquals(1, scheduler.getQueueDepth(TaskScheduler.LANE_UI));
+        assertEquals(1, scheduler.getQueueDepth(TaskScheduler.LANE_PREFETCH));
+
+        // let the queued tasks wait long enough to be measured
+        Thread.sleep(20);
+        release.countDown();
+        last.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (scheduler.getCompletedCount(TaskScheduler.LANE_PREFETCH) < 2
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, order.size());
+        assertEquals("Error: lanes were not served by priority",
+                "[ui, sync, fanout, prefetch]", order.toString());
+        assertTrue("Error: the wait of the queued tasks was not recorded",
+                scheduler.getMaxWaitMillis(TaskScheduler.LANE_UI) > 0);
+    }
+
+    public void testBackgroundLanesLeaveRoomForUi() throws Exception {
+        // two workers, both of which the sync lane would like to use
+        TaskScheduler scheduler = new TaskScheduler(2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(TaskScheduler.LANE_SYNC, createBlocker(started, release));
+        scheduler.submit(TaskScheduler.LANE_SYNC, createBlocker(started, release));
+        assertFalse("Error: the sync lane ran more tasks than it may",
+                started.await(200, TimeUnit.MILLISECONDS));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        scheduler.submit(TaskScheduler.LANE_UI, createRecorder(order, "ui"))
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("[ui]", order.toString());
+        release.countDown();
+    }
+
+    public void testSaturatedLanesLeaveAWorkerForUi() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(TaskScheduler.WORKER_COUNT);
+        CountDownLatch started = new CountDownLatch(TaskScheduler.WORKER_COUNT);
+        CountDownLatch release = new CountDownLatch(1);
+        // more than every worker between them, each lane up to its own limit
+        int[] lanes = {TaskScheduler.LANE_SYNC, TaskScheduler.LANE_FANOUT,
+                TaskScheduler.LANE_FANOUT, TaskScheduler.LANE_PREFETCH,
+                TaskScheduler.LANE_PREFETCH};
+        for (int lane : lanes) {
+            scheduler.submit(lane, createBlocker(started, release));
+        }
+        assertFalse("Error: the background lanes took every worker",
+                started.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, started.getCount());
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        scheduler.submit(TaskScheduler.LANE_UI, createRecorder(order, "ui"))
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("[ui]", order.toString());
+        release.countDown();
+    }
+
+    public void testBoundedQueueAndCancellation() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(TaskScheduler.LANE_UI, createBlocker(started, release));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Future<?>> queued = new ArrayList<>();
+        try {
+            while (true) {
+                queued.add(scheduler.submit(TaskScheduler.LANE_SYNC,
+                        createRecorder(order, "sync")));
+            }
+        } catch (RejectedExecutionException e) {
+            // the lane is full
+        }
+        assertEquals(queued.size(), scheduler.getQueueDepth(TaskScheduler.LANE_SYNC));
+        assertEquals(1, scheduler.getRejectedCount(TaskScheduler.LANE_SYNC));
+
+        for (Future<?> future : queued) {
+            assertTrue(future.cancel(false));
+        }
+        assertEquals("Error: cancelled tasks stayed queued",
+                0, scheduler.getQueueDepth(TaskScheduler.LANE_SYNC));
+
+        release.countDown();
+        scheduler.submit(TaskScheduler.LANE_SYNC, createRecorder(order, "after"))
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("Error: a cancelled task ran", "[after]", order.toString());
+    }
+}
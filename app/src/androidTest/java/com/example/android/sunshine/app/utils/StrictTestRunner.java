@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.os.Bundle;
+import android.os.StrictMode;
+import android.test.InstrumentationTestRunner;
+
+import com.example.android.sunshine.app.task.BlockingCallDetector;
+
+/*
+    Runs the tests with the blocking call detector in strict mode, so any provider query,
+    preference commit or image load taking more than STRICT_THRESHOLD_MS on the main thread fails
+    the run.  The platform's StrictMode logs the I/O the detector doesn't wrap.
+ */
+public class StrictTestRunner extends InstrumentationTestRunner {
+
+    // emulators are slower than devices, so allow a few frames
+    public static final long STRICT_THRESHOLD_MS = 50;
+
+    @Override
+    public void onCreate(Bundle arguments) {
+        BlockingCallDetector.setStrict(true, STRICT_THRESHOLD_MS);
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+        super.onCreate(arguments);
+    }
+}
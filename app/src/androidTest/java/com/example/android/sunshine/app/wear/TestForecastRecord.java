@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/*
+    Checks the days of the record are the local calendar days the watch face counts in, whatever
+    side of UTC the phone is on.
+ */
+public class TestForecastRecord extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        super.tearDown();
+    }
+
+    public void testEpochDayEastOfUtc() {
+        // UTC+12, where local midnight is noon of the previous UTC day
+        assertEpochDays("Pacific/Auckland");
+    }
+
+    public void testEpochDayWestOfUtc() {
+        assertEpochDays("America/Los_Angeles");
+    }
+
+    private void assertEpochDays(String timeZoneId) {
+        TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+        TimeZone.setDefault(timeZone);
+
+        Calendar local = Calendar.getInstance(timeZone);
+        local.clear();
+        local.set(2015, Calendar.JUNE, 30, 15, 0);
+        long firstDay = WeatherContract.normalizeDate(local.getTimeInMillis());
+
+        ForecastRecord.Builder builder = new ForecastRecord.Builder(3, true);
+        for (int i = 0; i < 3; i++) {
+            builder.addDay(firstDay + i * DAY_IN_MILLIS, 20, 10);
+        }
+        ByteBuffer record = ByteBuffer.wrap(builder.build());
+
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.clear();
+        utc.set(2015, Calendar.JUNE, 30);
+        assertEquals("Error: the first day isn't June 30th in " + timeZoneId,
+                utc.getTimeInMillis() / DAY_IN_MILLIS, record.getInt(4));
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Error: the days aren't consecutive in " + timeZoneId,
+                    i, record.getShort(ForecastRecord.HEADER_SIZE + i * ForecastRecord.DAY_SIZE));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.PutDataMapRequest;
+
+/*
+    Exercises WearPublisher against the in-memory data layer, so none of these tests need a
+    paired watch.
+ */
+public class TestWearPublisher extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWearPublisher.class.getSimpleName();
+
+    private static final long TEST_BACKOFF_MS = 50;
+
+    private static PutDataMapRequest createRequest(String path, int value) {
+        PutDataMapRequest request = PutDataMapRequest.create(path);
+        request.getDataMap().putInt("value", value);
+        return request;
+    }
+
+    private static void waitForPuts(final InMemoryWearDataLayer dataLayer, final int count) {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return dataLayer.getPutCount() >= count;
+            }
+        }.run();
+    }
+
+    /*
+        Everything queued while the watch is unreachable should collapse to one put per path,
+        carrying the newest value.
+     */
+    public void testNewestWinsPerPath() {
+        InMemoryWearDataLayer dataLayer = new InMemoryWearDataLayer();
+        dataLayer.setConnectable(false);
+        WearPublisher publisher = new WearPublisher(dataLayer, TEST_BACKOFF_MS);
+
+        for (int i = 0; i < 100; i++) {
+            publisher.publish(createRequest(WearPublisher.WEATHER_PATH, i));
+        }
+        publisher.publish(createRequest("/other", -1));
+
+        dataLayer.setConnectable(true);
+        waitForPuts(dataLayer, 2);
+        // give a stray extra put the chance to show up before asserting on the count
+        SystemClock.sleep(TEST_BACKOFF_MS * 4);
+
+        assertEquals("Error: queued items were not coalesced per path", 2, dataLayer.getPutCount());
+        assertEquals("Error: the newest item for a path did not win",
+                99, dataLayer.getDataMap(WearPublisher.WEATHER_PATH).getInt("value"));
+        assertEquals(-1, dataLayer.getDataMap("/other").getInt("value"));
+        assertEquals(99, publisher.getCoalescedCount());
+    }
+
+    /*
+        An item without an icon that replaces a queued one with an icon keeps that icon.
+     */
+    public void testReplacingItemKeepsQueuedAsset() {
+        InMemoryWearDataLayer dataLayer = new InMemoryWearDataLayer();
+        dataLayer.setConnectable(false);
+        WearPublisher publisher = new WearPublisher(dataLayer, TEST_BACKOFF_MS);
+
+        PutDataMapRequest withIcon = createRequest(WearPublisher.WEATHER_PATH, 1);
+        withIcon.getDataMap().putAsset(WearPublisher.KEY_ICON,
+                Asset.createFromBytes(new byte[]{1, 2, 3}));
+        publisher.publish(withIcon);
+        publisher.publish(createRequest(WearPublisher.WEATHER_PATH, 2));
+
+        dataLayer.setConnectable(true);
+        waitForPuts(dataLayer, 1);
+        assertEquals(2, dataLayer.getDataMap(WearPublisher.WEATHER_PATH).getInt("value"));
+        assertEquals("Error: the queued icon was dropped",
+                1, dataLayer.getAssetCount(WearPublisher.WEATHER_PATH));
+    }
+
+    /*
+        Failed puts are retried with backoff, and the connection is not torn down and rebuilt
+        between publishes.
+     */
+    public void testRetriesAndReusesConnection() {
+        InMemoryWearDataLayer dataLayer = new InMemoryWearDataLayer();
+        dataLayer.failNextPuts(3);
+        WearPublisher publisher = new WearPublisher(dataLayer, TEST_BACKOFF_MS);
+
+        publisher.publish(createRequest(WearPublisher.WEATHER_PATH, 1));
+        waitForPuts(dataLayer, 1);
+        assertEquals(3, publisher.getFailureCount());
+
+        publisher.publish(createRequest(WearPublisher.WEATHER_PATH, 2));
+        waitForPuts(dataLayer, 2);
+        assertEquals("Error: the publisher reconnected for every item",
+                1, dataLayer.getConnectCount());
+        assertEquals(2, dataLayer.getDataMap(WearPublisher.WEATHER_PATH).getInt("value"));
+    }
+
+    /*
+        Publishing never waits on the data layer, even when every put is slow.
+     */
+    public void testThroughputAndLatency() {
+        final int paths = 500;
+        InMemoryWearDataLayer dataLayer = new InMemoryWearDataLayer();
+        dataLayer.setPutLatencyMs(1);
+        WearPublisher publisher = new WearPublisher(dataLayer, TEST_BACKOFF_MS);
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < paths; i++) {
+            publisher.publish(createRequest("/item/" + i, i));
+        }
+        long enqueueMs = SystemClock.elapsedRealtime() - start;
+        waitForPuts(dataLayer, paths);
+        long totalMs = SystemClock.elapsedRealtime() - start;
+
+        Log.d(LOG_TAG, paths + " items: enqueue " + enqueueMs + "ms, delivered in " + totalMs
+                + "ms, mean latency " + publisher.getAverageLatencyMs()
+                + "ms, max latency " + publisher.getMaxLatencyMs() + "ms");
+        assertTrue("Error: publish() blocked on the data layer", enqueueMs < paths);
+        assertEquals(paths, publisher.getPublishedCount());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.test.AndroidTestCase;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.widget.RemoteViews;
+
+import com.example.android.sunshine.app.R;
+
+/*
+    Fans the Today widget out to 50 fake widget instances and counts the updateAppWidget calls
+    and RemoteViews builds it takes.
+ */
+public class TestTodayWidgetRenderer extends AndroidTestCase {
+
+    private static final int WIDGET_COUNT = 50;
+
+    /*
+        Widget host that records every update instead of talking to AppWidgetManager.
+     */
+    private static class CountingHost implements TodayWidgetRenderer.Host {
+        final SparseIntArray mWidths = new SparseIntArray();
+        final SparseArray<RemoteViews> mViews = new SparseArray<>();
+        int mUpdateCount;
+
+        @Override
+        public int getWidgetWidth(int appWidgetId) {
+            return mWidths.get(appWidgetId);
+        }
+
+        @Override
+        public void updateAppWidget(int appWidgetId, RemoteViews views) {
+            mUpdateCount++;
+            mViews.put(appWidgetId, views);
+        }
+    }
+
+    private CountingHost mHost;
+    private int[] mIds;
+    private int mSmallWidth;
+    private int mDefaultWidth;
+    private int mLargeWidth;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultWidth = mContext.getResources().getDimensionPixelSize(
+                R.dimen.widget_today_default_width);
+        mLargeWidth = mContext.getResources().getDimensionPixelSize(
+                R.dimen.widget_today_large_width);
+        mSmallWidth = mDefaultWidth - 1;
+
+        // spread the widgets over the three layout buckets
+        mHost = new CountingHost();
+        mIds = new int[WIDGET_COUNT];
+        int[] widths = {mSmallWidth, mDefaultWidth, mLargeWidth};
+        for (int i = 0; i < WIDGET_COUNT; i++) {
+            mIds[i] = 100 + i;
+            mHost.mWidths.put(mIds[i], widths[i % widths.length]);
+        }
+    }
+
+    private static int render(TodayWidgetRenderer renderer, CountingHost host, int[] ids,
+                              String high) {
+        return renderer.render(host, ids, R.drawable.art_clear, "Clear", high, "10°");
+    }
+
+    public void testEachLayoutBuiltOncePerData() {
+        TodayWidgetRenderer renderer = new TodayWidgetRenderer(mContext);
+
+        assertEquals(WIDGET_COUNT, render(renderer, mHost, mIds, "20°"));
+        assertEquals(WIDGET_COUNT, mHost.mUpdateCount);
+        assertEquals("Error: RemoteViews should be built once per layout bucket",
+                3, renderer.getBuildCount());
+
+        // widgets in the same bucket share the views
+        assertSame(mHost.mViews.get(mIds[0]), mHost.mViews.get(mIds[3]));
+        assertNotSame(mHost.mViews.get(mIds[0]), mHost.mViews.get(mIds[1]));
+    }
+
+    public void testUnchangedWidgetsAreSkipped() {
+        TodayWidgetRenderer renderer = new TodayWidgetRenderer(mContext);
+        render(renderer, mHost, mIds, "20°");
+        mHost.mUpdateCount = 0;
+
+        assertEquals("Error: widgets were updated although nothing changed",
+                0, render(renderer, mHost, mIds, "20°"));
+        assertEquals(0, mHost.mUpdateCount);
+        assertEquals(3, renderer.getBuildCount());
+        assertEquals(WIDGET_COUNT, renderer.getSkippedCount());
+
+        // resizing one widget into another bucket only updates that widget
+        mHost.mWidths.put(mIds[0], mLargeWidth);
+        assertEquals(1, render(renderer, mHost, mIds, "20°"));
+
+        // new data goes to every widget, again with one build per bucket
+        mHost.mUpdateCount = 0;
+        assertEquals(WIDGET_COUNT, render(renderer, mHost, mIds, "21°"));
+        assertEquals(WIDGET_COUNT, mHost.mUpdateCount);
+        assertEquals(6, renderer.getBuildCount());
+    }
+
+    public void testForgottenWidgetsAreUpdatedAgain() {
+        TodayWidgetRenderer renderer = new TodayWidgetRenderer(mContext);
+        render(renderer, mHost, mIds, "20°");
+
+        renderer.forget(new int[]{mIds[0], mIds[1]});
+        assertEquals(2, render(renderer, mHost, mIds, "20°"));
+        assertEquals(WIDGET_COUNT + 2, renderer.getUpdateCount());
+    }
+}
@@ -54,6 +54,7 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
+    private ForecastPageSource mPageSource;
     private RecyclerView mRecyclerView;
     private boolean mUseTodayLayout, mAutoSelectView;
     private int mChoiceMode;
@@ -184,8 +185,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         mRecyclerView.setHasFixedSize(true);
 
         // The ForecastAdapter will take data from a source and
-        // use it to populate the RecyclerView it's attached to.
-        mForecastAdapter = new ForecastAdapter(getActivity(), new ForecastAdapter.ForecastAdapterOnClickHandler() {
+        // use it to populate the RecyclerView it's attached to.  The source loads the days in
+        // pages as the list scrolls, so only the pages near the scroll position are in memory.
+        mPageSource = new ForecastPageSource(getActivity().getContentResolver(), FORECAST_COLUMNS);
+        mForecastAdapter = new ForecastAdapter(getActivity(), mPageSource, new ForecastAdapter.ForecastAdapterOnClickHandler() {
             @Override
             public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
                 String locationSetting = Utility.getPreferredLocation(getActivity());
@@ -272,10 +275,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // Using the URI scheme for showing a location found on a map.  This super-handy
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
-        if (null != mForecastAdapter) {
-            Cursor c = mForecastAdapter.getCursor();
+        if (null != mPageSource) {
+            Cursor c = mPageSource.peek(0);
             if (null != c) {
-                c.moveToPosition(0);
                 String posLat = c.getString(COL_COORD_LAT);
                 String posLong = c.getString(COL_COORD_LONG);
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
@@ -316,8 +318,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
+        // the loader only watches the first page, the page source loads the others
         return new CursorLoader(getActivity(),
-                weatherForLocationUri,
+                mPageSource.getFirstPageUri(weatherForLocationUri),
                 FORECAST_COLUMNS,
                 null,
                 null,
@@ -326,7 +329,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+        mPageSource.swapFirstPage(((CursorLoader) loader).getUri(), data);
         updateEmptyView();
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
@@ -341,16 +344,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            position = mPageSource.findLoadedPosition(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
@@ -380,11 +374,14 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if (null != mRecyclerView) {
             mRecyclerView.clearOnScrollListeners();
         }
+        if (null != mPageSource) {
+            mPageSource.close();
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
+        mPageSource.close();
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
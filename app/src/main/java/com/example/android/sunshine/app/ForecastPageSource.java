@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.task.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The rows of the forecast list, in pages loaded ahead of the position being bound.
+ *
+ * The first page is the cursor of the fragment's loader, which also reloads it when the data
+ * changes.  Every later page is queried in the background as the days after the last date of
+ * the page before it, once binding gets within PREFETCH_DISTANCE rows of its end.  At most
+ * MAX_LOADED_PAGES later pages stay open: the ones farthest from the bound position are closed
+ * and only remember where they start, to be queried again when scrolled back to.
+ */
+class ForecastPageSource {
+    private static final String LOG_TAG = ForecastPageSource.class.getSimpleName();
+
+    static final int PAGE_SIZE = 30;
+    static final int PREFETCH_DISTANCE = 10;
+    static final int MAX_LOADED_PAGES = 3;
+
+    /**
+     * Told on the main thread how the rows changed.
+     */
+    interface Listener {
+        void onRowsInserted(int position, int count);
+
+        // the rows of a page that was closed are back
+        void onRowsChanged(int position, int count);
+
+        void onDataSetChanged();
+    }
+
+    private static class Page {
+        // the date the page starts after, -1 for the first one
+        final long mAfterDate;
+        // -1 until the page has been loaded once
+        int mCount = -1;
+        long mLastDate;
+        // null while the page is closed
+        Cursor mCursor;
+        boolean mLoading;
+
+        Page(long afterDate) {
+            mAfterDate = afterDate;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final String[] mProjection;
+    private final Executor mExecutor;
+    // runs the loaded pages' callbacks on the main thread
+    private final Executor mCallbackExecutor;
+    private final int mPageSize;
+    private Listener mListener;
+
+    // all only touched on the main thread
+    private final List<Page> mPages = new ArrayList<>();
+    private Uri mUri;
+    private int mDateColumn;
+    private boolean mEnd;
+    private int mBoundPosition;
+    // bumped by every new first page, so pages queried before it are dropped
+    private int mGeneration;
+
+    ForecastPageSource(ContentResolver resolver, String[] projection) {
+        this(resolver, projection, TaskScheduler.getInstance().getExecutor(TaskScheduler.LANE_UI),
+                new Executor() {
+                    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+                    @Override
+                    public void execute(Runnable command) {
+                        mHandler.post(command);
+                    }
+                }, PAGE_SIZE);
+    }
+
+    ForecastPageSource(ContentResolver resolver, String[] projection, Executor executor,
+                       Executor callbackExecutor, int pageSize) {
+        mResolver = resolver;
+        mProjection = projection;
+        mExecutor = executor;
+        mCallbackExecutor = callbackExecutor;
+        mPageSize = pageSize;
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return the URI of the first page of the days of the URI, for the loader to query
+     */
+    Uri getFirstPageUri(Uri uri) {
+        return WeatherContract.WeatherEntry.buildPageUri(uri, mPageSize);
+    }
+
+    /**
+     * Starts over with the first page of the loader, or with nothing.  The loader keeps owning
+     * its cursor.
+     */
+    void swapFirstPage(Uri firstPageUri, Cursor cursor) {
+        mGeneration++;
+        for (int i = 1; i < mPages.size(); i++) {
+            close(mPages.get(i));
+        }
+        mPages.clear();
+        mUri = firstPageUri;
+        mBoundPosition = 0;
+        mEnd = true;
+        if (cursor != null) {
+            mDateColumn = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            Page first = new Page(-1);
+            first.mCursor = cursor;
+            setCount(first, cursor);
+            mPages.add(first);
+            mEnd = first.mCount < mPageSize;
+        }
+        if (mListener != null) {
+            mListener.onDataSetChanged();
+        }
+    }
+
+    /**
+     * @return the number of rows loaded so far, including those of closed pages
+     */
+    int getCount() {
+        int count = 0;
+        for (Page page : mPages) {
+            count += Math.max(0, page.mCount);
+        }
+        return count;
+    }
+
+    /**
+     * Moves to the row and loads the pages around it.
+     *
+     * @return the cursor of the row's page at the row, or null if the page is still loading
+     */
+    Cursor moveToPosition(int position) {
+        mBoundPosition = position;
+        Cursor cursor = peek(position);
+        if (cursor == null) {
+            load(position / mPageSize);
+        }
+        // the rows just after and just before the position will be needed next
+        int count = getCount();
+        if (position + PREFETCH_DISTANCE >= count && !mEnd) {
+            Page last = mPages.get(mPages.size() - 1);
+            if (last.mCursor != null) {
+                mPages.add(new Page(last.mLastDate));
+                load(mPages.size() - 1);
+            }
+        } else if (position + PREFETCH_DISTANCE < count) {
+            load((position + PREFETCH_DISTANCE) / mPageSize);
+        }
+        if (position >= PREFETCH_DISTANCE) {
+            load((position - PREFETCH_DISTANCE) / mPageSize);
+        }
+        return cursor != null && cursor.moveToPosition(position % mPageSize) ? cursor : null;
+    }
+
+    /**
+     * @return the cursor of the row's page, or null if it isn't open, without loading anything
+     */
+    Cursor peek(int position) {
+        int index = position / mPageSize;
+        if (position < 0 || index >= mPages.size()) {
+            return null;
+        }
+        Cursor cursor = mPages.get(index).mCursor;
+        return cursor != null && cursor.moveToPosition(position % mPageSize) ? cursor : null;
+    }
+
+    /**
+     * @return the number of pages with an open cursor, including the first one
+     */
+    int getOpenPageCount() {
+        int open = 0;
+        for (Page page : mPages) {
+            if (page.mCursor != null) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * @return the position of the day among the open pages, or -1 if none has it
+     */
+    int findLoadedPosition(long date) {
+        for (int i = 0; i < mPages.size(); i++) {
+            Cursor cursor = mPages.get(i).mCursor;
+            if (cursor == null) {
+                continue;
+            }
+            for (int row = 0; cursor.moveToPosition(row); row++) {
+                if (cursor.getLong(mDateColumn) == date) {
+                    return i * mPageSize + row;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Closes the pages this opened, leaving the first one to the loader.
+     */
+    void close() {
+        swapFirstPage(null, null);
+    }
+
+    private void load(final int index) {
+        if (index >= mPages.size()) {
+            return;
+        }
+        final Page page = mPages.get(index);
+        if (page.mCursor != null || page.mLoading) {
+            return;
+        }
+        page.mLoading = true;
+        final int generation = mGeneration;
+        final Uri pageUri = WeatherContract.WeatherEntry.buildPageUri(mUri, page.mAfterDate,
+                mPageSize);
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Cursor cursor = mResolver.query(pageUri, mProjection, null, null, null);
+                    if (cursor != null) {
+                        // fill the window here rather than when binding
+                        cursor.getCount();
+                    }
+                    mCallbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPageLoaded(generation, page, cursor);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // binding will ask again
+            Log.d(LOG_TAG, "Not loading page " + index + " now: " + e.getMessage());
+            page.mLoading = false;
+            if (page.mCount < 0) {
+                mPages.remove(index);
+            }
+        }
+    }
+
+    private void onPageLoaded(int generation, Page page, Cursor cursor) {
+        if (generation != mGeneration) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        page.mLoading = false;
+        int index = mPages.indexOf(page);
+        if (index < 0) {
+            // dropped while it was loading
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        if (cursor == null) {
+            if (page.mCount < 0) {
+                mPages.remove(index);
+            }
+            return;
+        }
+        int previousCount = page.mCount;
+        long previousLastDate = page.mLastDate;
+        page.mCursor = cursor;
+        setCount(page, cursor);
+        int position = index * mPageSize;
+        if (previousCount < 0) {
+            mEnd = page.mCount < mPageSize;
+            if (page.mCount == 0) {
+                close(page);
+                mPages.remove(index);
+            } else if (mListener != null) {
+                mListener.onRowsInserted(position, page.mCount);
+            }
+        } else if (previousCount != page.mCount || previousLastDate != page.mLastDate) {
+            // the days changed since the page was first loaded, so the pages after it may start
+            // at the wrong day, and the loader is about to start over anyway
+            while (mPages.size() > index + 1) {
+                close(mPages.remove(mPages.size() - 1));
+            }
+            mEnd = page.mCount < mPageSize;
+            if (mListener != null) {
+                mListener.onDataSetChanged();
+            }
+        } else if (mListener != null) {
+            mListener.onRowsChanged(position, page.mCount);
+        }
+        evict();
+    }
+
+    /**
+     * Closes the open pages farthest from the bound position until few enough are open.
+     */
+    private void evict() {
+        int boundIndex = mBoundPosition / mPageSize;
+        while (true) {
+            int open = 0;
+            int farthest = -1;
+            for (int i = 1; i < mPages.size(); i++) {
+                if (mPages.get(i).mCursor != null) {
+                    open++;
+                    if (farthest < 0
+                            || Math.abs(i - boundIndex) > Math.abs(farthest - boundIndex)) {
+                        farthest = i;
+                    }
+                }
+            }
+            if (open <= MAX_LOADED_PAGES) {
+                return;
+            }
+            close(mPages.get(farthest));
+        }
+    }
+
+    private void setCount(Page page, Cursor cursor) {
+        page.mCount = cursor.getCount();
+        if (cursor.moveToLast()) {
+            page.mLastDate = cursor.getLong(mDateColumn);
+        }
+    }
+
+    private static void close(Page page) {
+        if (page.mCursor != null) {
+            page.mCursor.close();
+            page.mCursor = null;
+        }
+    }
+}
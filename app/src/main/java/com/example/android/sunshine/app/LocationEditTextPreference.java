@@ -19,17 +19,33 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
+import android.support.v4.widget.SimpleCursorAdapter;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.FilterQueryProvider;
 
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.CityCatalogImporter;
+
+/**
+ * The location setting, autocompleted from the city catalog.  The dialog shows an
+ * AutoCompleteTextView in place of the preference's own EditText, which only carries the value
+ * back when the dialog is closed.  Suggestions are searched on the filter's worker thread.
+ */
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
+    private final AutoCompleteTextView mSearchView;
 
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -42,14 +58,78 @@ public class LocationEditTextPreference extends EditTextPreference {
         } finally {
             a.recycle();
         }
+
+        mSearchView = new AutoCompleteTextView(context, attrs);
+        mSearchView.setThreshold(mMinLength);
+        mSearchView.setAdapter(createCityAdapter(context));
+    }
+
+    private static SimpleCursorAdapter createCityAdapter(final Context context) {
+        SimpleCursorAdapter adapter = new SimpleCursorAdapter(context,
+                android.R.layout.simple_list_item_2,
+                null,
+                new String[]{WeatherContract.CityEntry.COLUMN_NAME,
+                        WeatherContract.CityEntry.COLUMN_COUNTRY},
+                new int[]{android.R.id.text1, android.R.id.text2},
+                0);
+        adapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (constraint == null) {
+                    return null;
+                }
+                return context.getContentResolver().query(
+                        WeatherContract.CityEntry.buildSearchUri(constraint.toString()),
+                        null, null, null, null);
+            }
+        });
+        adapter.setCursorToStringConverter(new SimpleCursorAdapter.CursorToStringConverter() {
+            @Override
+            public CharSequence convertToString(Cursor cursor) {
+                // openweathermap's own query format, which tells apart cities of the same name
+                String name = cursor.getString(
+                        cursor.getColumnIndex(WeatherContract.CityEntry.COLUMN_NAME));
+                String country = cursor.getString(
+                        cursor.getColumnIndex(WeatherContract.CityEntry.COLUMN_COUNTRY));
+                return country.length() > 0 ? name + "," + country : name;
+            }
+        });
+        return adapter;
+    }
+
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        ViewParent oldParent = mSearchView.getParent();
+        if (oldParent != dialogView) {
+            if (oldParent != null) {
+                ((ViewGroup) oldParent).removeView(mSearchView);
+            }
+            super.onAddEditTextToDialogView(dialogView, mSearchView);
+        }
+    }
+
+    @Override
+    protected void onBindDialogView(View view) {
+        super.onBindDialogView(view);
+        mSearchView.setText(getText());
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (positiveResult) {
+            getEditText().setText(mSearchView.getText());
+        }
+        super.onDialogClosed(positiveResult);
     }
 
 
     @Override
     protected void showDialog(Bundle state) {
         super.showDialog(state);
+        // Suggestions come from the city catalog, which fills in while the dialog is in use
+        CityCatalogImporter.startIfNeeded(getContext());
 
-        EditText et = getEditText();
+        EditText et = mSearchView;
         et.addTextChangedListener(new TextWatcher() {
 
 
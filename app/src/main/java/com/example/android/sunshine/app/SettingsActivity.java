@@ -16,6 +16,7 @@
 package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
@@ -32,13 +33,12 @@ import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.data.WeatherDbHelper;
 import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
+import com.example.android.sunshine.app.sync.UpdateDispatcher;
+import com.example.android.sunshine.app.task.TaskScheduler;
+import com.example.android.sunshine.app.wear.ForecastRecord;
+import com.example.android.sunshine.app.wear.WearPublisher;
+
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
@@ -50,14 +50,7 @@ import com.google.android.gms.wearable.Wearable;
  */
 public class SettingsActivity extends PreferenceActivity
         implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
-
-    private static final String TAG = "settingsActivity";
-    private GoogleApiClient mGoogleApiClient;
-    private boolean watch = false;
-    private static final String weatherPath = "/weather";
-    private static final String iconKey = "icon";
-    private static final String minKey = "min";
-    private static final String maxKey = "max";
+    private static final String LOG_TAG = SettingsActivity.class.getSimpleName();
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -70,43 +63,6 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                    @Override
-                    public void onConnected(Bundle connectionHint) {
-                        Log.d(TAG, "onConnected: " + connectionHint);
-                        // Now you can use the Data Layer API
-                        watch = true;
-                    }
-                    @Override
-                    public void onConnectionSuspended(int cause) {
-                        Log.d(TAG, "onConnectionSuspended: " + cause);
-                        watch = false;
-                    }
-                })
-                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                    @Override
-                    public void onConnectionFailed(ConnectionResult result) {
-                        Log.d(TAG, "onConnectionFailed: " + result);
-                        watch = false;
-                    }
-                })
-                // Request access only to the Wearable API
-                .addApi(Wearable.API)
-                .build();
-        mGoogleApiClient.connect();
-    }
-
-    @Override
-    protected void onStart() {
-        super.onStart();
-        mGoogleApiClient.connect();
-    }
-
-    @Override
-    protected void onStop() {
-        mGoogleApiClient.disconnect();
-        super.onStop();
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -194,34 +150,58 @@ public class SettingsActivity extends PreferenceActivity
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
-            // units have changed. update lists of weather entries accordingly
+            // units have changed. update lists of weather entries and widgets accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-            // update watch
-            if (watch) {
-                String locationQuery = Utility.getPreferredLocation(getApplicationContext());
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-                Cursor cursor = getContentResolver().query(weatherUri, new String[]{
-                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP}, null, null, null);
-                assert cursor != null;
-                cursor.moveToFirst();
-                double high = cursor.getDouble(0);
-                double low = cursor.getDouble(1);
-                cursor.close();
-                PutDataMapRequest request = PutDataMapRequest.create(weatherPath);
-                request.getDataMap().putDouble(maxKey, Utility.isMetric(getApplicationContext()) ? high : (high * 1.8) + 32);
-                request.getDataMap().putDouble(minKey, Utility.isMetric(getApplicationContext()) ? low : (low * 1.8) + 32);
-                request.setUrgent();
-                PutDataRequest putDataRequest = request.asPutDataRequest();
-                Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest);
+            UpdateDispatcher.getInstance(this).dataChanged(UpdateDispatcher.CONSUMER_WIDGETS);
+            // update watch, off the main thread but ahead of any background work
+            final Context context = getApplicationContext();
+            try {
+                TaskScheduler.getInstance().submit(TaskScheduler.LANE_UI, new Runnable() {
+                    @Override
+                    public void run() {
+                        publishForecastToWatch(context);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Log.w(LOG_TAG, "Too many pending tasks, the watch updates with the next sync");
             }
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
-            // art pack have changed. update lists of weather entries accordingly
+            // art pack have changed. update lists of weather entries, widgets and Muzei accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            UpdateDispatcher.getInstance(this).dataChanged(
+                    UpdateDispatcher.CONSUMER_WIDGETS | UpdateDispatcher.CONSUMER_MUZEI);
+        }
+    }
+
+    /**
+     * Sends the forecast again to the watch, in the units now selected.
+     */
+    private static void publishForecastToWatch(Context context) {
+        String locationQuery = Utility.getPreferredLocation(context);
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationQuery, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherUri, new String[]{
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP}, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor != null) {
+            WearPublisher publisher = WearPublisher.getInstance(context);
+            if (cursor.moveToFirst()) {
+                // No icon: the watch keeps the one it got from the last sync
+                publisher.publishWeather(context, null,
+                        cursor.getDouble(1), cursor.getDouble(2));
+                ForecastRecord.Builder forecast = new ForecastRecord.Builder(
+                        cursor.getCount(), Utility.isMetric(context));
+                do {
+                    forecast.addDay(cursor.getLong(0), cursor.getDouble(1), cursor.getDouble(2));
+                } while (cursor.moveToNext());
+                publisher.publishForecast(forecast.build());
+            }
+            cursor.close();
         }
     }
 
@@ -23,6 +23,7 @@ import android.preference.PreferenceManager;
 import android.text.format.Time;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncStateStore;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -555,24 +556,21 @@ public class Utility {
 
     /**
      *
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the SyncStateStore
      * @return the location status integer type
      */
-    @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
     int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return SyncStateStore.getInstance(c).getLocationStatus(getPreferredLocation(c));
     }
 
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the SyncStateStore
      */
     static public void resetLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        SyncStateStore syncState = SyncStateStore.getInstance(c);
+        syncState.setLocationStatus(getPreferredLocation(c), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        syncState.flushAsync();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes and searches the city catalog.
+ *
+ * The full-text index holds each name folded to lower case ASCII words, and the spelling
+ * skeleton of those words: similar sounding consonants merged, vowels and repeated letters
+ * dropped after the first.  A search first looks for names starting like the text, then for
+ * names whose skeleton starts like the text's, so "chikago" or "pitsburg" still find their city.
+ * The candidates are ranked by how far their start is from the text.
+ */
+class CitySearch {
+
+    static final String FTS_COLUMN_NAME = "name";
+    static final String FTS_COLUMN_SKELETON = "skeleton";
+
+    // the columns of the search results
+    static final String[] COLUMNS = {
+            CityEntry._ID,
+            CityEntry.COLUMN_NAME,
+            CityEntry.COLUMN_COUNTRY,
+            CityEntry.COLUMN_COORD_LAT,
+            CityEntry.COLUMN_COORD_LONG
+    };
+
+    // each full-text query returns at most this many candidates to rank
+    private static final int MAX_CANDIDATES = 50;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-z0-9]+");
+
+    //SELECT city._id, city.name, ... FROM city_fts JOIN city ON city._id = city_fts.docid
+    //WHERE city_fts MATCH ? LIMIT 50
+    private static final String sSearchSql;
+
+    static {
+        StringBuilder columns = new StringBuilder();
+        for (String column : COLUMNS) {
+            columns.append(columns.length() == 0 ? "" : ", ")
+                    .append(CityEntry.TABLE_NAME).append('.').append(column);
+        }
+        sSearchSql = "SELECT " + columns + " FROM " + CityEntry.FTS_TABLE_NAME
+                + " JOIN " + CityEntry.TABLE_NAME + " ON " + CityEntry.TABLE_NAME + "."
+                + CityEntry._ID + " = " + CityEntry.FTS_TABLE_NAME + ".docid"
+                + " WHERE " + CityEntry.FTS_TABLE_NAME + " MATCH ? LIMIT " + MAX_CANDIDATES;
+    }
+
+    private CitySearch() {
+    }
+
+    /**
+     * @return the text in lower case ASCII words separated by single spaces
+     */
+    static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String folded = DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.US);
+        return NON_ALPHANUMERIC.matcher(folded).replaceAll(" ").trim();
+    }
+
+    /**
+     * @return the spelling skeleton of each word of the folded text
+     */
+    static String skeleton(String folded) {
+        StringBuilder skeleton = new StringBuilder(folded.length());
+        char last = ' ';
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            boolean wordStart = last == ' ';
+            switch (c) {
+                case 'c':
+                case 'q':
+                    c = 'k';
+                    break;
+                case 'z':
+                    c = 's';
+                    break;
+                case 'p':
+                    if (i + 1 < folded.length() && folded.charAt(i + 1) == 'h') {
+                        c = 'f';
+                    }
+                    break;
+                case 'a': case 'e': case 'i': case 'o': case 'u': case 'y': case 'h': case 'w':
+                    if (!wordStart) {
+                        continue;
+                    }
+                    break;
+            }
+            if (c != last || c == ' ') {
+                skeleton.append(c);
+            }
+            last = c;
+        }
+        return skeleton.toString();
+    }
+
+    /**
+     * Adds the cities to the catalog, replacing those of the same id, inside the caller's
+     * transaction.
+     *
+     * @return the number of cities written
+     */
+    static int insert(SQLiteDatabase db, ContentValues[] cities) {
+        SQLiteStatement insertCity = db.compileStatement("INSERT OR REPLACE INTO "
+                + CityEntry.TABLE_NAME + " (" + CityEntry._ID + ", " + CityEntry.COLUMN_NAME + ", "
+                + CityEntry.COLUMN_COUNTRY + ", " + CityEntry.COLUMN_COORD_LAT + ", "
+                + CityEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?, ?)");
+        // full-text tables of older SQLite versions ignore conflict clauses
+        SQLiteStatement deleteIndex = db.compileStatement("DELETE FROM "
+                + CityEntry.FTS_TABLE_NAME + " WHERE docid = ?");
+        SQLiteStatement insertIndex = db.compileStatement("INSERT INTO "
+                + CityEntry.FTS_TABLE_NAME + " (docid, " + FTS_COLUMN_NAME + ", "
+                + FTS_COLUMN_SKELETON + ") VALUES (?, ?, ?)");
+        int count = 0;
+        try {
+            for (ContentValues city : cities) {
+                Long id = city.getAsLong(CityEntry._ID);
+                String name = city.getAsString(CityEntry.COLUMN_NAME);
+                String country = city.getAsString(CityEntry.COLUMN_COUNTRY);
+                Double lat = city.getAsDouble(CityEntry.COLUMN_COORD_LAT);
+                Double lon = city.getAsDouble(CityEntry.COLUMN_COORD_LONG);
+                if (id == null || name == null || lat == null || lon == null) {
+                    continue;
+                }
+                String folded = fold(name);
+                insertCity.bindLong(1, id);
+                insertCity.bindString(2, name);
+                insertCity.bindString(3, country != null ? country : "");
+                insertCity.bindDouble(4, lat);
+                insertCity.bindDouble(5, lon);
+                insertCity.executeInsert();
+                deleteIndex.bindLong(1, id);
+                deleteIndex.execute();
+                insertIndex.bindLong(1, id);
+                insertIndex.bindString(2, folded);
+                insertIndex.bindString(3, skeleton(folded));
+                insertIndex.executeInsert();
+                count++;
+            }
+        } finally {
+            insertCity.close();
+            deleteIndex.close();
+            insertIndex.close();
+        }
+        return count;
+    }
+
+    /**
+     * @return up to limit cities with the COLUMNS, best match first
+     */
+    static Cursor search(SQLiteDatabase db, String text, int limit) {
+        MatrixCursor result = new MatrixCursor(COLUMNS);
+        final String query = fold(text);
+        if (query.length() == 0) {
+            return result;
+        }
+
+        // by id, so a city found both ways is only ranked once
+        Map<Long, Object[]> candidates = new LinkedHashMap<>();
+        // the whole words first, since a short prefix has more matches than are fetched
+        addCandidates(db, buildMatch(FTS_COLUMN_NAME, query, false), candidates);
+        if (candidates.size() < limit) {
+            addCandidates(db, buildMatch(FTS_COLUMN_NAME, query, true), candidates);
+        }
+        if (candidates.size() < limit) {
+            addCandidates(db, buildMatch(FTS_COLUMN_SKELETON, skeleton(query), true), candidates);
+        }
+
+        final Map<Object[], Integer> distances = new LinkedHashMap<>();
+        for (Object[] city : candidates.values()) {
+            String name = fold((String) city[1]);
+            int distance = getPrefixDistance(query, name);
+            if (distance <= getMaxTypos(query)) {
+                distances.put(city, distance);
+            }
+        }
+        List<Object[]> ranked = new ArrayList<>(distances.keySet());
+        Collections.sort(ranked, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                int byDistance = distances.get(lhs) - distances.get(rhs);
+                if (byDistance != 0) {
+                    return byDistance;
+                }
+                // the shorter name is the closer to being complete
+                return ((String) lhs[1]).length() - ((String) rhs[1]).length();
+            }
+        });
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            result.addRow(ranked.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return the full-text query matching all the words, the last one as a prefix if asked
+     */
+    static String buildMatch(String column, String words, boolean prefix) {
+        StringBuilder match = new StringBuilder();
+        for (String word : words.split(" ")) {
+            match.append(match.length() == 0 ? "" : " ").append(column).append(':').append(word);
+        }
+        return prefix ? match.append('*').toString() : match.toString();
+    }
+
+    private static void addCandidates(SQLiteDatabase db, String match,
+                                      Map<Long, Object[]> candidates) {
+        Cursor cursor = db.rawQuery(sSearchSql, new String[]{match});
+        try {
+            while (cursor.moveToNext()) {
+                candidates.put(cursor.getLong(0), new Object[]{cursor.getLong(0),
+                        cursor.getString(1), cursor.getString(2), cursor.getDouble(3),
+                        cursor.getDouble(4)});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int getMaxTypos(String query) {
+        return query.length() <= 4 ? 1 : 2;
+    }
+
+    /**
+     * @return the fewest insertions, deletions, substitutions and swaps of adjacent letters
+     * turning the query into a start of the name
+     */
+    static int getPrefixDistance(String query, String name) {
+        int[][] d = new int[query.length() + 1][name.length() + 1];
+        for (int i = 0; i <= query.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= name.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= query.length(); i++) {
+            for (int j = 1; j <= name.length(); j++) {
+                int cost = query.charAt(i - 1) == name.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                        d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && query.charAt(i - 1) == name.charAt(j - 2)
+                        && query.charAt(i - 2) == name.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + cost);
+                }
+            }
+        }
+        // the rest of the name is free, whatever start of it the query is closest to
+        int best = Integer.MAX_VALUE;
+        for (int j = 0; j <= name.length(); j++) {
+            best = Math.min(best, d[query.length()][j]);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Compact snapshot of the forecast of one location, written by the sync after each successful
+ * persist so the widgets and Muzei can read the next days without going through the provider.
+ *
+ * One file per location setting, memory-mapped on read, all values big-endian:
+ *
+ * <pre>
+ * offset   size  field
+ *      0      4  magic ({@link #MAGIC})
+ *      4      2  version ({@link #VERSION})
+ *      6      2  number of days (n)
+ *      8      8  time the snapshot was written, in millis
+ * 16 + 40*i   8  normalized (local midnight) date, in millis
+ * 24 + 40*i   4  OpenWeatherMap condition id
+ * 28 + 40*i   4  max temperature, Celsius, float
+ * 32 + 40*i   4  min temperature, Celsius, float
+ * 36 + 40*i  20  short description, UTF-8, zero padded
+ * </pre>
+ *
+ * A missing file, another version or a snapshot with no day left from today on all mean the
+ * caller has to query the provider instead.
+ */
+public class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    static final int MAGIC = 0x534e5348;  // "SNSH"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+    static final int DAY_SIZE = 40;
+    static final int DESC_SIZE = 20;
+    private static final int MAX_DAYS = 0xffff;
+
+    private static final String SNAPSHOT_DIR = "snapshots";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mFirst;
+    private final int mCount;
+
+    private ForecastSnapshot(ByteBuffer buffer, int first, int count) {
+        mBuffer = buffer;
+        mFirst = first;
+        mCount = count;
+    }
+
+    private static File getFile(Context context, String locationSetting) {
+        File dir = new File(context.getFilesDir(), SNAPSHOT_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + dir);
+        }
+        // Uri.encode escapes '/' and anything else a file name can't hold
+        return new File(dir, Uri.encode(locationSetting) + ".bin");
+    }
+
+    /**
+     * Writes the snapshot for a location, replacing the previous one atomically.  Must not be
+     * called on the main thread.
+     *
+     * @param days the weather rows, in ascending date order
+     * @return whether the snapshot was written
+     */
+    public static boolean write(Context context, String locationSetting, ContentValues[] days) {
+        int count = Math.min(days.length, MAX_DAYS);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * DAY_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) count);
+        buffer.putLong(System.currentTimeMillis());
+        for (int i = 0; i < count; i++) {
+            ContentValues day = days[i];
+            buffer.putLong(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            buffer.putInt(day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+            buffer.putFloat(day.getAsFloat(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+            buffer.putFloat(day.getAsFloat(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+            putString(buffer, day.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        }
+
+        // Write next to the snapshot and rename it into place, so a reader never maps half a file
+        File file = getFile(context, locationSetting);
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(buffer.array());
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (tmp.renameTo(file)) {
+                return true;
+            }
+            Log.w(LOG_TAG, "Unable to rename " + tmp);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing left to do
+                }
+            }
+        }
+        if (tmp.exists() && !tmp.delete()) {
+            Log.w(LOG_TAG, "Unable to delete " + tmp);
+        }
+        return false;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, DESC_SIZE);
+        // don't cut a multi-byte character in half
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        buffer.put(bytes, 0, length);
+        for (int i = length; i < DESC_SIZE; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    /**
+     * Drops the snapshot for a location, for when its forecast changes without a full sync.
+     */
+    public static void delete(Context context, String locationSetting) {
+        File file = getFile(context, locationSetting);
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Unable to delete " + file);
+        }
+    }
+
+    /**
+     * Maps the snapshot for a location, skipping the days before today.
+     *
+     * @return the snapshot, or null if there is none usable and the provider has to be queried
+     */
+    public static ForecastSnapshot read(Context context, String locationSetting) {
+        File file = getFile(context, locationSetting);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+                return null;
+            }
+            int count = buffer.getShort(6) & 0xffff;
+            if (channel.size() < HEADER_SIZE + (long) count * DAY_SIZE) {
+                return null;
+            }
+            long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+            int first = 0;
+            while (first < count && buffer.getLong(HEADER_SIZE + first * DAY_SIZE) < today) {
+                first++;
+            }
+            if (first == count) {
+                return null;
+            }
+            return new ForecastSnapshot(buffer, first, count - first);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + file, e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    // the mapping stays valid after the file is closed
+                    raf.close();
+                } catch (IOException e) {
+                    // Nothing left to do
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of days from today on
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    private int offsetOf(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("Day " + position + " of " + mCount);
+        }
+        return HEADER_SIZE + (mFirst + position) * DAY_SIZE;
+    }
+
+    public long getWrittenAt() {
+        return mBuffer.getLong(8);
+    }
+
+    public long getDate(int position) {
+        return mBuffer.getLong(offsetOf(position));
+    }
+
+    public int getWeatherId(int position) {
+        return mBuffer.getInt(offsetOf(position) + 8);
+    }
+
+    public double getMaxTemp(int position) {
+        return mBuffer.getFloat(offsetOf(position) + 12);
+    }
+
+    public double getMinTemp(int position) {
+        return mBuffer.getFloat(offsetOf(position) + 16);
+    }
+
+    public String getShortDesc(int position) {
+        int offset = offsetOf(position) + 20;
+        int length = 0;
+        while (length < DESC_SIZE && mBuffer.get(offset + length) != 0) {
+            length++;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(offset + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Geohash index of the location coordinates.
+ *
+ * Each location stores the geohash of its coordinates, which the location table indexes.  All
+ * the points of a geohash cell share its hash as a prefix, so the points of a cell are a range
+ * of the index.  A nearest neighbour search reads the cell of the point and the eight around it,
+ * widening to coarser cells until they hold k candidates.  Every location closer than the edge
+ * of that block is in it, so if the k-th candidate is that close the search is done, and
+ * otherwise one more read of the cells covering the circle through the k-th candidate is.  The
+ * SQLite of Android has no R-tree module to do this instead.
+ *
+ * Locations from before the geohash column, which the backfill hasn't got to yet, have an empty
+ * hash.  They are candidates of every read, so a search is right before the backfill is done.
+ */
+class GeoIndex {
+
+    static final int PRECISION = 12;
+
+    // the finest cells a search starts with, about 5 km across
+    private static final int START_PRECISION = 5;
+    // the most cells a covering of a circle reads before going to coarser ones
+    private static final int MAX_COVERING_CELLS = 16;
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    // the columns of the search results
+    static final String[] COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_DISTANCE
+    };
+
+    private GeoIndex() {
+    }
+
+    /**
+     * @return the geohash of the coordinates with the given number of characters
+     */
+    static String encode(double lat, double lon, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int ch = 0;
+        while (hash.length() < precision) {
+            if (evenBit) {
+                double mid = (minLon + maxLon) / 2;
+                if (lon >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLon = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (lat >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLat = mid;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                hash.append(BASE32.charAt(ch));
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * @return the height of the cells of the given precision, in degrees of latitude
+     */
+    static double getCellHeight(int precision) {
+        int latBits = (precision * 5) / 2;
+        return 180 / Math.pow(2, latBits);
+    }
+
+    /**
+     * @return the width of the cells of the given precision, in degrees of longitude
+     */
+    static double getCellWidth(int precision) {
+        int lonBits = (precision * 5 + 1) / 2;
+        return 360 / Math.pow(2, lonBits);
+    }
+
+    /**
+     * @return the great circle distance between the points, in kilometers
+     */
+    static double getDistance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * @return the k locations nearest to the point with the COLUMNS, nearest first
+     */
+    static Cursor findNearest(SQLiteDatabase db, double lat, double lon, int k) {
+        List<Object[]> nearest = null;
+        for (int precision = START_PRECISION; precision > 0 && nearest == null; precision--) {
+            double height = getCellHeight(precision);
+            double width = getCellWidth(precision);
+            // the block of the point's cell and the cells around it
+            double cellMinLat = Math.floor((lat + 90) / height) * height - 90;
+            double cellMinLon = Math.floor((lon + 180) / width) * width - 180;
+            List<Object[]> candidates = queryCells(db, getCells(precision,
+                    cellMinLat - height, cellMinLat + 2 * height,
+                    cellMinLon - width, cellMinLon + 2 * width), lat, lon);
+            if (candidates.size() < k) {
+                continue;
+            }
+
+            // every location closer than the edge of the block is in it, the edges beyond a
+            // pole don't count, and a degree of longitude is shortest at the latitude of the
+            // block farthest from the equator
+            double blockMinLat = cellMinLat - height;
+            double blockMaxLat = cellMinLat + 2 * height;
+            double safeKm = Double.MAX_VALUE;
+            if (blockMinLat > -90) {
+                safeKm = Math.min(safeKm, (lat - blockMinLat) * KM_PER_DEGREE);
+            }
+            if (blockMaxLat < 90) {
+                safeKm = Math.min(safeKm, (blockMaxLat - lat) * KM_PER_DEGREE);
+            }
+            double farthestLat = Math.min(90,
+                    Math.max(Math.abs(blockMinLat), Math.abs(blockMaxLat)));
+            if (width * 3 < 360) {
+                safeKm = Math.min(safeKm, Math.min(lon - (cellMinLon - width),
+                        cellMinLon + 2 * width - lon)
+                        * KM_PER_DEGREE * Math.cos(Math.toRadians(farthestLat)));
+            }
+            double radiusKm = getDistance(candidates.get(k - 1));
+            if (radiusKm <= safeKm) {
+                nearest = candidates;
+            } else {
+                // the k nearest are no farther than these candidates, so one more read of the
+                // cells around that circle finds them
+                nearest = queryCells(db, getCoveringCells(lat, lon, radiusKm), lat, lon);
+            }
+        }
+        if (nearest == null) {
+            // fewer than k locations anywhere near
+            nearest = queryCells(db, null, lat, lon);
+        }
+
+        MatrixCursor result = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < nearest.size() && i < k; i++) {
+            result.addRow(nearest.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return the fewest cells of the coarsest useful precision covering the points within the
+     * radius of the point
+     */
+    private static Set<String> getCoveringCells(double lat, double lon, double radiusKm) {
+        // the bounding box of the circle, see "Finding Points Within a Distance of a
+        // Latitude/Longitude Using Bounding Coordinates" by Jan Philip Matuschek
+        double radius = radiusKm / EARTH_RADIUS_KM;
+        double minLat = lat - Math.toDegrees(radius);
+        double maxLat = lat + Math.toDegrees(radius);
+        double minLon = -180;
+        double maxLon = 180;
+        if (minLat > -90 && maxLat < 90) {
+            double ratio = Math.sin(radius) / Math.cos(Math.toRadians(lat));
+            if (ratio < 1) {
+                double dLon = Math.toDegrees(Math.asin(ratio));
+                minLon = lon - dLon;
+                maxLon = lon + dLon;
+            }
+        }
+        minLat = Math.max(-90, minLat);
+        maxLat = Math.min(90, maxLat);
+
+        int precision = PRECISION;
+        while (precision > 1
+                && (countCells(minLat, maxLat, getCellHeight(precision))
+                * countCells(minLon, maxLon, getCellWidth(precision)) > MAX_COVERING_CELLS)) {
+            precision--;
+        }
+        return getCells(precision, minLat, maxLat, minLon, maxLon);
+    }
+
+    private static double countCells(double min, double max, double size) {
+        return Math.floor(max / size) - Math.floor(min / size) + 1;
+    }
+
+    /**
+     * @return the cells of the precision overlapping the box, whose longitudes may run past
+     * the antimeridian
+     */
+    private static Set<String> getCells(int precision, double minLat, double maxLat,
+                                        double minLon, double maxLon) {
+        double height = getCellHeight(precision);
+        double width = getCellWidth(precision);
+        minLat = Math.max(-90, minLat);
+        maxLat = Math.min(90, maxLat);
+        if (maxLon - minLon >= 360) {
+            minLon = -180;
+            maxLon = 180;
+        }
+        Set<String> cells = new LinkedHashSet<>();
+        for (double cellLat = Math.floor((minLat + 90) / height) * height - 90;
+             cellLat <= maxLat && cellLat < 90; cellLat += height) {
+            for (double cellLon = Math.floor((minLon + 180) / width) * width - 180;
+                 cellLon <= maxLon; cellLon += width) {
+                // encoding the center of the cell gives its hash
+                cells.add(encode(cellLat + height / 2,
+                        wrapLongitude(cellLon + width / 2), precision));
+            }
+        }
+        return cells;
+    }
+
+    private static double getDistance(Object[] location) {
+        return (Double) location[COLUMNS.length - 1];
+    }
+
+    private static double wrapLongitude(double lon) {
+        if (lon >= 180) {
+            return lon - 360;
+        } else if (lon < -180) {
+            return lon + 360;
+        }
+        return lon;
+    }
+
+    /**
+     * @return the locations in the cells and those without a geohash yet, or all of them if
+     * cells is null, with their distance to the point, nearest first
+     */
+    private static List<Object[]> queryCells(SQLiteDatabase db, Set<String> cells,
+                                             double lat, double lon) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (cells != null) {
+            // each cell is the range of the hashes it prefixes, which the index serves, and so
+            // is the lookup of the locations not backfilled yet
+            StringBuilder ranges = new StringBuilder(LocationEntry.COLUMN_GEOHASH).append(" = ''");
+            selectionArgs = new String[cells.size() * 2];
+            int i = 0;
+            for (String cell : cells) {
+                ranges.append(" OR (")
+                        .append(LocationEntry.COLUMN_GEOHASH).append(" >= ? AND ")
+                        .append(LocationEntry.COLUMN_GEOHASH).append(" < ?)");
+                selectionArgs[i++] = cell;
+                selectionArgs[i++] = cell + "~";
+            }
+            selection = ranges.toString();
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING,
+                        LocationEntry.COLUMN_CITY_NAME, LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG},
+                selection, selectionArgs, null, null, null);
+        List<Object[]> locations = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                double locationLat = cursor.getDouble(3);
+                double locationLon = cursor.getDouble(4);
+                locations.add(new Object[]{cursor.getLong(0), cursor.getString(1),
+                        cursor.getString(2), locationLat, locationLon,
+                        getDistance(lat, lon, locationLat, locationLon)});
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(locations, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                return Double.compare(getDistance(lhs), getDistance(rhs));
+            }
+        });
+        return locations;
+    }
+}
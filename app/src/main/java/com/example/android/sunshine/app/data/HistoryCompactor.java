@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
+
+import java.util.Calendar;
+
+/**
+ * Downsamples the forecast history.  Days older than the daily retention are rolled into weekly
+ * and monthly summaries and dropped, and summaries older than their own retention are dropped
+ * in turn.  Both kinds of summaries are built from the days, so a month never depends on weeks
+ * straddling its boundaries.
+ *
+ * The retention comes from the history_retention_ integer resources.  Compaction runs in the
+ * provider's transaction, through {@link HistoryEntry#COMPACT_URI}.
+ */
+public class HistoryCompactor {
+
+    // the sync compacts at most this often
+    public static final long COMPACTION_INTERVAL_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The local midnight starting the Monday of the week, or the month, of a date in millis
+    static final String WEEK_START_SQL = "CAST(strftime('%%s', %s / 1000, 'unixepoch', "
+            + "'localtime', 'weekday 0', '-6 days', 'start of day', 'utc') AS INTEGER) * 1000";
+    static final String MONTH_START_SQL = "CAST(strftime('%%s', %s / 1000, 'unixepoch', "
+            + "'localtime', 'start of month', 'utc') AS INTEGER) * 1000";
+
+    // The days and summaries compaction drops, served by the date index of the history and the
+    // period index of the summaries
+    static final String EXPIRED_DAYS_SELECTION = HistoryEntry.COLUMN_DATE + " < ?";
+    static final String EXPIRED_SUMMARIES_SELECTION = HistorySummaryEntry.COLUMN_PERIOD
+            + " = ? AND " + HistorySummaryEntry.COLUMN_START_DATE + " < ?";
+
+    private static final String[] HISTOGRAM_COLUMNS = {
+            HistorySummaryEntry.COLUMN_STORM_DAYS,
+            HistorySummaryEntry.COLUMN_DRIZZLE_DAYS,
+            HistorySummaryEntry.COLUMN_RAIN_DAYS,
+            HistorySummaryEntry.COLUMN_SNOW_DAYS,
+            HistorySummaryEntry.COLUMN_FOG_DAYS,
+            HistorySummaryEntry.COLUMN_CLEAR_DAYS,
+            HistorySummaryEntry.COLUMN_CLOUDY_DAYS
+    };
+
+    // Whether a day belongs to each of the HISTOGRAM_COLUMNS, by the groups of
+    // http://openweathermap.org/weather-conditions
+    private static final String[] HISTOGRAM_CONDITIONS = {
+            HistoryEntry.COLUMN_WEATHER_ID + " / 100 = 2",
+            HistoryEntry.COLUMN_WEATHER_ID + " / 100 = 3",
+            HistoryEntry.COLUMN_WEATHER_ID + " / 100 = 5",
+            HistoryEntry.COLUMN_WEATHER_ID + " / 100 = 6",
+            HistoryEntry.COLUMN_WEATHER_ID + " / 100 = 7",
+            HistoryEntry.COLUMN_WEATHER_ID + " = 800",
+            HistoryEntry.COLUMN_WEATHER_ID + " BETWEEN 801 AND 804"
+    };
+
+    private static HistoryCompactor sInstance;
+
+    private final int mRetentionDays;
+    private final int mRetentionWeeks;
+    private final int mRetentionMonths;
+
+    public static synchronized HistoryCompactor getInstance(Context context) {
+        if (sInstance == null) {
+            Resources resources = context.getResources();
+            sInstance = new HistoryCompactor(
+                    resources.getInteger(R.integer.history_retention_days),
+                    resources.getInteger(R.integer.history_retention_weeks),
+                    resources.getInteger(R.integer.history_retention_months));
+        }
+        return sInstance;
+    }
+
+    HistoryCompactor(int retentionDays, int retentionWeeks, int retentionMonths) {
+        mRetentionDays = retentionDays;
+        mRetentionWeeks = retentionWeeks;
+        mRetentionMonths = retentionMonths;
+    }
+
+    /**
+     * @return the content values for {@link HistoryEntry#COMPACT_URI} applying the retention
+     * as of the given time
+     */
+    public ContentValues getCutoffs(long now) {
+        long today = WeatherContract.normalizeDate(now);
+        ContentValues cutoffs = new ContentValues();
+        if (mRetentionDays > 0) {
+            cutoffs.put(HistoryEntry.COMPACT_DAYS_BEFORE, today - mRetentionDays * DAY_IN_MILLIS);
+        }
+        if (mRetentionWeeks > 0) {
+            cutoffs.put(HistoryEntry.COMPACT_WEEKS_BEFORE,
+                    today - mRetentionWeeks * 7 * DAY_IN_MILLIS);
+        }
+        if (mRetentionMonths > 0) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(today);
+            calendar.add(Calendar.MONTH, -mRetentionMonths);
+            cutoffs.put(HistoryEntry.COMPACT_MONTHS_BEFORE, calendar.getTimeInMillis());
+        }
+        return cutoffs;
+    }
+
+    /**
+     * Compacts the history as of the given time.  Must not be called on the main thread.
+     *
+     * @return the number of days rolled into summaries
+     */
+    public int compact(ContentResolver resolver, long now) {
+        return resolver.update(HistoryEntry.COMPACT_URI, getCutoffs(now), null, null);
+    }
+
+    /**
+     * Does the work of {@link HistoryEntry#COMPACT_URI} inside the caller's transaction.
+     * A cutoff of 0 keeps everything of its kind.
+     *
+     * @return the number of days rolled into summaries
+     */
+    static int compact(SQLiteDatabase db, long daysBefore, long weeksBefore, long monthsBefore) {
+        int compacted = 0;
+        if (daysBefore > 0) {
+            String[] args = {Long.toString(daysBefore), Long.toString(daysBefore)};
+            db.execSQL(buildMergeSql(HistorySummaryEntry.PERIOD_WEEK, WEEK_START_SQL), args);
+            db.execSQL(buildMergeSql(HistorySummaryEntry.PERIOD_MONTH, MONTH_START_SQL), args);
+            compacted = db.delete(HistoryEntry.TABLE_NAME, EXPIRED_DAYS_SELECTION,
+                    new String[]{Long.toString(daysBefore)});
+        }
+        if (weeksBefore > 0) {
+            dropSummaries(db, HistorySummaryEntry.PERIOD_WEEK, weeksBefore);
+        }
+        if (monthsBefore > 0) {
+            dropSummaries(db, HistorySummaryEntry.PERIOD_MONTH, monthsBefore);
+        }
+        return compacted;
+    }
+
+    /**
+     * @return the SQL expression of the local midnight starting the week or month, by its
+     * HistorySummaryEntry.PERIOD_ value, of the given date expression
+     */
+    static String getPeriodStartSql(int period, String dateSql) {
+        return String.format(period == HistorySummaryEntry.PERIOD_WEEK
+                ? WEEK_START_SQL : MONTH_START_SQL, dateSql);
+    }
+
+    private static void dropSummaries(SQLiteDatabase db, int period, long before) {
+        db.delete(HistorySummaryEntry.TABLE_NAME, EXPIRED_SUMMARIES_SELECTION,
+                new String[]{Integer.toString(period), Long.toString(before)});
+    }
+
+    /**
+     * Builds the statement summarizing the days before the cutoff into the period's summaries.
+     * A period that already has a summary, because some of its days were compacted before, gets
+     * both merged into a replacement.  Its two arguments are the cutoff, twice.
+     */
+    static String buildMergeSql(int period, String periodStartSql) {
+        String dayStart = String.format(periodStartSql, HistoryEntry.COLUMN_DATE);
+        String firstStart = String.format(periodStartSql, "MIN(" + HistoryEntry.COLUMN_DATE + ")");
+
+        StringBuilder histogram = new StringBuilder();
+        StringBuilder newHistogram = new StringBuilder();
+        StringBuilder mergedHistogram = new StringBuilder();
+        for (int i = 0; i < HISTOGRAM_COLUMNS.length; i++) {
+            histogram.append(", ").append(HISTOGRAM_COLUMNS[i]);
+            newHistogram.append(", SUM(").append(HISTOGRAM_CONDITIONS[i]).append(") AS ")
+                    .append(HISTOGRAM_COLUMNS[i]);
+            mergedHistogram.append(", SUM(").append(HISTOGRAM_COLUMNS[i]).append(')');
+        }
+
+        String summary = HistorySummaryEntry.TABLE_NAME;
+        String history = HistoryEntry.TABLE_NAME;
+        return "INSERT OR REPLACE INTO " + summary + " ("
+                + HistorySummaryEntry.COLUMN_LOC_KEY + ", "
+                + HistorySummaryEntry.COLUMN_PERIOD + ", "
+                + HistorySummaryEntry.COLUMN_START_DATE + ", "
+                + HistorySummaryEntry.COLUMN_DAY_COUNT + ", "
+                + HistorySummaryEntry.COLUMN_MIN_TEMP + ", "
+                + HistorySummaryEntry.COLUMN_MAX_TEMP + ", "
+                + HistorySummaryEntry.COLUMN_MEAN_TEMP + histogram + ") "
+                // merge the existing summaries with the new ones
+                + "SELECT " + HistorySummaryEntry.COLUMN_LOC_KEY + ", " + period + ", "
+                + HistorySummaryEntry.COLUMN_START_DATE + ", "
+                + "SUM(" + HistorySummaryEntry.COLUMN_DAY_COUNT + "), "
+                + "MIN(" + HistorySummaryEntry.COLUMN_MIN_TEMP + "), "
+                + "MAX(" + HistorySummaryEntry.COLUMN_MAX_TEMP + "), "
+                + "SUM(" + HistorySummaryEntry.COLUMN_MEAN_TEMP + " * "
+                + HistorySummaryEntry.COLUMN_DAY_COUNT + ") / SUM("
+                + HistorySummaryEntry.COLUMN_DAY_COUNT + ")" + mergedHistogram + " FROM ("
+                // the existing summaries of the periods the compacted days fall in
+                + "SELECT " + HistorySummaryEntry.COLUMN_LOC_KEY + ", "
+                + HistorySummaryEntry.COLUMN_START_DATE + ", "
+                + HistorySummaryEntry.COLUMN_DAY_COUNT + ", "
+                + HistorySummaryEntry.COLUMN_MIN_TEMP + ", "
+                + HistorySummaryEntry.COLUMN_MAX_TEMP + ", "
+                + HistorySummaryEntry.COLUMN_MEAN_TEMP + histogram
+                + " FROM " + summary + " WHERE " + HistorySummaryEntry.COLUMN_PERIOD + " = "
+                + period + " AND " + HistorySummaryEntry.COLUMN_START_DATE + " >= (SELECT "
+                + firstStart + " FROM " + history + " WHERE "
+                + HistoryEntry.COLUMN_DATE + " < ?) "
+                + "UNION ALL "
+                // the days being compacted, summarized by period
+                + "SELECT " + HistoryEntry.COLUMN_LOC_KEY + ", "
+                + dayStart + " AS " + HistorySummaryEntry.COLUMN_START_DATE + ", "
+                + "COUNT(*) AS " + HistorySummaryEntry.COLUMN_DAY_COUNT + ", "
+                + "MIN(" + HistoryEntry.COLUMN_MIN_TEMP + ") AS "
+                + HistorySummaryEntry.COLUMN_MIN_TEMP + ", "
+                + "MAX(" + HistoryEntry.COLUMN_MAX_TEMP + ") AS "
+                + HistorySummaryEntry.COLUMN_MAX_TEMP + ", "
+                + "AVG((" + HistoryEntry.COLUMN_MIN_TEMP + " + " + HistoryEntry.COLUMN_MAX_TEMP
+                + ") / 2) AS " + HistorySummaryEntry.COLUMN_MEAN_TEMP + newHistogram
+                + " FROM " + history + " WHERE " + HistoryEntry.COLUMN_DATE + " < ?"
+                // grouped by location first, SQLite would rather scan the whole history in
+                // the order of its unique index than read the range of the date index
+                + " GROUP BY " + HistorySummaryEntry.COLUMN_START_DATE + ", "
+                + HistoryEntry.COLUMN_LOC_KEY
+                + ") GROUP BY " + HistorySummaryEntry.COLUMN_LOC_KEY + ", "
+                + HistorySummaryEntry.COLUMN_START_DATE;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide map of location settings to their row ids in the location table.
+ *
+ * The {@link WeatherProvider} adds the locations it writes once their transaction has committed,
+ * and drops everything as soon as a location is updated or deleted, so a cached id is always one
+ * the table still has.  Lookups
+ * that miss query the provider once and remember the answer, unless a location write happened
+ * in the meantime.
+ */
+public class LocationIdCache {
+
+    // all guarded by LocationIdCache.class
+    private static final Map<String, Long> sIds = new HashMap<>();
+    // bumped by every invalidation, so a lookup racing with one doesn't cache a stale id
+    private static int sGeneration;
+    private static int sHitCount;
+    private static int sMissCount;
+
+    private LocationIdCache() {
+    }
+
+    /**
+     * @return the cached id of the location, or -1 if it is not cached
+     */
+    public static synchronized long peek(String locationSetting) {
+        Long id = sIds.get(locationSetting);
+        if (id == null) {
+            sMissCount++;
+            return -1;
+        }
+        sHitCount++;
+        return id;
+    }
+
+    /**
+     * Returns the id of the location, querying the provider only if it is not cached.  Must not
+     * be called on the main thread.
+     *
+     * @return the id, or -1 if there is no such location
+     */
+    public static long getLocationId(ContentResolver resolver, String locationSetting) {
+        long id = peek(locationSetting);
+        if (id >= 0) {
+            return id;
+        }
+        int generation;
+        synchronized (LocationIdCache.class) {
+            generation = sGeneration;
+        }
+        Cursor cursor = resolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            id = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        synchronized (LocationIdCache.class) {
+            if (generation == sGeneration) {
+                sIds.put(locationSetting, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #putAll} with the ids found meanwhile
+     */
+    static synchronized int getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Caches the ids, unless the cache was invalidated since the given generation.
+     */
+    static synchronized void putAll(Map<String, Long> ids, int generation) {
+        if (generation == sGeneration) {
+            sIds.putAll(ids);
+        }
+    }
+
+    static synchronized void invalidate() {
+        sIds.clear();
+        sGeneration++;
+    }
+
+    public static synchronized int getHitCount() {
+        return sHitCount;
+    }
+
+    public static synchronized int getMissCount() {
+        return sMissCount;
+    }
+}
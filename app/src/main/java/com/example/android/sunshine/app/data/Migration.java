@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A step of the database schema from one version to the next.
+ *
+ * {@link #migrate} runs in the transaction of the upgrade, which holds up every other use of
+ * the database until it commits, so it should only change the schema.  Values the existing rows
+ * need in new columns are filled in by {@link #backfill} afterwards, a chunk per transaction in
+ * the background, so the queries have to cope with rows that aren't filled in yet.
+ */
+abstract class Migration {
+
+    // the version the step starts from
+    final int mFromVersion;
+
+    Migration(int fromVersion) {
+        mFromVersion = fromVersion;
+    }
+
+    /**
+     * Changes the schema from mFromVersion to the next version.
+     */
+    abstract void migrate(SQLiteDatabase db);
+
+    /**
+     * @return whether there are rows left for {@link #backfill}
+     */
+    boolean needsBackfill(SQLiteDatabase db) {
+        return false;
+    }
+
+    /**
+     * Fills in some of the rows left for later, in the caller's transaction.  The rows left are
+     * told apart by their values, so a backfill cut short by the process dying picks up where
+     * it was on the next open.
+     *
+     * @return the number of rows filled in, 0 once there are none left
+     */
+    int backfill(SQLiteDatabase db, int chunkSize) {
+        return 0;
+    }
+}
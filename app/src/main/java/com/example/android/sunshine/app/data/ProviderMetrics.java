@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Counts the calls the {@link WeatherProvider} serves by operation and URI pattern: how many
+ * there were, the rows they returned or wrote, how long they took and who made them.
+ *
+ * As the cursor factory of the database it also sees the SQL of every query a call runs, so a
+ * call slower than the threshold is kept in a short log along with the plans of its queries.
+ * Writes only show the queries they ran to find the rows they change.
+ *
+ * Only debug builds record calls unless {@link #setEnabled} turns it on, so release builds don't
+ * time, log or explain anything.
+ */
+class ProviderMetrics implements SQLiteDatabase.CursorFactory {
+    private static final String LOG_TAG = ProviderMetrics.class.getSimpleName();
+
+    static final long DEFAULT_SLOW_THRESHOLD_MS = 100;
+    // under 1ms, then doubling up to 1024ms and more, see MetricsEntry.COLUMN_HISTOGRAM
+    static final int HISTOGRAM_SIZE = 12;
+    private static final int MAX_SLOW_CALLS = 32;
+    // the statements of a call kept for its query plan
+    private static final int MAX_STATEMENTS = 16;
+    // beyond this many callers of a URI pattern, the others are counted together
+    private static final int MAX_CALLERS = 8;
+    private static final String OTHER_CALLERS = "other";
+
+    private static final String[] METRICS_COLUMNS = {
+            MetricsEntry.COLUMN_OPERATION,
+            MetricsEntry.COLUMN_URI_PATTERN,
+            MetricsEntry.COLUMN_CALL_COUNT,
+            MetricsEntry.COLUMN_ROW_COUNT,
+            MetricsEntry.COLUMN_TOTAL_TIME,
+            MetricsEntry.COLUMN_MAX_TIME,
+            MetricsEntry.COLUMN_HISTOGRAM,
+            MetricsEntry.COLUMN_CALLERS
+    };
+
+    private static final String[] SLOW_COLUMNS = {
+            MetricsEntry.COLUMN_TIME,
+            MetricsEntry.COLUMN_OPERATION,
+            MetricsEntry.COLUMN_URI,
+            MetricsEntry.COLUMN_CALLER,
+            MetricsEntry.COLUMN_DURATION,
+            MetricsEntry.COLUMN_ROW_COUNT,
+            MetricsEntry.COLUMN_QUERY_PLAN
+    };
+
+    private final Context mContext;
+    // the innermost call running on each thread, since bulkInsert may call insert
+    private final ThreadLocal<Call> mCurrentCall = new ThreadLocal<>();
+    private volatile boolean mEnabled = BuildConfig.DEBUG;
+
+    // all guarded by this
+    private final Map<String, Stats> mStats = new TreeMap<>();
+    private final List<SlowCall> mSlowCalls = new ArrayList<>();
+    private long mSlowThresholdMs = DEFAULT_SLOW_THRESHOLD_MS;
+
+    /**
+     * A provider call in progress.
+     */
+    static class Call {
+        final String mOperation;
+        final String mPattern;
+        final Uri mUri;
+        final String mCaller;
+        final long mStartedAt = System.nanoTime();
+        final Call mParent;
+        // the distinct queries it ran, in order
+        final Set<String> mStatements = new LinkedHashSet<>();
+
+        Call(String operation, String pattern, Uri uri, String caller, Call parent) {
+            mOperation = operation;
+            mPattern = pattern;
+            mUri = uri;
+            mCaller = caller;
+            mParent = parent;
+        }
+    }
+
+    private static class Stats {
+        final String mOperation;
+        final String mPattern;
+        int mCallCount;
+        long mRowCount;
+        long mTotalNanos;
+        long mMaxNanos;
+        final int[] mHistogram = new int[HISTOGRAM_SIZE];
+        final Map<String, Integer> mCallers = new TreeMap<>();
+
+        Stats(String operation, String pattern) {
+            mOperation = operation;
+            mPattern = pattern;
+        }
+    }
+
+    private static class SlowCall {
+        final long mTime;
+        final Call mCall;
+        final long mDurationNanos;
+        final int mRowCount;
+        final String mQueryPlan;
+
+        SlowCall(long time, Call call, long durationNanos, int rowCount, String queryPlan) {
+            mTime = time;
+            mCall = call;
+            mDurationNanos = durationNanos;
+            mRowCount = rowCount;
+            mQueryPlan = queryPlan;
+        }
+    }
+
+    ProviderMetrics(Context context) {
+        mContext = context;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Starts timing a call, to be passed to {@link #end} whether it succeeded or not.
+     *
+     * @param pattern the path the URI matched, or null not to record the call
+     * @return the call, or null if the metrics are off
+     */
+    Call begin(String operation, String pattern, Uri uri) {
+        if (!mEnabled) {
+            return null;
+        }
+        Call call = new Call(operation, pattern, uri, getCaller(), mCurrentCall.get());
+        mCurrentCall.set(call);
+        return call;
+    }
+
+    /**
+     * Records a call started by {@link #begin}, explaining its queries if it was slow.
+     */
+    void end(Call call, int rowCount, SQLiteOpenHelper openHelper) {
+        if (call == null) {
+            return;
+        }
+        long durationNanos = System.nanoTime() - call.mStartedAt;
+        if (call.mParent != null) {
+            mCurrentCall.set(call.mParent);
+        } else {
+            mCurrentCall.remove();
+        }
+        if (call.mPattern == null) {
+            return;
+        }
+
+        long thresholdMs;
+        synchronized (this) {
+            String key = call.mOperation + " " + call.mPattern;
+            Stats stats = mStats.get(key);
+            if (stats == null) {
+                stats = new Stats(call.mOperation, call.mPattern);
+                mStats.put(key, stats);
+            }
+            stats.mCallCount++;
+            stats.mRowCount += rowCount;
+            stats.mTotalNanos += durationNanos;
+            stats.mMaxNanos = Math.max(stats.mMaxNanos, durationNanos);
+            stats.mHistogram[getHistogramBucket(durationNanos / 1000000)]++;
+            String caller = call.mCaller;
+            if (!stats.mCallers.containsKey(caller) && stats.mCallers.size() >= MAX_CALLERS) {
+                caller = OTHER_CALLERS;
+            }
+            Integer count = stats.mCallers.get(caller);
+            stats.mCallers.put(caller, count == null ? 1 : count + 1);
+            thresholdMs = mSlowThresholdMs;
+        }
+        if (durationNanos / 1000000 < thresholdMs) {
+            return;
+        }
+
+        // explaining takes a while too, so it is done outside the lock, for the slow calls only
+        SlowCall slowCall = new SlowCall(System.currentTimeMillis(), call, durationNanos,
+                rowCount, explain(openHelper.getReadableDatabase(), call.mStatements));
+        Log.w(LOG_TAG, call.mOperation + " of " + call.mUri + " took "
+                + durationNanos / 1000000 + "ms");
+        synchronized (this) {
+            if (mSlowCalls.size() == MAX_SLOW_CALLS) {
+                mSlowCalls.remove(0);
+            }
+            mSlowCalls.add(slowCall);
+        }
+    }
+
+    /**
+     * @return the bucket of MetricsEntry.COLUMN_HISTOGRAM a call of that many milliseconds
+     * falls in
+     */
+    static int getHistogramBucket(long durationMs) {
+        int bucket = 0;
+        while (durationMs > 0 && bucket < HISTOGRAM_SIZE - 1) {
+            durationMs >>= 1;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    synchronized void setSlowThresholdMillis(long thresholdMs) {
+        mSlowThresholdMs = thresholdMs;
+    }
+
+    /**
+     * Forgets all the calls so far.
+     *
+     * @return the number of operation and URI pattern rows dropped
+     */
+    synchronized int reset() {
+        int count = mStats.size();
+        mStats.clear();
+        mSlowCalls.clear();
+        return count;
+    }
+
+    /**
+     * @return a row per operation and URI pattern, with the columns of MetricsEntry
+     */
+    synchronized Cursor getMetrics() {
+        MatrixCursor cursor = new MatrixCursor(METRICS_COLUMNS, mStats.size());
+        for (Stats stats : mStats.values()) {
+            StringBuilder histogram = new StringBuilder();
+            for (int count : stats.mHistogram) {
+                if (histogram.length() != 0) {
+                    histogram.append(',');
+                }
+                histogram.append(count);
+            }
+            StringBuilder callers = new StringBuilder();
+            for (Map.Entry<String, Integer> entry : stats.mCallers.entrySet()) {
+                if (callers.length() != 0) {
+                    callers.append(", ");
+                }
+                callers.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            cursor.addRow(new Object[]{
+                    stats.mOperation,
+                    stats.mPattern,
+                    stats.mCallCount,
+                    stats.mRowCount,
+                    stats.mTotalNanos / 1e6,
+                    stats.mMaxNanos / 1e6,
+                    histogram.toString(),
+                    callers.toString()
+            });
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the slow calls, most recent first, with the columns of metrics/slow
+     */
+    synchronized Cursor getSlowCalls() {
+        MatrixCursor cursor = new MatrixCursor(SLOW_COLUMNS, mSlowCalls.size());
+        for (int i = mSlowCalls.size() - 1; i >= 0; i--) {
+            SlowCall slowCall = mSlowCalls.get(i);
+            cursor.addRow(new Object[]{
+                    slowCall.mTime,
+                    slowCall.mCall.mOperation,
+                    slowCall.mCall.mUri.toString(),
+                    slowCall.mCall.mCaller,
+                    slowCall.mDurationNanos / 1e6,
+                    slowCall.mRowCount,
+                    slowCall.mQueryPlan
+            });
+        }
+        return cursor;
+    }
+
+    /**
+     * Creates the cursors of the database like the default factory does, noting their SQL for
+     * the call running on this thread.
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                            SQLiteQuery query) {
+        Call call = mCurrentCall.get();
+        if (call != null && call.mStatements.size() < MAX_STATEMENTS) {
+            // SQLiteQuery has no public accessor for its SQL, only "SQLiteQuery: <sql>"
+            String sql = query.toString();
+            sql = sql.substring(sql.indexOf(':') + 1).trim();
+            if (!sql.startsWith("EXPLAIN")) {
+                call.mStatements.add(sql);
+            }
+        }
+        // the constructor without the database needs API 11
+        return new SQLiteCursor(db, masterQuery, editTable, query);
+    }
+
+    /**
+     * @return each statement followed by the steps of its plan, a line each.  The plans don't
+     * depend on the arguments, so the statements are explained without them.
+     */
+    private static String explain(SQLiteDatabase db, Set<String> statements) {
+        StringBuilder plan = new StringBuilder();
+        for (String sql : statements) {
+            plan.append(sql).append('\n');
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+                // the detail is the last column, however many come before it in this version
+                int detail = cursor.getColumnCount() - 1;
+                while (cursor.moveToNext()) {
+                    plan.append("  ").append(cursor.getString(detail)).append('\n');
+                }
+            } catch (RuntimeException e) {
+                plan.append("  ").append(e.getMessage()).append('\n');
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return plan.toString();
+    }
+
+    /**
+     * @return the name of the calling thread if the call came from this process, or the
+     * package of the calling app otherwise.  getCallingPackage() would need API 19.
+     */
+    private String getCaller() {
+        if (Binder.getCallingPid() == Process.myPid()) {
+            return Thread.currentThread().getName();
+        }
+        int uid = Binder.getCallingUid();
+        String name = mContext.getPackageManager().getNameForUid(uid);
+        return name != null ? name : "uid " + uid;
+    }
+}
@@ -19,6 +19,7 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 import android.text.format.Time;
 
 /**
@@ -43,6 +44,26 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    // Inserting into location/upsert updates the row of an existing location setting instead of
+    // failing, and returns its id either way.
+    public static final String PATH_UPSERT = "upsert";
+    // The locations nearest to a point, see LocationEntry.buildNearUri.
+    public static final String PATH_NEAR = "near";
+    // The days that dropped out of the forecast, and their weekly and monthly summaries.
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_WEEK = "week";
+    public static final String PATH_MONTH = "month";
+    // Updating history/compact rolls the old days into summaries, see HistoryEntry.
+    public static final String PATH_COMPACT = "compact";
+    // Aggregates of a location's days, see StatsEntry.
+    public static final String PATH_STATS = "stats";
+    // The catalog of cities the location setting autocompletes from.
+    public static final String PATH_CITY = "city";
+    public static final String PATH_SEARCH = "search";
+    // What the provider spent its time on, for debugging, see MetricsEntry.
+    public static final String PATH_METRICS = "metrics";
+    public static final String PATH_SLOW = "slow";
+    public static final String PATH_LANES = "lanes";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -60,6 +81,9 @@ public class WeatherContract {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_LOCATION).build();
 
+        public static final Uri UPSERT_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_UPSERT).build();
+
         public static final String CONTENT_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION;
         public static final String CONTENT_ITEM_TYPE =
@@ -81,9 +105,113 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Geohash of the coordinates, which the provider keeps up to date for the index of the
+        // nearest location lookups.  The coordinates have to be updated together.
+        public static final String COLUMN_GEOHASH = "geohash";
+
+        // Distance to the point of a nearest location lookup in kilometers, only in its results
+        public static final String COLUMN_DISTANCE = "distance";
+
+        // Query parameters of the nearest location URI
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LON = "lon";
+        public static final String PARAM_K = "k";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * @return the URI of the k locations nearest to the point with their distances,
+         * nearest first
+         */
+        public static Uri buildNearUri(double lat, double lon, int k) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LON, Double.toString(lon))
+                    .appendQueryParameter(PARAM_K, Integer.toString(k)).build();
+        }
+
+        public static double getLatFromUri(Uri uri) {
+            return getCoordinateFromUri(uri, PARAM_LAT, 90);
+        }
+
+        public static double getLonFromUri(Uri uri) {
+            return getCoordinateFromUri(uri, PARAM_LON, 180);
+        }
+
+        /**
+         * @return the number of locations asked for, 1 if the URI doesn't say
+         */
+        public static int getKFromUri(Uri uri) {
+            String k = uri.getQueryParameter(PARAM_K);
+            if (k == null) {
+                return 1;
+            }
+            try {
+                int count = Integer.parseInt(k);
+                if (count > 0) {
+                    return count;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException("Invalid location count in " + uri);
+        }
+
+        private static double getCoordinateFromUri(Uri uri, String param, double limit) {
+            String coordinate = uri.getQueryParameter(param);
+            if (coordinate != null) {
+                try {
+                    double value = Double.parseDouble(coordinate);
+                    if (value >= -limit && value <= limit) {
+                        return value;
+                    }
+                } catch (NumberFormatException e) {
+                    // reported below
+                }
+            }
+            throw new IllegalArgumentException("Invalid " + param + " in " + uri);
+        }
+    }
+
+    /* Inner class that defines the table contents of the city catalog table */
+    public static final class CityEntry implements BaseColumns {
+
+        // Bulk inserting into it imports cities, replacing those of the same id
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CITY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CITY;
+
+        public static final String TABLE_NAME = "city";
+        // Full-text index of the names, whose docid is the city's _id
+        public static final String FTS_TABLE_NAME = "city_fts";
+
+        // The _id is the city id of openweathermap's catalog.
+        public static final String COLUMN_NAME = "name";
+        // ISO 3166 country code, which openweathermap accepts after the name as in "London,GB"
+        public static final String COLUMN_COUNTRY = "country";
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        // Query parameter of the search URI with the text typed so far
+        public static final String PARAM_QUERY = "q";
+
+        /**
+         * @return the URI of the best few cities whose name starts like the text, allowing for
+         * some misspelling
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(PARAM_QUERY, text).build();
+        }
+
+        public static String getQueryFromUri(Uri uri) {
+            String query = uri.getQueryParameter(PARAM_QUERY);
+            return query != null ? query : "";
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +254,17 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Deleting through this URI moves the rows into the history table instead of dropping them.
+        public static final String PARAM_ARCHIVE = "archive";
+        public static final Uri ARCHIVE_URI =
+                CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "true").build();
+
+        // Keyset paging of the days of weather/<location> and history/<location>: only the days
+        // after the date, at most limit of them, always in date order.  The next page is the
+        // one after the last date of this one.
+        public static final String PARAM_AFTER = "after";
+        public static final String PARAM_LIMIT = "limit";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -164,5 +303,348 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        /**
+         * @return the URI of the first page of the days of a weather or history URI
+         */
+        public static Uri buildPageUri(Uri uri, int limit) {
+            return buildPageUri(uri, -1, limit);
+        }
+
+        /**
+         * @return the URI of the page of the days after the date, or of the first page if the
+         * date is negative, replacing any paging of the URI
+         */
+        public static Uri buildPageUri(Uri uri, long afterDate, int limit) {
+            StringBuilder query = new StringBuilder();
+            String encodedQuery = uri.getEncodedQuery();
+            if (encodedQuery != null) {
+                for (String param : encodedQuery.split("&")) {
+                    if (!param.startsWith(PARAM_AFTER + "=")
+                            && !param.startsWith(PARAM_LIMIT + "=")) {
+                        query.append(query.length() == 0 ? "" : "&").append(param);
+                    }
+                }
+            }
+            Uri.Builder builder = uri.buildUpon()
+                    .encodedQuery(query.length() != 0 ? query.toString() : null);
+            if (afterDate >= 0) {
+                builder.appendQueryParameter(PARAM_AFTER, Long.toString(afterDate));
+            }
+            return builder.appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /**
+         * @return the date the page starts after, or -1 if the URI isn't paged from a date
+         */
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER);
+            return dateString != null && dateString.length() > 0 ? Long.parseLong(dateString) : -1;
+        }
+
+        /**
+         * @return the most days of the page, or 0 if the URI doesn't limit them
+         */
+        public static int getLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            return limit != null && limit.length() > 0 ? Integer.parseInt(limit) : 0;
+        }
+    }
+
+    /*
+        Inner class that defines the columns of weather/<location>/stats, which aggregates the
+        forecast and history days of a location in SQL.  Each row covers one bucket of days,
+        ordered by its start unless asked otherwise.  Weekly and monthly buckets also count the
+        days compacted into the history summaries of that period, a summary counting as a whole
+        when its period starts in the range; day and whole range buckets only count the days
+        still kept one by one.
+     */
+    public static final class StatsEntry {
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER
+                        + "/" + PATH_STATS;
+
+        // Query parameters limiting the days, both inclusive, and grouping them
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        public static final String PARAM_BUCKET = "bucket";
+
+        // A row per day, so ordering by COLUMN_MIN_TEMP finds the coldest day
+        public static final String BUCKET_DAY = "day";
+        public static final String BUCKET_WEEK = PATH_WEEK;
+        public static final String BUCKET_MONTH = PATH_MONTH;
+        // A single row for the whole range, with a day count of 0 if it has no days
+        public static final String BUCKET_ALL = "all";
+
+        // The local midnight starting the bucket, in milliseconds.  Weeks start on Monday.
+        public static final String COLUMN_BUCKET_START = "bucket_start";
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        // Lowest minimum and highest maximum of the days
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        // Mean of the days' (min + max) / 2
+        public static final String COLUMN_MEAN_TEMP = "mean";
+        // Averages over the days, leaving out compacted ones, which the summaries don't keep
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+
+        public static Uri buildStatsUri(String locationSetting, long fromDate, long toDate,
+                                        String bucket) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(toDate)))
+                    .appendQueryParameter(PARAM_BUCKET, bucket)
+                    .build();
+        }
+
+        /**
+         * @return the first day asked for, or 0
+         */
+        public static long getFromDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_FROM);
+            return TextUtils.isEmpty(dateString) ? 0 : Long.parseLong(dateString);
+        }
+
+        /**
+         * @return the last day asked for, or Long.MAX_VALUE
+         */
+        public static long getToDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_TO);
+            return TextUtils.isEmpty(dateString) ? Long.MAX_VALUE : Long.parseLong(dateString);
+        }
+
+        /**
+         * @return one of the BUCKET_ values, BUCKET_ALL if none was asked for
+         */
+        public static String getBucketFromUri(Uri uri) {
+            String bucket = uri.getQueryParameter(PARAM_BUCKET);
+            if (TextUtils.isEmpty(bucket)) {
+                return BUCKET_ALL;
+            }
+            if (!BUCKET_DAY.equals(bucket) && !BUCKET_WEEK.equals(bucket)
+                    && !BUCKET_MONTH.equals(bucket) && !BUCKET_ALL.equals(bucket)) {
+                throw new UnsupportedOperationException("Unknown stats bucket: " + uri);
+            }
+            return bucket;
+        }
+    }
+
+    /* Inner class that defines the table contents of the history table */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        // Updating this URI with the COMPACT_ values below as the content values rolls all the
+        // days before COMPACT_DAYS_BEFORE into weekly and monthly summaries, then drops the
+        // summaries that started before COMPACT_WEEKS_BEFORE and COMPACT_MONTHS_BEFORE.  A
+        // missing or zero cutoff keeps everything of that kind.
+        public static final Uri COMPACT_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_COMPACT).build();
+        public static final String COMPACT_DAYS_BEFORE = "days_before";
+        public static final String COMPACT_WEEKS_BEFORE = "weeks_before";
+        public static final String COMPACT_MONTHS_BEFORE = "months_before";
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // The same columns as the weather table, since its rows are copied here as they expire.
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        // Query parameters limiting the days, both inclusive
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithRange(String locationSetting,
+                                                        long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the start of the range asked for, or 0
+         */
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START_DATE);
+            return TextUtils.isEmpty(dateString) ? 0 : Long.parseLong(dateString);
+        }
+
+        /**
+         * @return the end of the range asked for, or Long.MAX_VALUE
+         */
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            return TextUtils.isEmpty(dateString) ? Long.MAX_VALUE : Long.parseLong(dateString);
+        }
+    }
+
+    /* Inner class that defines the table contents of the history summary table */
+    public static final class HistorySummaryEntry implements BaseColumns {
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY
+                        + "/summary";
+
+        public static final String TABLE_NAME = "history_summary";
+
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        // One of the PERIOD_ values
+        public static final String COLUMN_PERIOD = "period";
+        // The local midnight starting the week (on Monday) or the month, in milliseconds
+        public static final String COLUMN_START_DATE = "start_date";
+        // The number of days summarized, which is less than the whole period if some are missing
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        // Lowest minimum and highest maximum of the days
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        // Mean of the days' (min + max) / 2
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        // How many of the days had each kind of weather, by the group of their weather id.  The
+        // days of weather ids outside these groups are only counted in COLUMN_DAY_COUNT.
+        public static final String COLUMN_STORM_DAYS = "storm_days";
+        public static final String COLUMN_DRIZZLE_DAYS = "drizzle_days";
+        public static final String COLUMN_RAIN_DAYS = "rain_days";
+        public static final String COLUMN_SNOW_DAYS = "snow_days";
+        public static final String COLUMN_FOG_DAYS = "fog_days";
+        public static final String COLUMN_CLEAR_DAYS = "clear_days";
+        public static final String COLUMN_CLOUDY_DAYS = "cloudy_days";
+
+        public static Uri buildWeeklyHistory(String locationSetting) {
+            return HistoryEntry.buildHistoryLocation(locationSetting).buildUpon()
+                    .appendPath(PATH_WEEK).build();
+        }
+
+        public static Uri buildMonthlyHistory(String locationSetting) {
+            return HistoryEntry.buildHistoryLocation(locationSetting).buildUpon()
+                    .appendPath(PATH_MONTH).build();
+        }
+
+        /**
+         * @return the PERIOD_ value of a weekly or monthly history URI
+         */
+        public static int getPeriodFromUri(Uri uri) {
+            String period = uri.getPathSegments().get(2);
+            if (PATH_WEEK.equals(period)) {
+                return PERIOD_WEEK;
+            } else if (PATH_MONTH.equals(period)) {
+                return PERIOD_MONTH;
+            }
+            throw new UnsupportedOperationException("Unknown history period: " + uri);
+        }
+    }
+
+    /*
+        Inner class that defines the columns of metrics, a debugging view of the calls the
+        provider served since it started, with a row per operation and URI pattern.  metrics/slow
+        lists the most recent calls that took longer than the slow threshold, with the plans of
+        the queries they ran, and metrics/lanes the queues of the background task scheduler, a
+        row per lane.  Deleting metrics starts over, and updating it with
+        SLOW_THRESHOLD_MS as the content values changes the threshold.  Only debug builds keep
+        metrics, unless updating metrics with ENABLED turns them on; until then querying or
+        deleting them throws UnsupportedOperationException.
+     */
+    public static final class MetricsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+        public static final Uri SLOW_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_SLOW).build();
+        public static final Uri LANES_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_LANES).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+        public static final String SLOW_CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS
+                        + "/" + PATH_SLOW;
+        public static final String LANES_CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS
+                        + "/" + PATH_LANES;
+
+        public static final String SLOW_THRESHOLD_MS = "slow_threshold_ms";
+        // A boolean turning the metrics on or off
+        public static final String ENABLED = "enabled";
+
+        public static final String OPERATION_QUERY = "query";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_BULK_INSERT = "bulkInsert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+
+        // One of the OPERATION_ values
+        public static final String COLUMN_OPERATION = "operation";
+        // The path the URI matched, such as "weather/*/#"
+        public static final String COLUMN_URI_PATTERN = "uri_pattern";
+        public static final String COLUMN_CALL_COUNT = "call_count";
+        // Rows returned by the queries, or written by the other operations
+        public static final String COLUMN_ROW_COUNT = "row_count";
+        // In milliseconds, with fractions
+        public static final String COLUMN_TOTAL_TIME = "total_time";
+        public static final String COLUMN_MAX_TIME = "max_time";
+        // Comma separated call counts by duration: under 1ms, then from 1 to 2ms, 2 to 4ms and so
+        // on, the last one counting the calls of 1024ms and more
+        public static final String COLUMN_HISTOGRAM = "histogram";
+        // "caller=count" for each thread of this process, or package of another one, that made
+        // calls, comma separated
+        public static final String COLUMN_CALLERS = "callers";
+
+        // The columns of metrics/slow, along with the operation, row count and caller of
+        // the call.  The time is when the call ended, in milliseconds since the epoch.
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_CALLER = "caller";
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_DURATION = "duration";
+        // Each query the call ran, followed by a line of its plan per step
+        public static final String COLUMN_QUERY_PLAN = "query_plan";
+
+        // The columns of metrics/lanes.  The lane is one of the LANE_ values of TaskScheduler,
+        // and the waits are the times the started tasks spent queued, in milliseconds.
+        public static final String COLUMN_LANE = "lane";
+        public static final String COLUMN_QUEUE_DEPTH = "queue_depth";
+        public static final String COLUMN_MAX_QUEUE_DEPTH = "max_queue_depth";
+        public static final String COLUMN_AVERAGE_WAIT = "average_wait";
+        public static final String COLUMN_MAX_WAIT = "max_wait";
+        public static final String COLUMN_COMPLETED_COUNT = "completed_count";
+        public static final String COLUMN_REJECTED_COUNT = "rejected_count";
+
+        /**
+         * @return the counts of COLUMN_HISTOGRAM, shortest durations first
+         */
+        public static int[] parseHistogram(String histogram) {
+            String[] counts = TextUtils.split(histogram, ",");
+            int[] result = new int[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                result[i] = Integer.parseInt(counts[i].trim());
+            }
+            return result;
+        }
     }
 }
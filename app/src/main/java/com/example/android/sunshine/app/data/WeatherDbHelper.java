@@ -15,84 +15,365 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.task.TaskScheduler;
+
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // Migration from the previous version to MIGRATIONS.
+    static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Databases older than this have no migrations and start over
+    static final int OLDEST_MIGRATED_VERSION = 2;
+
+    // rows a backfill fills in per transaction
+    static final int BACKFILL_CHUNK_SIZE = 500;
+
+    // Create a table to hold locations.  A location consists of the string supplied in the
+    // location setting, the city name, and the latitude and longitude
+    private static final String SQL_CREATE_LOCATION_TABLE =
+            "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_GEOHASH + " TEXT NOT NULL " +
+            " );";
+
+    // All the locations of a geohash cell are a range of this index, see GeoIndex
+    private static final String SQL_CREATE_LOCATION_GEOHASH_INDEX =
+            "CREATE INDEX location_geohash_idx ON " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_GEOHASH + ");";
+
+    private static final String SQL_CREATE_WEATHER_TABLE =
+            "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    // The unique constraint above leads with the date, so it can't narrow the days of a
+    // single location down to a range on its own
+    private static final String SQL_CREATE_WEATHER_LOCATION_INDEX =
+            "CREATE INDEX weather_location_idx ON " +
+            WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ");";
+
+    // The days that dropped out of the forecast.  Unlike the weather table, the unique
+    // constraint starts with the location, so its index also serves the range scans of one
+    // location's history.
+    private static final String SQL_CREATE_HISTORY_TABLE =
+            "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+            HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+            HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // Compaction picks the old days of every location at once
+    private static final String SQL_CREATE_HISTORY_DATE_INDEX =
+            "CREATE INDEX history_date_idx ON " +
+            HistoryEntry.TABLE_NAME + " (" + HistoryEntry.COLUMN_DATE + ");";
+
+    // Weekly and monthly summaries of the days compacted out of the history table.  The
+    // unique constraint serves the range scans of one location and period.
+    private static final String SQL_CREATE_HISTORY_SUMMARY_TABLE =
+            "CREATE TABLE " +
+            HistorySummaryEntry.TABLE_NAME + " (" +
+            HistorySummaryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            HistorySummaryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            HistorySummaryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            HistorySummaryEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+            HistorySummaryEntry.COLUMN_STORM_DAYS + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_DRIZZLE_DAYS + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_RAIN_DAYS + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_SNOW_DAYS + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_FOG_DAYS + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_CLEAR_DAYS + " INTEGER NOT NULL, " +
+            HistorySummaryEntry.COLUMN_CLOUDY_DAYS + " INTEGER NOT NULL, " +
+            " FOREIGN KEY (" + HistorySummaryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + HistorySummaryEntry.COLUMN_LOC_KEY + ", " +
+            HistorySummaryEntry.COLUMN_PERIOD + ", " +
+            HistorySummaryEntry.COLUMN_START_DATE + ") ON CONFLICT REPLACE);";
+
+    // Compaction merges and drops the summaries of a period by their start, across locations
+    private static final String SQL_CREATE_HISTORY_SUMMARY_PERIOD_INDEX =
+            "CREATE INDEX history_summary_period_idx ON " +
+            HistorySummaryEntry.TABLE_NAME + " (" + HistorySummaryEntry.COLUMN_PERIOD + ", " +
+            HistorySummaryEntry.COLUMN_START_DATE + ");";
+
+    // The city catalog, with a full-text index of the folded names and their spelling
+    // skeletons, see CitySearch.  FTS4 needs API 11, so this is FTS3.
+    private static final String SQL_CREATE_CITY_TABLE =
+            "CREATE TABLE " + CityEntry.TABLE_NAME + " (" +
+            CityEntry._ID + " INTEGER PRIMARY KEY," +
+            CityEntry.COLUMN_NAME + " TEXT NOT NULL, " +
+            CityEntry.COLUMN_COUNTRY + " TEXT NOT NULL, " +
+            CityEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            CityEntry.COLUMN_COORD_LONG + " REAL NOT NULL);";
+
+    private static final String SQL_CREATE_CITY_FTS_TABLE =
+            "CREATE VIRTUAL TABLE " +
+            CityEntry.FTS_TABLE_NAME + " USING fts3(" +
+            CitySearch.FTS_COLUMN_NAME + ", " + CitySearch.FTS_COLUMN_SKELETON + ");";
+
+    /**
+     * The steps from each version since OLDEST_MIGRATED_VERSION to the next, in order.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // the history of the days that dropped out of the forecast
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_HISTORY_TABLE);
+                    db.execSQL(SQL_CREATE_HISTORY_DATE_INDEX);
+                    db.execSQL(SQL_CREATE_HISTORY_SUMMARY_TABLE);
+                }
+            },
+            // the range scans of one location's forecast
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_INDEX);
+                }
+            },
+            // the city catalog
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_CITY_TABLE);
+                    db.execSQL(SQL_CREATE_CITY_FTS_TABLE);
+                }
+            },
+            // the geohash of the locations, empty until the backfill gets to them
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_GEOHASH + " TEXT NOT NULL DEFAULT ''");
+                    db.execSQL(SQL_CREATE_LOCATION_GEOHASH_INDEX);
+                }
+
+                @Override
+                boolean needsBackfill(SQLiteDatabase db) {
+                    return DatabaseUtils.longForQuery(db, "SELECT EXISTS (SELECT 1 FROM " +
+                            LocationEntry.TABLE_NAME + " WHERE " +
+                            LocationEntry.COLUMN_GEOHASH + " = '')", null) != 0;
+                }
+
+                @Override
+                int backfill(SQLiteDatabase db, int chunkSize) {
+                    Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                            new String[]{LocationEntry._ID, LocationEntry.COLUMN_COORD_LAT,
+                                    LocationEntry.COLUMN_COORD_LONG},
+                            LocationEntry.COLUMN_GEOHASH + " = ''", null, null, null, null,
+                            Integer.toString(chunkSize));
+                    int count = 0;
+                    try {
+                        ContentValues values = new ContentValues();
+                        while (cursor.moveToNext()) {
+                            values.put(LocationEntry.COLUMN_GEOHASH, GeoIndex.encode(
+                                    cursor.getDouble(1), cursor.getDouble(2), GeoIndex.PRECISION));
+                            count += db.update(LocationEntry.TABLE_NAME, values,
+                                    LocationEntry._ID + " = ?",
+                                    new String[]{Long.toString(cursor.getLong(0))});
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    return count;
+                }
+            },
+            // the summaries of a period, for compaction
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_HISTORY_SUMMARY_PERIOD_INDEX);
+                }
+            }
+    };
+
+    private final boolean mBackfillInBackground;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, (SQLiteDatabase.CursorFactory) null);
+    }
+
+    /**
+     * Creates the cursors of the database with the factory, see ProviderMetrics.
+     */
+    WeatherDbHelper(Context context, SQLiteDatabase.CursorFactory factory) {
+        super(context, DATABASE_NAME, factory, DATABASE_VERSION);
+        mBackfillInBackground = true;
+    }
+
+    /**
+     * Opens another database file, which is only backfilled when asked to.
+     */
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mBackfillInBackground = false;
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
-                LocationEntry._ID + " INTEGER PRIMARY KEY," +
-                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
-                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
-                " );";
-
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_GEOHASH_INDEX);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_SUMMARY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_SUMMARY_PERIOD_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_CITY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CITY_FTS_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Keeping the data saves every device from refetching it at once and showing an empty
+        // forecast until it has, so the schema is migrated a version at a time.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion >= OLDEST_MIGRATED_VERSION) {
+            for (int version = oldVersion; version < newVersion; version++) {
+                Migration migration = MIGRATIONS[version - OLDEST_MIGRATED_VERSION];
+                if (migration.mFromVersion != version) {
+                    throw new IllegalStateException("Migration from version "
+                            + migration.mFromVersion + " listed as from " + version);
+                }
+                migration.migrate(sqLiteDatabase);
+            }
+            return;
+        }
+
+        // This database is only a cache for online data, so without migrations its upgrade
+        // policy is to simply discard the data and start over
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistorySummaryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CityEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CityEntry.FTS_TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!mBackfillInBackground || db.isReadOnly() || !needsBackfill(db)) {
+            return;
+        }
+        try {
+            TaskScheduler.getInstance().submit(TaskScheduler.LANE_SYNC, new Runnable() {
+                @Override
+                public void run() {
+                    int count = backfill(getWritableDatabase(), BACKFILL_CHUNK_SIZE);
+                    if (count != 0) {
+                        Log.d(LOG_TAG, "Backfilled " + count + " rows");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Not backfilling until the next open: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether a migration left rows to fill in, maybe in an earlier run of the app
+     */
+    static boolean needsBackfill(SQLiteDatabase db) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.needsBackfill(db)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fills in the rows the migrations left for later, one chunk per transaction so the
+     * provider gets the database in between.
+     *
+     * @return the number of rows filled in
+     */
+    static int backfill(SQLiteDatabase db, int chunkSize) {
+        int total = 0;
+        for (Migration migration : MIGRATIONS) {
+            int count;
+            do {
+                db.beginTransaction();
+                try {
+                    count = migration.backfill(db, chunkSize);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                total += count;
+            } while (count != 0);
+        }
+        return total;
+    }
 }
@@ -17,25 +17,66 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+import com.example.android.sunshine.app.task.BlockingCallDetector;
+import com.example.android.sunshine.app.task.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private ProviderMetrics mMetrics;
+    // the changes of the applyBatch running on this thread, if any
+    private final ThreadLocal<ChangeSet> mBatchChanges = new ThreadLocal<>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
     static final int LOCATION = 300;
+    static final int LOCATION_UPSERT = 301;
+    static final int LOCATION_NEAR = 302;
+    static final int HISTORY = 400;
+    static final int HISTORY_COMPACT = 401;
+    static final int HISTORY_WITH_LOCATION = 402;
+    static final int HISTORY_SUMMARY = 403;
+    static final int CITY = 500;
+    static final int CITY_SEARCH = 501;
+    static final int METRICS = 600;
+    static final int METRICS_SLOW = 601;
+    static final int METRICS_LANES = 602;
+
+    // the number of cities a search returns
+    private static final int CITY_SEARCH_LIMIT = 10;
+
+    // beyond this many rows a write just notifies the whole weather table
+    private static final int MAX_TRACKED_CHANGES = 500;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHistorySummaryByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,8 +90,65 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //history INNER JOIN location ON history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //history_summary INNER JOIN location ON history_summary.location_id = location._id
+        sHistorySummaryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHistorySummaryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistorySummaryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistorySummaryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistorySummaryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
+    //INSERT OR REPLACE INTO history (location_id, date, ...) SELECT location_id, date, ...
+    //FROM weather WHERE
+    static final String sArchiveWeatherSql;
+
+    static {
+        String[] columns = {
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES};
+        String columnList = TextUtils.join(", ", columns);
+        sArchiveWeatherSql = "INSERT OR REPLACE INTO " + WeatherContract.HistoryEntry.TABLE_NAME +
+                " (" + columnList + ") SELECT " + columnList + " FROM " +
+                WeatherContract.WeatherEntry.TABLE_NAME + " WHERE ";
     }
 
+    //INSERT OR REPLACE INTO location
+    //(_id, location_setting, city_name, coord_lat, coord_long, geohash)
+    //VALUES ((SELECT _id FROM location WHERE location_setting = ?), ?, ?, ?, ?, ?)
+    static final String sUpsertLocationSql =
+            "INSERT OR REPLACE INTO " + WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                    WeatherContract.LocationEntry._ID + ", " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG + ", " +
+                    WeatherContract.LocationEntry.COLUMN_GEOHASH + ") VALUES ((SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?), ?, ?, ?, ?, ?)";
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -83,16 +181,196 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return queryPage(sWeatherByLocationSettingQueryBuilder, uri, projection, selection,
+                selectionArgs, sortOrder);
+    }
+
+    /**
+     * Queries the days of a location, only those of the page the URI asks for if it is paged.
+     * The page starts after a date rather than at an offset, so it is read straight off the
+     * (location, date) index however far down the days it is.
+     */
+    private Cursor queryPage(SQLiteQueryBuilder builder, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder) {
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        if (afterDate >= 0) {
+            selection = selection + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+            String[] pageArgs = new String[selectionArgs.length + 1];
+            System.arraycopy(selectionArgs, 0, pageArgs, 0, selectionArgs.length);
+            pageArgs[selectionArgs.length] = Long.toString(afterDate);
+            selectionArgs = pageArgs;
+        }
+        if (afterDate >= 0 || limit > 0) {
+            // the next page starts after the last date of this one
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
+        return builder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 selection,
                 selectionArgs,
                 null,
                 null,
+                sortOrder,
+                limit > 0 ? Integer.toString(limit) : null
+        );
+    }
+
+    //location.location_setting = ? AND date >= ? AND date <= ?
+    private static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_DATE + " <= ? ";
+
+    //location.location_setting = ? AND period = ? AND start_date >= ? AND start_date <= ?
+    private static final String sLocationSettingWithPeriodSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HistorySummaryEntry.COLUMN_PERIOD + " = ? AND " +
+                    WeatherContract.HistorySummaryEntry.COLUMN_START_DATE + " >= ? AND " +
+                    WeatherContract.HistorySummaryEntry.COLUMN_START_DATE + " <= ? ";
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        return queryPage(sHistoryByLocationSettingQueryBuilder, uri, projection,
+                sLocationSettingWithDateRangeSelection,
+                new String[]{WeatherContract.HistoryEntry.getLocationSettingFromUri(uri),
+                        Long.toString(WeatherContract.HistoryEntry.getStartDateFromUri(uri)),
+                        Long.toString(WeatherContract.HistoryEntry.getEndDateFromUri(uri))},
+                sortOrder);
+    }
+
+    private Cursor getHistorySummaryByLocationSetting(
+            Uri uri, String[] projection, String sortOrder) {
+        return sHistorySummaryByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithPeriodSelection,
+                new String[]{WeatherContract.HistoryEntry.getLocationSettingFromUri(uri),
+                        Integer.toString(WeatherContract.HistorySummaryEntry.getPeriodFromUri(uri)),
+                        Long.toString(WeatherContract.HistoryEntry.getStartDateFromUri(uri)),
+                        Long.toString(WeatherContract.HistoryEntry.getEndDateFromUri(uri))},
+                null,
+                null,
                 sortOrder
         );
     }
 
+    /**
+     * Aggregates the days of a location in the forecast and the history.  Days already
+     * compacted into history summaries are not included.
+     */
+    private Cursor getWeatherStats(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        String fromDate = Long.toString(WeatherContract.StatsEntry.getFromDateFromUri(uri));
+        String toDate = Long.toString(WeatherContract.StatsEntry.getToDateFromUri(uri));
+        String bucket = WeatherContract.StatsEntry.getBucketFromUri(uri);
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                "(" + buildStatsSql(bucket) + ")",
+                projection,
+                null,
+                null,
+                null,
+                sortOrder != null
+                        ? sortOrder : WeatherContract.StatsEntry.COLUMN_BUCKET_START + " ASC",
+                null);
+        // the location and range of the forecast, the history and maybe the summaries
+        int selects = getStatsPeriod(bucket) != 0 ? 3 : 2;
+        String[] selectionArgs = new String[selects * 3];
+        for (int i = 0; i < selects; i++) {
+            selectionArgs[i * 3] = locationSetting;
+            selectionArgs[i * 3 + 1] = fromDate;
+            selectionArgs[i * 3 + 2] = toDate;
+        }
+        return mOpenHelper.getReadableDatabase().rawQuery(sql, selectionArgs);
+    }
+
+    /**
+     * @return the HistorySummaryEntry.PERIOD_ value of a weekly or monthly stats bucket, whose
+     * compacted days the summaries of that period hold, or 0
+     */
+    private static int getStatsPeriod(String bucket) {
+        if (WeatherContract.StatsEntry.BUCKET_WEEK.equals(bucket)) {
+            return WeatherContract.HistorySummaryEntry.PERIOD_WEEK;
+        } else if (WeatherContract.StatsEntry.BUCKET_MONTH.equals(bucket)) {
+            return WeatherContract.HistorySummaryEntry.PERIOD_MONTH;
+        }
+        return 0;
+    }
+
+    //SELECT <bucket start> AS bucket_start, SUM(day_count) AS day_count, MIN(min) AS min, ...
+    //FROM (SELECT date, 1 AS day_count, min, ... FROM weather WHERE location_id = ? AND date >= ?
+    //AND date <= ? UNION ALL SELECT date, 1, min, ... FROM history WHERE ...
+    //[UNION ALL SELECT start_date, day_count, min, ... FROM history_summary WHERE ...])
+    //GROUP BY bucket_start
+    static String buildStatsSql(String bucket) {
+        String date = WeatherContract.WeatherEntry.COLUMN_DATE;
+        int period = getStatsPeriod(bucket);
+        String bucketStart;
+        if (WeatherContract.StatsEntry.BUCKET_DAY.equals(bucket)) {
+            bucketStart = date;
+        } else if (period != 0) {
+            bucketStart = HistoryCompactor.getPeriodStartSql(period, date);
+        } else {
+            bucketStart = "MIN(" + date + ")";
+        }
+
+        String dayCount = WeatherContract.StatsEntry.COLUMN_DAY_COUNT;
+        String min = WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+        String max = WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+        String mean = WeatherContract.StatsEntry.COLUMN_MEAN_TEMP;
+        String humidity = WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+        String pressure = WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+        String wind = WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+        String columns = date + ", 1 AS " + dayCount + ", " + min + ", " + max + ", (" + min
+                + " + " + max + ") / 2 AS " + mean + ", " + humidity + ", " + pressure + ", "
+                + wind;
+        String locationId = "(SELECT " + WeatherContract.LocationEntry._ID
+                + " FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                + " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)";
+        // served by the (location_id, date) indexes of both tables
+        String daysOfLocation = " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY
+                + " = " + locationId + " AND " + date + " >= ? AND " + date + " <= ?";
+
+        String days = "SELECT " + columns + " FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                + daysOfLocation
+                + " UNION ALL SELECT " + columns
+                + " FROM " + WeatherContract.HistoryEntry.TABLE_NAME
+                + daysOfLocation;
+        if (period != 0) {
+            // The days compaction rolled into the summaries of the period, each counting as a
+            // whole when it starts in the range.  Served by the unique index of the summaries.
+            String start = WeatherContract.HistorySummaryEntry.COLUMN_START_DATE;
+            days += " UNION ALL SELECT " + start + ", "
+                    + WeatherContract.HistorySummaryEntry.COLUMN_DAY_COUNT + ", "
+                    + WeatherContract.HistorySummaryEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.HistorySummaryEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.HistorySummaryEntry.COLUMN_MEAN_TEMP + ", NULL, NULL, NULL"
+                    + " FROM " + WeatherContract.HistorySummaryEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.HistorySummaryEntry.COLUMN_LOC_KEY
+                    + " = " + locationId
+                    + " AND " + WeatherContract.HistorySummaryEntry.COLUMN_PERIOD + " = " + period
+                    + " AND " + start + " >= " + HistoryCompactor.getPeriodStartSql(period, "?")
+                    + " AND " + start + " <= ?";
+        }
+
+        String sql = "SELECT " + bucketStart
+                + " AS " + WeatherContract.StatsEntry.COLUMN_BUCKET_START
+                + ", IFNULL(SUM(" + dayCount + "), 0) AS " + dayCount
+                + ", MIN(" + min + ") AS " + WeatherContract.StatsEntry.COLUMN_MIN_TEMP
+                + ", MAX(" + max + ") AS " + WeatherContract.StatsEntry.COLUMN_MAX_TEMP
+                + ", SUM(" + mean + " * " + dayCount + ") / SUM(" + dayCount + ") AS "
+                + WeatherContract.StatsEntry.COLUMN_MEAN_TEMP
+                + ", AVG(" + humidity + ") AS " + WeatherContract.StatsEntry.COLUMN_HUMIDITY
+                + ", AVG(" + pressure + ") AS " + WeatherContract.StatsEntry.COLUMN_PRESSURE
+                + ", AVG(" + wind + ") AS " + WeatherContract.StatsEntry.COLUMN_WIND_SPEED
+                + " FROM (" + days + ")";
+        if (!WeatherContract.StatsEntry.BUCKET_ALL.equals(bucket)) {
+            sql += " GROUP BY " + WeatherContract.StatsEntry.COLUMN_BUCKET_START;
+        }
+        return sql;
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -128,18 +406,81 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS, WEATHER_STATS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority,
+                WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_UPSERT, LOCATION_UPSERT);
+        matcher.addURI(authority,
+                WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAR, LOCATION_NEAR);
+
+        // history/compact has to be added before history/* to take precedence over it
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority,
+                WeatherContract.PATH_HISTORY + "/" + WeatherContract.PATH_COMPACT, HISTORY_COMPACT);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*/*", HISTORY_SUMMARY);
+
+        matcher.addURI(authority, WeatherContract.PATH_CITY, CITY);
+        matcher.addURI(authority,
+                WeatherContract.PATH_CITY + "/" + WeatherContract.PATH_SEARCH, CITY_SEARCH);
+
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, METRICS);
+        matcher.addURI(authority,
+                WeatherContract.PATH_METRICS + "/" + WeatherContract.PATH_SLOW, METRICS_SLOW);
+        matcher.addURI(authority,
+                WeatherContract.PATH_METRICS + "/" + WeatherContract.PATH_LANES, METRICS_LANES);
         return matcher;
     }
 
+    /**
+     * @return the path of the URIs that match, as the metrics report it, or null for the
+     * metrics themselves, which aren't recorded
+     */
+    static String getPattern(int match) {
+        switch (match) {
+            case WEATHER:
+                return WeatherContract.PATH_WEATHER;
+            case WEATHER_WITH_LOCATION:
+                return WeatherContract.PATH_WEATHER + "/*";
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return WeatherContract.PATH_WEATHER + "/*/#";
+            case WEATHER_STATS:
+                return WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS;
+            case LOCATION:
+                return WeatherContract.PATH_LOCATION;
+            case LOCATION_UPSERT:
+                return WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_UPSERT;
+            case LOCATION_NEAR:
+                return WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAR;
+            case HISTORY:
+                return WeatherContract.PATH_HISTORY;
+            case HISTORY_COMPACT:
+                return WeatherContract.PATH_HISTORY + "/" + WeatherContract.PATH_COMPACT;
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.PATH_HISTORY + "/*";
+            case HISTORY_SUMMARY:
+                return WeatherContract.PATH_HISTORY + "/*/*";
+            case CITY:
+                return WeatherContract.PATH_CITY;
+            case CITY_SEARCH:
+                return WeatherContract.PATH_CITY + "/" + WeatherContract.PATH_SEARCH;
+            default:
+                return null;
+        }
+    }
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
      */
     @Override
     public boolean onCreate() {
-        mOpenHelper = new WeatherDbHelper(getContext());
+        // the metrics see the SQL of every query through the cursor factory
+        mMetrics = new ProviderMetrics(getContext());
+        mOpenHelper = new WeatherDbHelper(getContext(), mMetrics);
+        LocationIdCache.invalidate();
         return true;
     }
 
@@ -162,8 +503,27 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.StatsEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_NEAR:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_UPSERT:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case HISTORY_SUMMARY:
+                return WeatherContract.HistorySummaryEntry.CONTENT_TYPE;
+            case CITY:
+            case CITY_SEARCH:
+                return WeatherContract.CityEntry.CONTENT_TYPE;
+            case METRICS:
+                return MetricsEntry.CONTENT_TYPE;
+            case METRICS_SLOW:
+                return MetricsEntry.SLOW_CONTENT_TYPE;
+            case METRICS_LANES:
+                return MetricsEntry.LANES_CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,10 +532,28 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        ProviderMetrics.Call call =
+                mMetrics.begin(MetricsEntry.OPERATION_QUERY, getPattern(match), uri);
+        Cursor cursor = null;
+        try {
+            cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+            return cursor;
+        } finally {
+            // counting the rows runs the query, so only when the call is recorded
+            if (call != null) {
+                mMetrics.end(call, cursor != null ? cursor.getCount() : 0, mOpenHelper);
+            }
+        }
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+        long startedAt = BlockingCallDetector.begin();
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -187,6 +565,11 @@ public class WeatherProvider extends ContentProvider {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
                 break;
             }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getWeatherStats(uri, projection, sortOrder);
+                break;
+            }
             // "weather"
             case WEATHER: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,11 +596,94 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/near", always with the columns of GeoIndex, nearest first
+            case LOCATION_NEAR: {
+                retCursor = GeoIndex.findNearest(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.LocationEntry.getLatFromUri(uri),
+                        WeatherContract.LocationEntry.getLonFromUri(uri),
+                        WeatherContract.LocationEntry.getKFromUri(uri));
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "history/*/week" and "history/*/month"
+            case HISTORY_SUMMARY: {
+                retCursor = getHistorySummaryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "city"
+            case CITY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.CityEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "city/search", always with all the columns, best match first
+            case CITY_SEARCH: {
+                retCursor = CitySearch.search(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.CityEntry.getQueryFromUri(uri), CITY_SEARCH_LIMIT);
+                break;
+            }
+            // "metrics"
+            case METRICS: {
+                checkMetricsEnabled(uri);
+                retCursor = mMetrics.getMetrics();
+                break;
+            }
+            // "metrics/slow"
+            case METRICS_SLOW: {
+                checkMetricsEnabled(uri);
+                retCursor = mMetrics.getSlowCalls();
+                break;
+            }
+            // "metrics/lanes"
+            case METRICS_LANES: {
+                checkMetricsEnabled(uri);
+                retCursor = getLaneMetrics();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // stats are computed from all the days of the location, so they go stale with any of them
+        retCursor.setNotificationUri(getContext().getContentResolver(), match == WEATHER_STATS
+                ? WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri))
+                : uri);
+        // SQLite only runs the query when the cursor is first read, so read it before timing it
+        if (BlockingCallDetector.isEnabled()) {
+            retCursor.getCount();
+        }
+        try {
+            BlockingCallDetector.end(BlockingCallDetector.KIND_PROVIDER_QUERY, uri.toString(),
+                    startedAt);
+        } catch (BlockingCallDetector.BlockingCallException e) {
+            retCursor.close();
+            throw e;
+        }
         return retCursor;
     }
 
@@ -226,8 +692,21 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        ProviderMetrics.Call call =
+                mMetrics.begin(MetricsEntry.OPERATION_INSERT, getPattern(match), uri);
+        Uri returnUri = null;
+        try {
+            returnUri = insert(match, uri, values);
+            return returnUri;
+        } finally {
+            mMetrics.end(call, returnUri != null ? 1 : 0, mOpenHelper);
+        }
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = beginChanges();
         Uri returnUri;
 
         switch (match) {
@@ -238,49 +717,173 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addWeather(values);
                 break;
             }
             case LOCATION: {
+                putGeohash(values);
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.putLocationId(values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING), _id);
+                break;
+            }
+            case LOCATION_UPSERT: {
+                long _id = upsertLocation(db, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to upsert row into " + uri);
+                changes.putLocationId(values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING), _id);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        endChanges(changes);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        ProviderMetrics.Call call =
+                mMetrics.begin(MetricsEntry.OPERATION_DELETE, getPattern(match), uri);
+        int rowsDeleted = 0;
+        try {
+            rowsDeleted = delete(match, uri, selection, selectionArgs);
+            return rowsDeleted;
+        } finally {
+            mMetrics.end(call, rowsDeleted, mOpenHelper);
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = beginChanges();
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    // the rows have to be looked at before they are gone
+                    ChangeSet deleted = collectWeatherChanges(db, selection, selectionArgs);
+                    if ("true".equals(uri.getQueryParameter(WeatherContract.WeatherEntry.PARAM_ARCHIVE))) {
+                        db.execSQL(sArchiveWeatherSql + selection,
+                                selectionArgs != null ? selectionArgs : new String[0]);
+                        deleted.mHistory = true;
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                    if (rowsDeleted != 0) {
+                        changes.addAll(deleted);
+                    }
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    changes.invalidateLocationIds();
+                }
+                break;
+            case HISTORY:
+                db.beginTransaction();
+                try {
+                    ChangeSet deleted = collectHistoryChanges(db, "SELECT DISTINCT "
+                            + WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " FROM "
+                            + WeatherContract.HistoryEntry.TABLE_NAME + " WHERE " + selection,
+                            selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                    if (rowsDeleted != 0) {
+                        changes.addAll(deleted);
+                    }
+                } finally {
+                    db.endTransaction();
+                }
+                break;
+            case CITY:
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.CityEntry.TABLE_NAME, selection, selectionArgs);
+                    db.delete(WeatherContract.CityEntry.FTS_TABLE_NAME, "docid NOT IN (SELECT "
+                            + WeatherContract.CityEntry._ID + " FROM "
+                            + WeatherContract.CityEntry.TABLE_NAME + ")", null);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                break;
+            case METRICS:
+                checkMetricsEnabled(uri);
+                rowsDeleted = mMetrics.reset();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        endChanges(changes);
         return rowsDeleted;
     }
 
+    /**
+     * Inserts the location, or replaces the row of the same location setting, in one statement.
+     * The existing row's id is reused, so its weather rows stay attached to it.
+     *
+     * @return the id of the location, or -1 if it could not be written
+     */
+    private static long upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        String cityName = values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME);
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (locationSetting == null || cityName == null || lat == null || lon == null) {
+            throw new IllegalArgumentException("An upsert needs all the location columns");
+        }
+        SQLiteStatement statement = db.compileStatement(sUpsertLocationSql);
+        try {
+            statement.bindString(1, locationSetting);
+            statement.bindString(2, locationSetting);
+            statement.bindString(3, cityName);
+            statement.bindDouble(4, lat);
+            statement.bindDouble(5, lon);
+            statement.bindString(6, GeoIndex.encode(lat, lon, GeoIndex.PRECISION));
+            return statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Derives the geohash of the location from its coordinates, which have to be written
+     * together for it to stay in sync.
+     */
+    private static void putGeohash(ContentValues values) {
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (lat != null && lon != null) {
+            values.put(WeatherContract.LocationEntry.COLUMN_GEOHASH,
+                    GeoIndex.encode(lat, lon, GeoIndex.PRECISION));
+        } else if (lat != null || lon != null) {
+            throw new IllegalArgumentException(
+                    "The location coordinates have to be written together");
+        } else {
+            values.remove(WeatherContract.LocationEntry.COLUMN_GEOHASH);
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -292,35 +895,126 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        ProviderMetrics.Call call =
+                mMetrics.begin(MetricsEntry.OPERATION_UPDATE, getPattern(match), uri);
+        int rowsUpdated = 0;
+        try {
+            rowsUpdated = update(match, uri, values, selection, selectionArgs);
+            return rowsUpdated;
+        } finally {
+            mMetrics.end(call, rowsUpdated, mOpenHelper);
+        }
+    }
+
+    private int update(int match, Uri uri, ContentValues values, String selection,
+                       String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = beginChanges();
         int rowsUpdated;
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                db.beginTransaction();
+                try {
+                    ChangeSet updated;
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)
+                            || values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                        // rows moving to another day or location touch both places
+                        updated = new ChangeSet();
+                        updated.mAllWeather = true;
+                    } else {
+                        updated = collectWeatherChanges(db, selection, selectionArgs);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                    if (rowsUpdated != 0) {
+                        changes.addAll(updated);
+                    }
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
+                putGeohash(values);
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    // a location setting or id may have changed
+                    changes.invalidateLocationIds();
+                }
+                break;
+            case HISTORY_COMPACT: {
+                long daysBefore =
+                        getCutoff(values, WeatherContract.HistoryEntry.COMPACT_DAYS_BEFORE);
+                long weeksBefore =
+                        getCutoff(values, WeatherContract.HistoryEntry.COMPACT_WEEKS_BEFORE);
+                long monthsBefore =
+                        getCutoff(values, WeatherContract.HistoryEntry.COMPACT_MONTHS_BEFORE);
+                db.beginTransaction();
+                try {
+                    ChangeSet compacted =
+                            collectCompactionChanges(db, daysBefore, weeksBefore, monthsBefore);
+                    rowsUpdated = HistoryCompactor.compact(db, daysBefore, weeksBefore,
+                            monthsBefore);
+                    db.setTransactionSuccessful();
+                    changes.addAll(compacted);
+                } finally {
+                    db.endTransaction();
+                }
+                break;
+            }
+            case METRICS: {
+                Boolean enabled = values != null
+                        ? values.getAsBoolean(MetricsEntry.ENABLED) : null;
+                Long thresholdMs = values != null
+                        ? values.getAsLong(MetricsEntry.SLOW_THRESHOLD_MS) : null;
+                if (enabled == null && thresholdMs == null) {
+                    throw new IllegalArgumentException("Missing " + MetricsEntry.ENABLED
+                            + " or " + MetricsEntry.SLOW_THRESHOLD_MS);
+                }
+                if (enabled != null) {
+                    mMetrics.setEnabled(enabled);
+                }
+                if (thresholdMs != null) {
+                    mMetrics.setSlowThresholdMillis(thresholdMs);
+                }
+                rowsUpdated = 1;
                 break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        endChanges(changes);
         return rowsUpdated;
     }
 
+    private static long getCutoff(ContentValues values, String key) {
+        Long cutoff = values != null ? values.getAsLong(key) : null;
+        return cutoff != null ? cutoff : 0;
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        ProviderMetrics.Call call =
+                mMetrics.begin(MetricsEntry.OPERATION_BULK_INSERT, getPattern(match), uri);
+        int returnCount = 0;
+        try {
+            returnCount = bulkInsert(match, uri, values);
+            return returnCount;
+        } finally {
+            mMetrics.end(call, returnCount, mOpenHelper);
+        }
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         switch (match) {
             case WEATHER:
+                ChangeSet changes = beginChanges();
                 db.beginTransaction();
                 int returnCount = 0;
                 try {
@@ -329,19 +1023,355 @@ public class WeatherProvider extends ContentProvider {
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            changes.addWeather(value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                endChanges(changes);
                 return returnCount;
+            case LOCATION: {
+                ChangeSet locationChanges = beginChanges();
+                db.beginTransaction();
+                int locationCount = 0;
+                try {
+                    for (ContentValues value : values) {
+                        putGeohash(value);
+                        long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, value);
+                        if (_id != -1) {
+                            locationCount++;
+                            locationChanges.putLocationId(value.getAsString(
+                                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING), _id);
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                endChanges(locationChanges);
+                return locationCount;
+            }
+            case CITY:
+                // one transaction per chunk of the catalog import
+                db.beginTransaction();
+                try {
+                    int cityCount = CitySearch.insert(db, values);
+                    db.setTransactionSuccessful();
+                    return cityCount;
+                } finally {
+                    db.endTransaction();
+                }
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the operations in a single transaction, notifying the observers once at the end.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = new ChangeSet();
+        mBatchChanges.set(changes);
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+            if (successful) {
+                commitChanges(changes);
+            }
+        }
+    }
+
+    /**
+     * The weather rows, by location and day, the locations whose history changed and the tables
+     * changed by the writes of one transaction, along with the ids of the locations it inserted.
+     * Those are only cached once the transaction commits, since a rolled back insert would leave
+     * an id the table doesn't have.
+     */
+    private static class ChangeSet {
+        final Map<Long, Set<Long>> mDatesByLocationId = new HashMap<>();
+        // set when the changed weather rows, or the locations of the changed history, can't be
+        // pinned down
+        boolean mAllWeather;
+        boolean mLocations;
+        boolean mHistory;
+        final Set<Long> mHistoryLocationIds = new HashSet<>();
+        final Map<String, Long> mLocationIds = new HashMap<>();
+        // the generation of the cache the ids were found in
+        int mLocationIdGeneration;
+
+        void putLocationId(String locationSetting, long id) {
+            mLocations = true;
+            if (locationSetting == null) {
+                return;
+            }
+            if (mLocationIds.isEmpty()) {
+                mLocationIdGeneration = LocationIdCache.getGeneration();
+            }
+            mLocationIds.put(locationSetting, id);
+        }
+
+        /**
+         * Drops the cached ids right away, and those of the locations inserted so far, which
+         * the update or delete may have changed too.
+         */
+        void invalidateLocationIds() {
+            mLocations = true;
+            mLocationIds.clear();
+            LocationIdCache.invalidate();
+        }
+
+        void addWeather(ContentValues values) {
+            Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                mAllWeather = true;
+            } else {
+                addWeather(locationId, date);
+            }
+        }
+
+        void addWeather(long locationId, long date) {
+            Set<Long> dates = mDatesByLocationId.get(locationId);
+            if (dates == null) {
+                dates = new HashSet<>();
+                mDatesByLocationId.put(locationId, dates);
+            }
+            dates.add(date);
+        }
+
+        void addAll(ChangeSet other) {
+            for (Map.Entry<Long, Set<Long>> entry : other.mDatesByLocationId.entrySet()) {
+                for (long date : entry.getValue()) {
+                    addWeather(entry.getKey(), date);
+                }
+            }
+            mAllWeather |= other.mAllWeather;
+            mLocations |= other.mLocations;
+            mHistory |= other.mHistory;
+            mHistoryLocationIds.addAll(other.mHistoryLocationIds);
+            if (!other.mLocationIds.isEmpty()) {
+                mLocationIds.putAll(other.mLocationIds);
+                mLocationIdGeneration = other.mLocationIdGeneration;
+            }
+        }
+    }
+
+    private ChangeSet beginChanges() {
+        ChangeSet batch = mBatchChanges.get();
+        return batch != null ? batch : new ChangeSet();
+    }
+
+    /**
+     * Commits the changes of a write that succeeded: caches the ids of the locations it inserted
+     * and notifies the observers.  Changes made as part of applyBatch wait for the whole batch.
+     */
+    private void endChanges(ChangeSet changes) {
+        if (changes != mBatchChanges.get()) {
+            commitChanges(changes);
+        }
+    }
+
+    private void commitChanges(ChangeSet changes) {
+        if (!changes.mLocationIds.isEmpty()) {
+            LocationIdCache.putAll(changes.mLocationIds, changes.mLocationIdGeneration);
+        }
+        notifyChanges(changes);
+    }
+
+    /**
+     * Finds the location and day of the weather rows matching the selection.
+     */
+    private static ChangeSet collectWeatherChanges(SQLiteDatabase db, String selection,
+                                                   String[] selectionArgs) {
+        ChangeSet changes = new ChangeSet();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null);
+        try {
+            if (cursor.getCount() > MAX_TRACKED_CHANGES) {
+                changes.mAllWeather = true;
+                return changes;
+            }
+            while (cursor.moveToNext()) {
+                changes.addWeather(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Finds the locations of the history rows or summaries the statement, which selects their
+     * location ids, returns.  Their stats change along with them.
+     */
+    private static ChangeSet collectHistoryChanges(SQLiteDatabase db, String locationIdsSql,
+                                                   String[] selectionArgs) {
+        ChangeSet changes = new ChangeSet();
+        changes.mHistory = true;
+        Cursor cursor = db.rawQuery(locationIdsSql + " LIMIT " + (MAX_TRACKED_CHANGES + 1),
+                selectionArgs);
+        try {
+            if (cursor.getCount() > MAX_TRACKED_CHANGES) {
+                changes.mAllWeather = true;
+                return changes;
+            }
+            while (cursor.moveToNext()) {
+                changes.mHistoryLocationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Finds the locations whose days or summaries compaction rolls up or drops, by the same
+     * cutoffs as {@link HistoryCompactor#compact(SQLiteDatabase, long, long, long)}.
+     */
+    private static ChangeSet collectCompactionChanges(SQLiteDatabase db, long daysBefore,
+                                                      long weeksBefore, long monthsBefore) {
+        List<String> selects = new ArrayList<>(3);
+        List<String> args = new ArrayList<>(5);
+        if (daysBefore > 0) {
+            selects.add("SELECT " + WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " FROM "
+                    + WeatherContract.HistoryEntry.TABLE_NAME + " WHERE "
+                    + HistoryCompactor.EXPIRED_DAYS_SELECTION);
+            args.add(Long.toString(daysBefore));
+        }
+        int[] periods = {WeatherContract.HistorySummaryEntry.PERIOD_WEEK,
+                WeatherContract.HistorySummaryEntry.PERIOD_MONTH};
+        long[] cutoffs = {weeksBefore, monthsBefore};
+        for (int i = 0; i < periods.length; i++) {
+            if (cutoffs[i] > 0) {
+                selects.add("SELECT " + WeatherContract.HistorySummaryEntry.COLUMN_LOC_KEY
+                        + " FROM " + WeatherContract.HistorySummaryEntry.TABLE_NAME + " WHERE "
+                        + HistoryCompactor.EXPIRED_SUMMARIES_SELECTION);
+                args.add(Integer.toString(periods[i]));
+                args.add(Long.toString(cutoffs[i]));
+            }
+        }
+        if (selects.isEmpty()) {
+            return new ChangeSet();
+        }
+        // UNION drops the duplicates
+        return collectHistoryChanges(db, TextUtils.join(" UNION ", selects),
+                args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Notifies the observers of the changed days only.  A location with a single changed day
+     * gets that day's URI, a location with several gets the location's URI, which also wakes the
+     * observers of its days, so each location costs a single notification.  A location whose
+     * history changed gets its URI too, which its stats are observed on.
+     */
+    private void notifyChanges(ChangeSet changes) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (changes.mLocations) {
+            resolver.notifyChange(WeatherContract.LocationEntry.CONTENT_URI, null);
+        }
+        if (changes.mHistory) {
+            resolver.notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+        }
+        Set<Long> locationIds = new HashSet<>(changes.mDatesByLocationId.keySet());
+        locationIds.addAll(changes.mHistoryLocationIds);
+        if (locationIds.isEmpty() && !changes.mAllWeather) {
+            return;
+        }
+
+        List<Uri> uris = new ArrayList<>(locationIds.size());
+        if (!changes.mAllWeather) {
+            Map<Long, String> settings = getLocationSettings(locationIds);
+            for (long locationId : locationIds) {
+                String locationSetting = settings.get(locationId);
+                if (locationSetting == null) {
+                    // the location is gone, so there is no narrower URI to use
+                    uris = null;
+                    break;
+                }
+                Set<Long> dates = changes.mDatesByLocationId.get(locationId);
+                uris.add(dates != null && dates.size() == 1
+                        && !changes.mHistoryLocationIds.contains(locationId)
+                        ? WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                locationSetting, dates.iterator().next())
+                        : WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+            }
+        }
+        if (changes.mAllWeather || uris == null) {
+            resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            return;
+        }
+        for (Uri uri : uris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the metrics are off, as in release builds
+     */
+    /**
+     * @return a row per lane of the task scheduler, with the columns of metrics/lanes
+     */
+    private static Cursor getLaneMetrics() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                MetricsEntry.COLUMN_LANE, MetricsEntry.COLUMN_QUEUE_DEPTH,
+                MetricsEntry.COLUMN_MAX_QUEUE_DEPTH, MetricsEntry.COLUMN_AVERAGE_WAIT,
+                MetricsEntry.COLUMN_MAX_WAIT, MetricsEntry.COLUMN_COMPLETED_COUNT,
+                MetricsEntry.COLUMN_REJECTED_COUNT});
+        TaskScheduler scheduler = TaskScheduler.getInstance();
+        for (int lane = 0; lane < TaskScheduler.LANE_COUNT; lane++) {
+            cursor.addRow(new Object[]{lane, scheduler.getQueueDepth(lane),
+                    scheduler.getMaxQueueDepth(lane), scheduler.getAverageWaitMillis(lane),
+                    scheduler.getMaxWaitMillis(lane), scheduler.getCompletedCount(lane),
+                    scheduler.getRejectedCount(lane)});
+        }
+        return cursor;
+    }
+
+    private void checkMetricsEnabled(Uri uri) {
+        if (!mMetrics.isEnabled()) {
+            throw new UnsupportedOperationException("Metrics are off: " + uri);
+        }
+    }
+
+    private Map<Long, String> getLocationSettings(Set<Long> locationIds) {
+        Map<Long, String> settings = new HashMap<>();
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID + " IN (");
+        String[] selectionArgs = new String[locationIds.size()];
+        int i = 0;
+        for (long locationId : locationIds) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i++] = Long.toString(locationId);
+        }
+        selection.append(')');
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                settings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return settings;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A forecast delta pushed by the server: the days, and the fields of those days, that changed
+ * for one location setting between two server versions of its forecast.
+ *
+ * The payload looks like
+ * <pre>
+ * {"type": "forecast_delta", "location": "94043", "base": 4, "version": 5,
+ *  "days": [{"date": 1419033600000, "max": 21.5, "weather_id": 800, "short_desc": "Clear"}]}
+ * </pre>
+ * where the day fields are named after the {@link WeatherContract.WeatherEntry} columns.  A delta
+ * only applies on top of the version it was computed against ({@code base}); anything else means
+ * a push was missed and a full sync is needed.  Until that sync has happened, see
+ * {@link #onSynced}, no version is known for the location and every delta asks for it again.
+ */
+public class ForecastDelta {
+    public static final String TYPE = "forecast_delta";
+
+    static final String KEY_TYPE = "type";
+    static final String KEY_LOCATION = "location";
+    static final String KEY_BASE = "base";
+    static final String KEY_VERSION = "version";
+    static final String KEY_DAYS = "days";
+
+    /**
+     * The delta was applied.
+     */
+    public static final int RESULT_APPLIED = 0;
+    /**
+     * The delta is not newer than the data already stored, nothing was done.
+     */
+    public static final int RESULT_STALE = 1;
+    /**
+     * The delta does not line up with the data stored, a full sync is needed.
+     */
+    public static final int RESULT_NEEDS_SYNC = 2;
+
+    static final String VERSIONS_PREFS = "forecast_versions";
+    private static final long NO_VERSION = -1;
+    // the version a location will be at once the sync a delta asked for has run
+    private static final String PENDING_SUFFIX = ".pending";
+
+    private static final String[] REQUIRED_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private final String mLocationSetting;
+    private final long mBaseVersion;
+    private final long mVersion;
+    private final List<ContentValues> mDays;
+
+    ForecastDelta(String locationSetting, long baseVersion, long version,
+                  List<ContentValues> days) {
+        mLocationSetting = locationSetting;
+        mBaseVersion = baseVersion;
+        mVersion = version;
+        mDays = days;
+    }
+
+    /**
+     * @return whether the push payload is a forecast delta
+     */
+    public static boolean isForecastDelta(JSONObject json) {
+        return TYPE.equals(json.optString(KEY_TYPE));
+    }
+
+    public static ForecastDelta fromJson(JSONObject json) throws JSONException {
+        JSONArray daysJson = json.getJSONArray(KEY_DAYS);
+        List<ContentValues> days = new ArrayList<>(daysJson.length());
+        for (int i = 0; i < daysJson.length(); i++) {
+            JSONObject dayJson = daysJson.getJSONObject(i);
+            ContentValues day = new ContentValues();
+            Iterator<String> keys = dayJson.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (WeatherContract.WeatherEntry.COLUMN_DATE.equals(key)) {
+                    day.put(key, WeatherContract.normalizeDate(dayJson.getLong(key)));
+                } else if (WeatherContract.WeatherEntry.COLUMN_WEATHER_ID.equals(key)) {
+                    day.put(key, dayJson.getInt(key));
+                } else if (WeatherContract.WeatherEntry.COLUMN_SHORT_DESC.equals(key)) {
+                    day.put(key, dayJson.getString(key));
+                } else if (isRequired(key)) {
+                    day.put(key, dayJson.getDouble(key));
+                }
+                // unknown fields are from a newer server and are ignored
+            }
+            if (!day.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                throw new JSONException("Forecast delta day without a date");
+            }
+            days.add(day);
+        }
+        return new ForecastDelta(json.getString(KEY_LOCATION), json.getLong(KEY_BASE),
+                json.getLong(KEY_VERSION), days);
+    }
+
+    private static boolean isRequired(String column) {
+        for (String required : REQUIRED_COLUMNS) {
+            if (required.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    /**
+     * Upserts the changed days into the weather provider if the delta lines up with the version
+     * stored for its location.  Must not be called on the main thread.
+     *
+     * @return one of the RESULT_ constants
+     */
+    public int apply(Context context) {
+        SharedPreferences versions =
+                context.getSharedPreferences(VERSIONS_PREFS, Context.MODE_PRIVATE);
+        long storedVersion = versions.getLong(mLocationSetting, NO_VERSION);
+        if (mVersion <= storedVersion) {
+            return RESULT_STALE;
+        }
+
+        ContentResolver resolver = context.getContentResolver();
+        long locationId = LocationIdCache.getLocationId(resolver, mLocationSetting);
+        if (locationId < 0 || mBaseVersion != storedVersion) {
+            needsSync(versions);
+            return RESULT_NEEDS_SYNC;
+        }
+
+        // The snapshot no longer matches the provider once any day changes
+        ForecastSnapshot.delete(context, mLocationSetting);
+
+        int result = RESULT_APPLIED;
+        String selection = WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+        List<ContentValues> inserts = new ArrayList<>();
+        for (ContentValues day : mDays) {
+            String[] selectionArgs = new String[]{Long.toString(locationId),
+                    day.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE)};
+            ContentValues changes = new ContentValues(day);
+            changes.remove(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (changes.size() > 0 && resolver.update(WeatherContract.WeatherEntry.CONTENT_URI,
+                    changes, selection, selectionArgs) > 0) {
+                continue;
+            }
+            // A day we don't have yet can only be inserted if the delta carries all of it
+            if (isComplete(day)) {
+                ContentValues insert = new ContentValues(day);
+                insert.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                inserts.add(insert);
+            } else if (changes.size() > 0) {
+                result = RESULT_NEEDS_SYNC;
+            }
+        }
+        if (!inserts.isEmpty()) {
+            resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                    inserts.toArray(new ContentValues[inserts.size()]));
+        }
+        if (result == RESULT_NEEDS_SYNC) {
+            // some days were changed, but not all of them
+            needsSync(versions);
+        } else {
+            versions.edit().putLong(mLocationSetting, mVersion).apply();
+        }
+        return result;
+    }
+
+    /**
+     * Forgets the version of the location, whose rows no longer match any, until a full sync
+     * brings them up to at least this delta's version.
+     */
+    private void needsSync(SharedPreferences versions) {
+        versions.edit()
+                .remove(mLocationSetting)
+                .putLong(mLocationSetting + PENDING_SUFFIX, mVersion)
+                .apply();
+    }
+
+    /**
+     * Records that a full sync of the location completed, so the deltas after the version the
+     * last delta asked for the sync at can apply on top of it.
+     */
+    public static void onSynced(Context context, String locationSetting) {
+        SharedPreferences versions =
+                context.getSharedPreferences(VERSIONS_PREFS, Context.MODE_PRIVATE);
+        String pendingKey = locationSetting + PENDING_SUFFIX;
+        long pendingVersion = versions.getLong(pendingKey, NO_VERSION);
+        if (pendingVersion != NO_VERSION) {
+            versions.edit()
+                    .putLong(locationSetting, pendingVersion)
+                    .remove(pendingKey)
+                    .apply();
+        }
+    }
+
+    private static boolean isComplete(ContentValues day) {
+        for (String column : REQUIRED_COLUMNS) {
+            if (!day.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -16,19 +16,15 @@
 
 package com.example.android.sunshine.app.gcm;
 
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.Context;
-import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
-import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.notification.WeatherNotifier;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.UpdateDispatcher;
 import com.google.android.gms.gcm.GcmListenerService;
 
 import org.json.JSONException;
@@ -42,8 +38,6 @@ public class MyGcmListenerService extends GcmListenerService {
     private static final String EXTRA_WEATHER = "weather";
     private static final String EXTRA_LOCATION = "location";
 
-    public static final int NOTIFICATION_ID = 1;
-
     /**
      * Called when message is received.
      *
@@ -65,6 +59,10 @@ public class MyGcmListenerService extends GcmListenerService {
                 // Process message and then post a notification of the received message.
                 try {
                     JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
+                    if (ForecastDelta.isForecastDelta(jsonObject)) {
+                        applyForecastDelta(ForecastDelta.fromJson(jsonObject));
+                        return;
+                    }
                     String weather = jsonObject.getString(EXTRA_WEATHER);
                     String location = jsonObject.getString(EXTRA_LOCATION);
                     String alert =
@@ -80,31 +78,40 @@ public class MyGcmListenerService extends GcmListenerService {
     }
 
     /**
-     *  Put the message into a notification and post it.
-     *  This is just one simple example of what you might choose to do with a GCM message.
+     * Applies a forecast delta pushed by the server straight to the weather provider, falling
+     * back to a full sync when it doesn't line up with the data we have.
+     */
+    private void applyForecastDelta(ForecastDelta delta) {
+        UpdateDispatcher dispatcher = UpdateDispatcher.getInstance(this);
+        dispatcher.beginWork();
+        int result;
+        try {
+            result = delta.apply(this);
+            if (result == ForecastDelta.RESULT_APPLIED) {
+                dispatcher.dataChanged(UpdateDispatcher.CONSUMER_ALL);
+                // the watch shows the preferred location, as after a full sync
+                if (delta.getLocationSetting().equals(Utility.getPreferredLocation(this))) {
+                    SunshineSyncAdapter.updateWatch(this, delta.getLocationSetting());
+                }
+            }
+        } finally {
+            // the service may be stopped as soon as the message is handled
+            dispatcher.endWork();
+        }
+        Log.d(TAG, "Forecast delta for " + delta.getLocationSetting() + ": " + result);
+        if (result == ForecastDelta.RESULT_NEEDS_SYNC
+                && delta.getLocationSetting().equals(Utility.getPreferredLocation(this))) {
+            SunshineSyncAdapter.syncImmediately(this);
+        }
+    }
+
+    /**
+     *  Put the message into a notification and post it.  Bursts of alerts are collapsed into one
+     *  notification by the {@link WeatherNotifier}.
      *
      * @param message The alert message to be posted.
      */
     private void sendNotification(String message) {
-        NotificationManager mNotificationManager =
-                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        PendingIntent contentIntent =
-                PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
-
-        // Notifications using both a large and a small icon (which yours should!) need the large
-        // icon as a bitmap. So we need to create that here from the resource ID, and pass the
-        // object along in our notification builder. Generally, you want to use the app icon as the
-        // small icon, so that users understand what app is triggering this notification.
-        Bitmap largeIcon = BitmapFactory.decodeResource(this.getResources(), R.drawable.art_storm);
-        NotificationCompat.Builder mBuilder =
-                new NotificationCompat.Builder(this)
-                        .setSmallIcon(R.drawable.art_clear)
-                        .setLargeIcon(largeIcon)
-                        .setContentTitle("Weather Alert!")
-                        .setStyle(new NotificationCompat.BigTextStyle().bigText(message))
-                        .setContentText(message)
-                        .setPriority(NotificationCompat.PRIORITY_HIGH);
-        mBuilder.setContentIntent(contentIntent);
-        mNotificationManager.notify(NOTIFICATION_ID, mBuilder.build());
+        WeatherNotifier.getInstance(this).postAlert(message);
     }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Read-only provider serving the Muzei artwork from a local on-disk cache.
+ *
+ * Each weather image is downloaded once by {@link #getCachedArtworkUri} and then handed to Muzei
+ * as a content URI, so publishing the same artwork again costs no network.  There is one image
+ * per condition bucket, so the cache stays small and is never evicted.  The provider isn't
+ * exported: Muzei is granted read access to each URI handed to it.
+ */
+public class ArtworkCacheProvider extends ContentProvider {
+    private static final String LOG_TAG = ArtworkCacheProvider.class.getSimpleName();
+
+    public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".muzei.artwork";
+    private static final String CACHE_DIR = "muzei";
+    // the app showing the artwork, the only one the URIs are shared with
+    private static final String MUZEI_PACKAGE = "net.nurik.roman.muzei";
+
+    /**
+     * Returns a content URI for the image at the given URL, downloading it into the cache first
+     * if needed, and lets Muzei read it.  Must not be called on the main thread.
+     *
+     * @return the content URI, or null if the image could not be downloaded
+     */
+    public static Uri getCachedArtworkUri(Context context, String imageUrl) {
+        String fileName = Integer.toHexString(imageUrl.hashCode()) + ".jpg";
+        File file = new File(getCacheDir(context), fileName);
+        if (!file.exists() && !download(imageUrl, file)) {
+            return null;
+        }
+        Uri uri = new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath(fileName)
+                .build();
+        context.grantUriPermission(MUZEI_PACKAGE, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        return uri;
+    }
+
+    private static File getCacheDir(Context context) {
+        File dir = new File(context.getFilesDir(), CACHE_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Downloads to a temporary file and renames it into place, so a partial download is never
+     * served.
+     */
+    private static boolean download(String imageUrl, File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        HttpURLConnection urlConnection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            urlConnection = (HttpURLConnection) new URL(imageUrl).openConnection();
+            urlConnection.connect();
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "Error " + urlConnection.getResponseCode() + " downloading "
+                        + imageUrl);
+                return false;
+            }
+            in = urlConnection.getInputStream();
+            out = new FileOutputStream(tmp);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            return tmp.renameTo(file);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error downloading " + imageUrl, e);
+            return false;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (tmp.exists() && !tmp.delete()) {
+                Log.w(LOG_TAG, "Unable to delete " + tmp);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new SecurityException("Artwork is read-only: " + uri);
+        }
+        // only serve plain file names from the cache directory
+        String fileName = uri.getLastPathSegment();
+        if (fileName == null || uri.getPathSegments().size() != 1 || fileName.contains("..")) {
+            throw new FileNotFoundException("Unknown uri: " + uri);
+        }
+        File file = new File(getCacheDir(getContext()), fileName);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "image/jpeg";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Artwork is read-only: " + uri);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read-only: " + uri);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read-only: " + uri);
+    }
+}
@@ -21,6 +21,7 @@ import android.net.Uri;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
@@ -55,25 +56,50 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
+        int weatherId;
+        String desc;
+        ForecastSnapshot snapshot = ForecastSnapshot.read(this, location);
+        if (snapshot != null) {
+            weatherId = snapshot.getWeatherId(0);
+            desc = snapshot.getShortDesc(0);
+        } else {
+            Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                    .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+            Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS,
+                    null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            if (cursor == null) {
+                return;
+            }
+            try {
+                if (!cursor.moveToFirst()) {
+                    return;
+                }
+                weatherId = cursor.getInt(INDEX_WEATHER_ID);
+                desc = cursor.getString(INDEX_SHORT_DESC);
+            } finally {
+                cursor.close();
+            }
+        }
 
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
+        String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        // Only publish a new wallpaper if we have a valid image, and only if the condition
+        // bucket (one image per bucket) or the location changed since the last one
+        String token = imageUrl + "|" + location;
+        Artwork current = getCurrentArtwork();
+        boolean unchanged = current != null && token.equals(current.getToken());
+        if (imageUrl != null && (!unchanged || reason == UPDATE_REASON_INITIAL)) {
+            Uri imageUri = ArtworkCacheProvider.getCachedArtworkUri(this, imageUrl);
+            if (imageUri == null) {
+                // Let Muzei download it itself
+                imageUri = Uri.parse(imageUrl);
             }
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(imageUri)
+                    .token(token)
+                    .title(desc)
+                    .byline(location)
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
         }
-        cursor.close();
     }
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.notification;
+
+import android.annotation.SuppressLint;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SyncStateStore;
+import com.example.android.sunshine.app.task.BlockingCallDetector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts the daily forecast notification and the weather alerts pushed through GCM.
+ *
+ * All of the work, including querying the forecast and loading the large icons, happens on the
+ * notifier's own thread, so callers such as the sync never wait for it.  Large icons are loaded
+ * once per condition at the notification large-icon size.  Each channel is limited to one post
+ * per {@link #MIN_POST_INTERVAL_MS}; whatever arrives in between is folded into the next post.
+ *
+ * The first alert of a burst is posted right away.  Alerts following it within
+ * {@link #ALERT_COLLAPSE_MS} are added to the same notification once the window is over, and
+ * {@link #postAlert} doesn't return until then, so the alerts survive their service stopping.
+ */
+public class WeatherNotifier {
+    private static final String LOG_TAG = WeatherNotifier.class.getSimpleName();
+
+    private static final int CHANNEL_FORECAST = 0;
+    private static final int CHANNEL_ALERTS = 1;
+    private static final int CHANNEL_COUNT = 2;
+
+    private static final int FORECAST_NOTIFICATION_ID = 3004;
+    private static final int ALERTS_NOTIFICATION_ID = 1;
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // alerts closer together than this are posted as one notification
+    static final long ALERT_COLLAPSE_MS = TimeUnit.SECONDS.toMillis(5);
+    static final long[] MIN_POST_INTERVAL_MS = {
+            TimeUnit.MINUTES.toMillis(1),   // CHANNEL_FORECAST
+            ALERT_COLLAPSE_MS               // CHANNEL_ALERTS
+    };
+
+    private static final int MSG_FORECAST = 1;
+    private static final int MSG_FLUSH_ALERTS = 2;
+
+    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_WEATHER_ID = 0;
+    private static final int INDEX_MAX_TEMP = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+
+    private static WeatherNotifier sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final int mLargeIconWidth;
+    private final int mLargeIconHeight;
+
+    // only touched on the notifier thread
+    private final Map<String, Bitmap> mLargeIcons = new HashMap<>();
+    private final long[] mLastPostAt = new long[CHANNEL_COUNT];
+    // the alerts of the current burst, all listed in its notification
+    private final List<String> mBurstAlerts = new ArrayList<>();
+    private int mNewAlerts;
+
+    // guarded by this
+    private int mUnpostedAlerts;
+
+    public static synchronized WeatherNotifier getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new WeatherNotifier(context.getApplicationContext(), thread);
+        }
+        return sInstance;
+    }
+
+    @SuppressLint("InlinedApi")
+    private WeatherNotifier(Context context, HandlerThread thread) {
+        mContext = context;
+        Resources resources = context.getResources();
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        mLargeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        mLargeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            mLastPostAt[i] = -MIN_POST_INTERVAL_MS[i];
+        }
+        mHandler = new Handler(thread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_FORECAST:
+                        notifyForecastNow();
+                        return true;
+                    case MSG_FLUSH_ALERTS:
+                        flushAlerts();
+                        return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Posts today's forecast if notifications are enabled and none was posted in the last day.
+     * Returns immediately.
+     */
+    public void notifyForecast() {
+        if (!mHandler.hasMessages(MSG_FORECAST)) {
+            mHandler.sendEmptyMessage(MSG_FORECAST);
+        }
+    }
+
+    /**
+     * Posts a weather alert, or adds it to the notification of the current burst.  Returns once
+     * the alert has been posted, which takes up to {@link #ALERT_COLLAPSE_MS} inside a burst, so
+     * must not be called on the main thread.
+     */
+    public void postAlert(final String message) {
+        synchronized (this) {
+            mUnpostedAlerts++;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mHandler.hasMessages(MSG_FLUSH_ALERTS)) {
+                    // inside a burst, posted with the rest of it
+                    mBurstAlerts.add(message);
+                    mNewAlerts++;
+                    return;
+                }
+                long delay = getRateLimitDelay(CHANNEL_ALERTS);
+                if (delay == 0) {
+                    // the last burst is over, so this one starts a new notification
+                    mBurstAlerts.clear();
+                }
+                mBurstAlerts.add(message);
+                mNewAlerts++;
+                if (delay > 0) {
+                    mHandler.sendEmptyMessageDelayed(MSG_FLUSH_ALERTS, delay);
+                } else {
+                    flushAlerts();
+                }
+            }
+        });
+
+        // The service delivering the alert may be stopped as soon as this returns
+        long deadline = SystemClock.uptimeMillis() + 2 * ALERT_COLLAPSE_MS;
+        synchronized (this) {
+            while (mUnpostedAlerts > 0) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    Log.w(LOG_TAG, "Gave up waiting for the alert to be posted");
+                    return;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private long getRateLimitDelay(int channel) {
+        long elapsed = SystemClock.elapsedRealtime() - mLastPostAt[channel];
+        return Math.max(0, MIN_POST_INTERVAL_MS[channel] - elapsed);
+    }
+
+    private void notifyForecastNow() {
+        long delay = getRateLimitDelay(CHANNEL_FORECAST);
+        if (delay > 0) {
+            mHandler.sendEmptyMessageDelayed(MSG_FORECAST, delay);
+            return;
+        }
+
+        //checking the last update and notify if it' the first of the day
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String displayNotificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
+                Boolean.parseBoolean(mContext.getString(R.string.pref_enable_notifications_default)));
+        if (!displayNotifications) {
+            return;
+        }
+        SyncStateStore syncState = SyncStateStore.getInstance(mContext);
+        long lastSync = syncState.getLastNotificationTime();
+        if (System.currentTimeMillis() - lastSync < DAY_IN_MILLIS) {
+            return;
+        }
+
+        // Last sync was more than 1 day ago, let's send a notification with the weather.
+        String locationQuery = Utility.getPreferredLocation(mContext);
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationQuery, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                NOTIFY_WEATHER_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
+            double high = cursor.getDouble(INDEX_MAX_TEMP);
+            double low = cursor.getDouble(INDEX_MIN_TEMP);
+            String desc = cursor.getString(INDEX_SHORT_DESC);
+
+            // Define the text of the forecast.
+            String contentText = String.format(mContext.getString(R.string.format_notification),
+                    desc,
+                    Utility.formatTemperature(mContext, high),
+                    Utility.formatTemperature(mContext, low));
+
+            // NotificationCompatBuilder is a very convenient way to build backward-compatible
+            // notifications.  Just throw in some data.
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
+                    .setColor(mContext.getResources().getColor(R.color.primary_light))
+                    .setSmallIcon(Utility.getIconResourceForWeatherCondition(weatherId))
+                    .setLargeIcon(getLargeIcon(
+                            Utility.getArtUrlForWeatherCondition(mContext, weatherId),
+                            Utility.getArtResourceForWeatherCondition(weatherId)))
+                    .setContentTitle(mContext.getString(R.string.app_name))
+                    .setContentText(contentText)
+                    .setContentIntent(createContentIntent());
+            post(CHANNEL_FORECAST, FORECAST_NOTIFICATION_ID, builder);
+
+            //refreshing last sync
+            syncState.setLastNotificationTime(System.currentTimeMillis());
+            syncState.flushAsync();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void flushAlerts() {
+        if (mNewAlerts == 0) {
+            return;
+        }
+        long delay = getRateLimitDelay(CHANNEL_ALERTS);
+        if (delay > 0) {
+            mHandler.sendEmptyMessageDelayed(MSG_FLUSH_ALERTS, delay);
+            return;
+        }
+
+        int count = mBurstAlerts.size();
+        String latest = mBurstAlerts.get(count - 1);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
+                .setSmallIcon(R.drawable.art_clear)
+                .setLargeIcon(getLargeIcon(null, R.drawable.art_storm))
+                .setContentTitle("Weather Alert!")
+                .setContentText(latest)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setContentIntent(createContentIntent());
+        if (count == 1) {
+            builder.setStyle(new NotificationCompat.BigTextStyle().bigText(latest));
+        } else {
+            NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+            for (int i = count - 1; i >= 0; i--) {
+                style.addLine(mBurstAlerts.get(i));
+            }
+            builder.setNumber(count).setStyle(style);
+        }
+        post(CHANNEL_ALERTS, ALERTS_NOTIFICATION_ID, builder);
+        alertsPosted(mNewAlerts);
+        mNewAlerts = 0;
+    }
+
+    private synchronized void alertsPosted(int count) {
+        mUnpostedAlerts -= count;
+        notifyAll();
+    }
+
+    private void post(int channel, int notificationId, NotificationCompat.Builder builder) {
+        NotificationManager notificationManager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(notificationId, builder.build());
+        mLastPostAt[channel] = SystemClock.elapsedRealtime();
+    }
+
+    private PendingIntent createContentIntent() {
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(mContext);
+        stackBuilder.addNextIntent(new Intent(mContext, MainActivity.class));
+        return stackBuilder.getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * @param artUrl remote art to show, or null to use the resource
+     * @param artResourceId local art, used when there is no remote art or it fails to load
+     * @return the art scaled to the large icon size, loaded only on the first call per condition
+     */
+    private Bitmap getLargeIcon(String artUrl, int artResourceId) {
+        String key = artUrl != null ? artUrl : "res:" + artResourceId;
+        Bitmap largeIcon = mLargeIcons.get(key);
+        if (largeIcon != null) {
+            return largeIcon;
+        }
+        try {
+            if (artUrl != null) {
+                largeIcon = BlockingCallDetector.get(Glide.with(mContext)
+                        .load(artUrl)
+                        .asBitmap()
+                        .error(artResourceId)
+                        .fitCenter()
+                        .into(mLargeIconWidth, mLargeIconHeight), key);
+            } else {
+                largeIcon = BlockingCallDetector.get(Glide.with(mContext)
+                        .load(artResourceId)
+                        .asBitmap()
+                        .fitCenter()
+                        .into(mLargeIconWidth, mLargeIconHeight), key);
+            }
+            mLargeIcons.put(key, largeIcon);
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + key, e);
+            // not cached, so the remote art is tried again next time
+            largeIcon = BitmapFactory.decodeResource(mContext.getResources(), artResourceId);
+            if (largeIcon != null) {
+                largeIcon = Bitmap.createScaledBitmap(largeIcon, mLargeIconWidth,
+                        mLargeIconHeight, true);
+            }
+        }
+        return largeIcon;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.task.TaskScheduler;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports openweathermap's city catalog into the city table, for the location setting to
+ * autocomplete from.
+ *
+ * The gzipped catalog is a JSON array of cities, or older ones bare JSON objects, laid out
+ * however it is: a city per line or pretty-printed over several.  It is downloaded once, over an
+ * unmetered network only and resuming a partial download where it stopped, on a thread of its
+ * own rather than a scheduler worker, as the download of several megabytes may take minutes.  It
+ * is then streamed into the provider a chunk per transaction.  Each chunk is a separate task on
+ * the prefetch lane, so the import never holds a worker for long, and the number of cities read
+ * is saved after each one, so an import cut short by the process dying resumes from its last
+ * chunk the next time it is started.  Cities replace those of the same id, so a chunk imported
+ * twice does no harm.  A catalog that yields no city at all is a failed import, to be downloaded
+ * again.
+ */
+public class CityCatalogImporter implements Runnable {
+    public static final String LOG_TAG = CityCatalogImporter.class.getSimpleName();
+
+    private static final String CATALOG_URL =
+            "http://bulk.openweathermap.org/sample/city.list.json.gz";
+    private static final String CATALOG_FILE = "city.list.json.gz";
+    // the number of cities read, or -1 once the whole catalog is in
+    private static final String PROGRESS_KEY = "city-import-cities";
+    private static final int CHUNK_SIZE = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+
+    private static CityCatalogImporter sRunning;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    private final File mFile;
+    private final int mChunkSize;
+
+    // only touched by the task running the current chunk
+    private BufferedReader mReader;
+    private int mCity;
+
+    /**
+     * Starts the import in the background, unless it is already done or running, or the catalog
+     * still has to be downloaded and the network is metered.
+     */
+    public static synchronized void startIfNeeded(Context context) {
+        Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        if (sRunning != null || prefs.getInt(PROGRESS_KEY, 0) < 0) {
+            return;
+        }
+        File file = new File(appContext.getFilesDir(), CATALOG_FILE);
+        if (!file.exists() && !isUnmetered(appContext)) {
+            Log.d(LOG_TAG, "Waiting for an unmetered network to download the city catalog");
+            return;
+        }
+        sRunning = new CityCatalogImporter(appContext, prefs, file, CHUNK_SIZE);
+        if (file.exists()) {
+            sRunning.scheduleNextChunk();
+        } else {
+            sRunning.startDownload();
+        }
+    }
+
+    private static boolean isUnmetered(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected()
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+
+    CityCatalogImporter(Context context, SharedPreferences prefs, File file, int chunkSize) {
+        mContext = context;
+        mPrefs = prefs;
+        mFile = file;
+        mChunkSize = chunkSize;
+    }
+
+    @Override
+    public void run() {
+        boolean more = false;
+        try {
+            more = importNextChunk();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "City import stopped at city " + mCity + ", resuming next time", e);
+        } finally {
+            if (!more) {
+                finish();
+            }
+        }
+        if (more) {
+            scheduleNextChunk();
+        }
+    }
+
+    /**
+     * Downloads the catalog on a background thread of its own, then starts importing it.
+     */
+    private void startDownload() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    download();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "City catalog download stopped, resuming next time", e);
+                    finish();
+                    return;
+                }
+                scheduleNextChunk();
+            }
+        }, LOG_TAG).start();
+    }
+
+    private void scheduleNextChunk() {
+        try {
+            TaskScheduler.getInstance().submit(TaskScheduler.LANE_PREFETCH, this);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Too much background work, resuming the city import next time");
+            finish();
+        }
+    }
+
+    private void finish() {
+        close();
+        synchronized (CityCatalogImporter.class) {
+            if (sRunning == this) {
+                sRunning = null;
+            }
+        }
+    }
+
+    /**
+     * Imports the next chunk of cities from the downloaded catalog.  Must not be called on the
+     * main thread.
+     *
+     * @return whether there is more to import
+     */
+    boolean importNextChunk() throws IOException {
+        int done = mPrefs.getInt(PROGRESS_KEY, 0);
+        if (done < 0) {
+            return false;
+        }
+        if (mReader == null) {
+            mReader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(mFile)), "UTF-8"));
+            for (mCity = 0; mCity < done; mCity++) {
+                if (readObject(mReader) == null) {
+                    break;
+                }
+            }
+        }
+
+        List<ContentValues> cities = new ArrayList<>(mChunkSize);
+        String object = null;
+        while (cities.size() < mChunkSize && (object = readObject(mReader)) != null) {
+            mCity++;
+            ContentValues city = parseCity(object);
+            if (city != null) {
+                cities.add(city);
+            }
+        }
+        if (!cities.isEmpty()) {
+            mContext.getContentResolver().bulkInsert(CityEntry.CONTENT_URI,
+                    cities.toArray(new ContentValues[cities.size()]));
+        }
+
+        boolean more = object != null;
+        if (more) {
+            mPrefs.edit().putInt(PROGRESS_KEY, mCity).apply();
+            return true;
+        }
+        close();
+        mFile.delete();
+        if (mCity > 0 && hasCities()) {
+            Log.d(LOG_TAG, "City import complete, " + mCity + " cities");
+            mPrefs.edit().putInt(PROGRESS_KEY, -1).apply();
+        } else {
+            // a format this doesn't understand, or a truncated download
+            Log.e(LOG_TAG, "No city in the catalog's " + mCity + " objects, importing it again "
+                    + "next time");
+            mPrefs.edit().remove(PROGRESS_KEY).apply();
+        }
+        return false;
+    }
+
+    private boolean hasCities() {
+        Cursor cursor = mContext.getContentResolver().query(CityEntry.CONTENT_URI,
+                new String[]{CityEntry._ID}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the text of the next object that isn't nested in another one, or null at the end
+     * of the catalog.  Line breaks don't matter, except inside a string, which JSON doesn't allow
+     * them in: the object is broken there, and dropped.
+     */
+    static String readObject(Reader reader) throws IOException {
+        StringBuilder object = new StringBuilder();
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (depth == 0) {
+                // the array's brackets and separators
+                if (c == '{') {
+                    object.append('{');
+                    depth = 1;
+                }
+                continue;
+            }
+            if (inString && c == '\n') {
+                Log.w(LOG_TAG, "Skipping a city that doesn't parse: " + object);
+                object.setLength(0);
+                depth = 0;
+                inString = false;
+                escaped = false;
+                continue;
+            }
+            object.append((char) c);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return object.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the values of the city in the JSON object, or null if it isn't one
+     */
+    static ContentValues parseCity(String object) {
+        try {
+            JSONObject json = new JSONObject(object);
+            JSONObject coord = json.getJSONObject("coord");
+            ContentValues city = new ContentValues();
+            // older catalogs call the id "_id"
+            city.put(CityEntry._ID, json.has("id") ? json.getLong("id") : json.getLong("_id"));
+            city.put(CityEntry.COLUMN_NAME, json.getString("name"));
+            city.put(CityEntry.COLUMN_COUNTRY, json.optString("country"));
+            city.put(CityEntry.COLUMN_COORD_LAT, coord.getDouble("lat"));
+            city.put(CityEntry.COLUMN_COORD_LONG, coord.getDouble("lon"));
+            return city;
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Skipping a city that doesn't parse: " + object);
+            return null;
+        }
+    }
+
+    /**
+     * Downloads the catalog, continuing a previous partial download if the server allows.
+     */
+    private void download() throws IOException {
+        File partial = new File(mFile.getPath() + ".part");
+        HttpURLConnection urlConnection =
+                (HttpURLConnection) new URL(CATALOG_URL).openConnection();
+        try {
+            // a stalled connection fails the download, which resumes next time
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MS);
+            if (partial.exists()) {
+                urlConnection.setRequestProperty("Range", "bytes=" + partial.length() + "-");
+            }
+            int responseCode = urlConnection.getResponseCode();
+            boolean append = responseCode == HttpURLConnection.HTTP_PARTIAL;
+            if (!append && responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Catalog download failed with " + responseCode);
+            }
+            InputStream in = urlConnection.getInputStream();
+            OutputStream out = new FileOutputStream(partial, append);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+        } finally {
+            urlConnection.disconnect();
+        }
+        if (!partial.renameTo(mFile)) {
+            throw new IOException("Could not move the catalog to " + mFile);
+        }
+    }
+
+    private void close() {
+        if (mReader != null) {
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error closing the city catalog", e);
+            }
+            mReader = null;
+        }
+    }
+}
@@ -2,9 +2,6 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
@@ -12,47 +9,38 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.annotation.NonNull;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.HistoryCompactor;
+import com.example.android.sunshine.app.data.LocationIdCache;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.gcm.ForecastDelta;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
+import com.example.android.sunshine.app.task.BlockingCallDetector;
+import com.example.android.sunshine.app.task.TaskScheduler;
+import com.example.android.sunshine.app.wear.ForecastRecord;
+import com.example.android.sunshine.app.wear.WearPublisher;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -62,39 +50,19 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
-    public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
+    public static final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
     // Interval at which to sync with the weather, in seconds.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-    // used for android wear watchface
-    private static GoogleApiClient mGoogleApiClient;
-    private static boolean watch = false;
-    private static final String weatherPath = "/weather";
-    private static final String iconKey = "icon";
-    private static final String minKey = "min";
-    private static final String maxKey = "max";
-    private static long lastWatchPush = 0;
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+
+    // size of the condition icon sent to the android wear watchface
+    private static final int WATCH_ICON_SIZE = 75;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -108,39 +76,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
-        if (mGoogleApiClient == null) {
-            mGoogleApiClient = new GoogleApiClient.Builder(getContext())
-                    .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                        @Override
-                        public void onConnected(Bundle connectionHint) {
-                            Log.d(LOG_TAG, "onConnected: " + connectionHint);
-                            // Now you can use the Data Layer API
-                            watch = true;
-                        }
-                        @Override
-                        public void onConnectionSuspended(int cause) {
-                            Log.d(LOG_TAG, "onConnectionSuspended: " + cause);
-                            watch = false;
-                        }
-                    })
-                    .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                        @Override
-                        public void onConnectionFailed(@NonNull ConnectionResult result) {
-                            Log.d(LOG_TAG, "onConnectionFailed: " + result);
-                            watch = false;
-                        }
-                    })
-                    // Request access only to the Wearable API
-                    .addApi(Wearable.API)
-                    .build();
-        }
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        mGoogleApiClient.connect();
         String locationQuery = Utility.getPreferredLocation(getContext());
+        SyncStateStore syncState = SyncStateStore.getInstance(getContext());
+        UpdateDispatcher dispatcher = UpdateDispatcher.getInstance(getContext());
+        dispatcher.beginWork();
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
@@ -200,21 +144,29 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (buffer.length() == 0) {
                 // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                setLocationStatus(locationQuery, LOCATION_STATUS_SERVER_DOWN);
                 return;
             }
             forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            if (getWeatherDataFromJson(forecastJsonStr, locationQuery)) {
+                ForecastDelta.onSynced(getContext(), locationQuery);
+            }
+            // The city catalog waits for an unmetered network, which a later sync may find
+            CityCatalogImporter.startIfNeeded(getContext());
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            setLocationStatus(locationQuery, LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            setLocationStatus(locationQuery, LOCATION_STATUS_SERVER_INVALID);
         } finally {
+            // Everything the sync changed goes to disk in one write
+            syncState.flush();
+            // and the consumers refresh before the sync returns and its process may be killed
+            dispatcher.endWork();
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
@@ -236,7 +188,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
      * into an Object hierarchy for us.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
+    private boolean getWeatherDataFromJson(String forecastJsonStr,
                                         String locationSetting)
             throws JSONException {
 
@@ -285,11 +237,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     case HttpURLConnection.HTTP_OK:
                         break;
                     case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
+                        setLocationStatus(locationSetting, LOCATION_STATUS_INVALID);
+                        return false;
                     default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        setLocationStatus(locationSetting, LOCATION_STATUS_SERVER_DOWN);
+                        return false;
                 }
             }
 
@@ -376,24 +328,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
 
                 cVVector.add(weatherValues);
-                if (i == 0 && watch) {
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(getContext(), weatherId);
-                    Resources resources = getContext().getResources();
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(getContext())
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(75, 75).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    notifyWatch(largeIcon, high, low);
-                }
             }
 
             int inserted = 0;
@@ -403,193 +337,162 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 cVVector.toArray(cvArray);
                 getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                // move the past days out of the forecast and into the history
+                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.ARCHIVE_URI,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
                         new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+                compactHistoryIfDue(getContext());
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+                // Let the widgets and Muzei read the new forecast without a query
+                ForecastSnapshot.write(getContext(), locationSetting, cvArray);
+                UpdateDispatcher.getInstance(getContext())
+                        .dataChanged(UpdateDispatcher.CONSUMER_ALL);
+                scheduleWatchUpdate(getContext(), cvArray);
             }
             Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            setLocationStatus(locationSetting, LOCATION_STATUS_OK);
+            return true;
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            setLocationStatus(locationSetting, LOCATION_STATUS_SERVER_INVALID);
+            return false;
         }
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
+    static void updateWidgets(Context context) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
+    /**
+     * Rolls the old days of the history into weekly and monthly summaries, at most once per
+     * {@link HistoryCompactor#COMPACTION_INTERVAL_MILLIS}.  The sync doesn't wait for it.
+     */
+    private static void compactHistoryIfDue(final Context context) {
+        SyncStateStore syncState = SyncStateStore.getInstance(context);
+        final long now = System.currentTimeMillis();
+        if (now - syncState.getLastCompactionTime()
+                < HistoryCompactor.COMPACTION_INTERVAL_MILLIS) {
+            return;
+        }
+        try {
+            TaskScheduler.getInstance().submit(TaskScheduler.LANE_SYNC, new Runnable() {
+                @Override
+                public void run() {
+                    int compacted = HistoryCompactor.getInstance(context)
+                            .compact(context.getContentResolver(), now);
+                    Log.d(LOG_TAG, "History compacted, " + compacted + " days summarized");
                 }
-                cursor.close();
-            }
+            });
+            syncState.setLastCompactionTime(now);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Too much pending sync work, compacting the history next time");
         }
     }
 
     /**
-     * Notify android wear watchface about new high and low and give the condition icon as asset
-     * @param largeIcon the bitmap for the condition icon
-     * @param high max temp
-     * @param low min temp
+     * Sends the watch the forecast of the location from today on, read back from the provider,
+     * after it changed outside of a sync, e.g. through a pushed delta.  Must not be called on
+     * the main thread.
      */
-    private void notifyWatch(Bitmap largeIcon, double high, double low) {
-        if (watch) {
-            PutDataMapRequest request = PutDataMapRequest.create(weatherPath);
-            request.getDataMap().putDouble(maxKey, Utility.isMetric(getContext()) ? high : (high * 1.8) + 32);
-            request.getDataMap().putDouble(minKey, Utility.isMetric(getContext()) ? low : (low * 1.8) + 32);
-            request.getDataMap().putAsset(iconKey, toAsset(largeIcon));
-            request.setUrgent();
-            PutDataRequest putDataRequest = request.asPutDataRequest();
-            PendingResult<DataApi.DataItemResult> pendingResult =
-                    Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest);
-            pendingResult.await();
-            mGoogleApiClient.disconnect();
+    public static void updateWatch(Context context, String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherUri, new String[]{
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID}, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        ContentValues[] days = new ContentValues[cursor.getCount()];
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues day = new ContentValues();
+                day.put(WeatherContract.WeatherEntry.COLUMN_DATE, cursor.getLong(0));
+                day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(1));
+                day.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(2));
+                day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(3));
+                days[cursor.getPosition()] = day;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (days.length > 0) {
+            scheduleWatchUpdate(context.getApplicationContext(), days);
         }
     }
 
     /**
-     * Turn the bitmap to an Asset so we can send it to watch
-     * @param bitmap the image
-     * @return the Asset made from bitmap
+     * Queues {@link #notifyWatch} on the sync lane: the watch icon may need a download, which
+     * the caller doesn't wait for.
      */
-    private static Asset toAsset(Bitmap bitmap) {
-        ByteArrayOutputStream byteStream = null;
+    private static void scheduleWatchUpdate(final Context context, final ContentValues[] days) {
         try {
-            byteStream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-            return Asset.createFromBytes(byteStream.toByteArray());
-        } finally {
-            if (null != byteStream) {
-                try {
-                    byteStream.close();
-                } catch (IOException e) {
-                    // ignore
+            TaskScheduler.getInstance().submit(TaskScheduler.LANE_SYNC, new Runnable() {
+                @Override
+                public void run() {
+                    notifyWatch(context, days);
                 }
-            }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Too many pending watch updates, skipping this one");
         }
     }
 
+    /**
+     * Notify android wear watchface about today's high and low, give the condition icon as
+     * asset and send the whole forecast as a compact {@link ForecastRecord}.  The actual puts
+     * happen asynchronously on the {@link WearPublisher} thread.
+     * @param context Context used to reach the watch
+     * @param days the values inserted, today first
+     */
+    private static void notifyWatch(Context context, ContentValues[] days) {
+        ForecastRecord.Builder forecast =
+                new ForecastRecord.Builder(days.length, Utility.isMetric(context));
+        for (ContentValues day : days) {
+            forecast.addDay(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        }
+        WearPublisher.getInstance(context).publishForecast(forecast.build());
+
+        ContentValues today = days[0];
+        int weatherId = today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+        Bitmap largeIcon;
+        try {
+            largeIcon = BlockingCallDetector.get(Glide.with(context)
+                    .load(artUrl)
+                    .asBitmap()
+                    .error(artResourceId)
+                    .fitCenter()
+                    .into(WATCH_ICON_SIZE, WATCH_ICON_SIZE), artUrl);
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving watch icon from " + artUrl, e);
+            largeIcon = BitmapFactory.decodeResource(context.getResources(), artResourceId);
+        }
+        WearPublisher.getInstance(context).publishWeather(context, largeIcon,
+                today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+    }
+
     /**
      * Helper method to handle insertion of a new location in the weather database.
      *
@@ -600,44 +503,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+        // Once the location is known to the provider, this is just a map lookup
+        long locationId = LocationIdCache.peek(locationSetting);
+        if (locationId >= 0) {
+            return locationId;
         }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        // Otherwise insert it, or pick up the row that is already there, in one statement
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        Uri upsertedUri = getContext().getContentResolver().insert(
+                WeatherContract.LocationEntry.UPSERT_URI,
+                locationValues
+        );
+
+        // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+        return ContentUris.parseId(upsertedUri);
     }
 
     /**
@@ -732,15 +616,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
+     * Records the location status in the {@link SyncStateStore}.  It is written to the shared
+     * preferences together with the rest of the sync state when the sync finishes.
+     * @param locationSetting The location the status is for
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+    private void setLocationStatus(String locationSetting, @LocationStatus int locationStatus){
+        SyncStateStore.getInstance(getContext()).setLocationStatus(locationSetting, locationStatus);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.task.BlockingCallDetector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory view of the state the sync keeps in the shared preferences: the status of each
+ * location and the time of the last forecast notification and of the last history compaction.
+ *
+ * Changes are only recorded in memory and written out by {@link #flush()} in a single commit, so
+ * a sync costs one disk write no matter how many times its status changes.  The status of the
+ * location changed last is also mirrored under the preference the UI listens to.
+ */
+public class SyncStateStore {
+    private static final String LOCATION_STATUS_PREFIX = "loc-status_";
+    private static final String LAST_COMPACTION_KEY = "history-compacted";
+
+    private static SyncStateStore sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final String mLocationStatusKey;
+    private final String mLastNotificationKey;
+
+    // all guarded by this
+    private final Map<String, Integer> mLocationStatus = new HashMap<>();
+    private final Map<String, Object> mPending = new HashMap<>();
+    private String mCurrentLocation;
+    private long mLastNotification = -1;
+    private long mLastCompaction = -1;
+    private int mWriteCount;
+
+    public static synchronized SyncStateStore getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new SyncStateStore(PreferenceManager.getDefaultSharedPreferences(appContext),
+                    appContext.getString(R.string.pref_location_status_key),
+                    appContext.getString(R.string.pref_last_notification));
+        }
+        return sInstance;
+    }
+
+    SyncStateStore(SharedPreferences prefs, String locationStatusKey, String lastNotificationKey) {
+        mPrefs = prefs;
+        mLocationStatusKey = locationStatusKey;
+        mLastNotificationKey = lastNotificationKey;
+    }
+
+    @SuppressWarnings("ResourceType")
+    public synchronized @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(String locationSetting) {
+        Integer status = mLocationStatus.get(locationSetting);
+        if (status == null) {
+            status = mPrefs.getInt(LOCATION_STATUS_PREFIX + locationSetting,
+                    SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+            mLocationStatus.put(locationSetting, status);
+        }
+        return status;
+    }
+
+    public synchronized void setLocationStatus(String locationSetting,
+                                               @SunshineSyncAdapter.LocationStatus int status) {
+        mLocationStatus.put(locationSetting, status);
+        mPending.put(LOCATION_STATUS_PREFIX + locationSetting, status);
+        mCurrentLocation = locationSetting;
+    }
+
+    public synchronized long getLastNotificationTime() {
+        if (mLastNotification < 0) {
+            mLastNotification = mPrefs.getLong(mLastNotificationKey, 0);
+        }
+        return mLastNotification;
+    }
+
+    public synchronized void setLastNotificationTime(long timeInMillis) {
+        mLastNotification = timeInMillis;
+        mPending.put(mLastNotificationKey, timeInMillis);
+    }
+
+    public synchronized long getLastCompactionTime() {
+        if (mLastCompaction < 0) {
+            mLastCompaction = mPrefs.getLong(LAST_COMPACTION_KEY, 0);
+        }
+        return mLastCompaction;
+    }
+
+    public synchronized void setLastCompactionTime(long timeInMillis) {
+        mLastCompaction = timeInMillis;
+        mPending.put(LAST_COMPACTION_KEY, timeInMillis);
+    }
+
+    /**
+     * Writes all the pending changes in a single synchronous commit.  Does nothing if there are
+     * none.  Must not be called on the main thread.
+     */
+    public void flush() {
+        SharedPreferences.Editor editor = prepareFlush();
+        if (editor != null) {
+            BlockingCallDetector.commit(editor, "sync state");
+        }
+    }
+
+    /**
+     * Like {@link #flush()}, but writes in the background so it is safe on the main thread.
+     */
+    public void flushAsync() {
+        SharedPreferences.Editor editor = prepareFlush();
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    private synchronized SharedPreferences.Editor prepareFlush() {
+        if (mPending.isEmpty()) {
+            return null;
+        }
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (Map.Entry<String, Object> entry : mPending.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else {
+                editor.putLong(entry.getKey(), (Long) value);
+            }
+        }
+        if (mCurrentLocation != null) {
+            editor.putInt(mLocationStatusKey, mLocationStatus.get(mCurrentLocation));
+        }
+        mPending.clear();
+        mWriteCount++;
+        return editor;
+    }
+
+    /**
+     * @return the number of writes to the shared preferences so far
+     */
+    public synchronized int getWriteCount() {
+        return mWriteCount;
+    }
+}
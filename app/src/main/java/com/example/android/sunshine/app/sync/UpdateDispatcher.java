@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.notification.WeatherNotifier;
+import com.example.android.sunshine.app.task.TaskScheduler;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Central place to tell the widgets, Muzei and the weather notification that the weather data
+ * changed.
+ *
+ * Each change bumps a data version and marks the affected consumers dirty.  Consumers are woken
+ * up once the changes have been quiet for {@link #DEBOUNCE_MS} (or at the latest
+ * {@link #MAX_DELAY_MS} after the first one), and each dirty consumer refreshes once for the
+ * newest version, so back-to-back syncs and settings changes cost a single refresh.
+ *
+ * Syncs and pushed deltas, whose process may be killed as soon as they return, bracket their
+ * changes with {@link #beginWork()} and {@link #endWork()}.  The last of them to end waits for the
+ * pending refreshes to go out, so the debounce still coalesces work that overlaps.
+ */
+public class UpdateDispatcher {
+    private static final String LOG_TAG = UpdateDispatcher.class.getSimpleName();
+
+    public static final int CONSUMER_WIDGETS = 1;
+    public static final int CONSUMER_MUZEI = 1 << 1;
+    public static final int CONSUMER_NOTIFICATION = 1 << 2;
+    public static final int CONSUMER_ALL =
+            CONSUMER_WIDGETS | CONSUMER_MUZEI | CONSUMER_NOTIFICATION;
+    private static final int CONSUMER_COUNT = 3;
+
+    static final long DEBOUNCE_MS = 2000;
+    static final long MAX_DELAY_MS = 10000;
+
+    private static final int MSG_DISPATCH = 1;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Something that needs refreshing when the weather data changes.
+     */
+    public interface Consumer {
+        /**
+         * Called on the fan-out lane of the {@link TaskScheduler}, at most once per data version.
+         */
+        void refresh(long dataVersion);
+    }
+
+    private static UpdateDispatcher sInstance;
+
+    private final Handler mHandler;
+    private final Executor mExecutor;
+    private final long mDebounceMs;
+    private final long mMaxDelayMs;
+
+    // all guarded by this
+    private final Consumer[] mConsumers = new Consumer[CONSUMER_COUNT];
+    private final long[] mDirtyVersion = new long[CONSUMER_COUNT];
+    private final long[] mRefreshedVersion = new long[CONSUMER_COUNT];
+    private final int[] mRefreshCount = new int[CONSUMER_COUNT];
+    private long mVersion;
+    private long mFirstPendingAt = -1;
+    private int mChangeCount;
+    private int mActiveWork;
+    private int mRunningRefreshes;
+
+    public static synchronized UpdateDispatcher getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new UpdateDispatcher(thread.getLooper(),
+                    TaskScheduler.getInstance().getExecutor(TaskScheduler.LANE_FANOUT),
+                    DEBOUNCE_MS, MAX_DELAY_MS);
+            sInstance.setConsumer(CONSUMER_WIDGETS, new Consumer() {
+                @Override
+                public void refresh(long dataVersion) {
+                    SunshineSyncAdapter.updateWidgets(appContext);
+                }
+            });
+            sInstance.setConsumer(CONSUMER_MUZEI, new Consumer() {
+                @Override
+                public void refresh(long dataVersion) {
+                    SunshineSyncAdapter.updateMuzei(appContext);
+                }
+            });
+            sInstance.setConsumer(CONSUMER_NOTIFICATION, new Consumer() {
+                @Override
+                public void refresh(long dataVersion) {
+                    WeatherNotifier.getInstance(appContext).notifyForecast();
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a dispatcher refreshing the consumers right on its own looper.
+     */
+    UpdateDispatcher(Looper looper, long debounceMs, long maxDelayMs) {
+        this(looper, DIRECT_EXECUTOR, debounceMs, maxDelayMs);
+    }
+
+    UpdateDispatcher(Looper looper, Executor executor, long debounceMs, long maxDelayMs) {
+        mExecutor = executor;
+        mDebounceMs = debounceMs;
+        mMaxDelayMs = maxDelayMs;
+        mHandler = new Handler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what == MSG_DISPATCH) {
+                    dispatch(mExecutor);
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    synchronized void setConsumer(int consumer, Consumer callback) {
+        mConsumers[indexOf(consumer)] = callback;
+    }
+
+    private static int indexOf(int consumer) {
+        int index = Integer.numberOfTrailingZeros(consumer);
+        if (Integer.bitCount(consumer) != 1 || index >= CONSUMER_COUNT) {
+            throw new IllegalArgumentException("Unknown consumer: " + consumer);
+        }
+        return index;
+    }
+
+    /**
+     * Records that the weather data changed for the given consumers and schedules their refresh.
+     *
+     * @param consumers a combination of the CONSUMER_ flags
+     * @return the new data version
+     */
+    public synchronized long dataChanged(int consumers) {
+        mVersion++;
+        mChangeCount++;
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            if ((consumers & (1 << i)) != 0) {
+                mDirtyVersion[i] = mVersion;
+            }
+        }
+
+        // Push the dispatch back by the debounce window, but never past the max delay
+        long now = SystemClock.uptimeMillis();
+        if (mFirstPendingAt < 0) {
+            mFirstPendingAt = now;
+        }
+        long delay = Math.min(mDebounceMs, mFirstPendingAt + mMaxDelayMs - now);
+        mHandler.removeMessages(MSG_DISPATCH);
+        mHandler.sendEmptyMessageDelayed(MSG_DISPATCH, Math.max(0, delay));
+        return mVersion;
+    }
+
+    /**
+     * Marks the start of work, e.g. a sync, whose process must stay around until the changes it
+     * makes are dispatched.  Must be paired with {@link #endWork()}.
+     */
+    public synchronized void beginWork() {
+        mActiveWork++;
+        // a caller waiting in endWork() can hand the wait over to this one
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of work begun by {@link #beginWork()}.  Unless other work is still running,
+     * and will wait in its turn, this blocks until the pending changes have been dispatched and
+     * the consumers refreshed, or the max delay ran out twice over.
+     */
+    public synchronized void endWork() {
+        mActiveWork--;
+        long deadline = SystemClock.uptimeMillis() + 2 * mMaxDelayMs;
+        while (mActiveWork == 0 && (mFirstPendingAt >= 0 || mRunningRefreshes > 0)) {
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0) {
+                Log.w(LOG_TAG, "Gave up waiting for the consumers to refresh");
+                return;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void dispatch(Executor executor) {
+        Consumer[] toRefresh = new Consumer[CONSUMER_COUNT];
+        long[] versions = new long[CONSUMER_COUNT];
+        long[] previousVersions = new long[CONSUMER_COUNT];
+        synchronized (this) {
+            mFirstPendingAt = -1;
+            for (int i = 0; i < CONSUMER_COUNT; i++) {
+                if (mDirtyVersion[i] > mRefreshedVersion[i] && mConsumers[i] != null) {
+                    toRefresh[i] = mConsumers[i];
+                    versions[i] = mDirtyVersion[i];
+                    previousVersions[i] = mRefreshedVersion[i];
+                    mRefreshedVersion[i] = mDirtyVersion[i];
+                    mRefreshCount[i]++;
+                    mRunningRefreshes++;
+                }
+            }
+            notifyAll();
+        }
+        // Refresh outside the lock so new changes can be recorded meanwhile
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            if (toRefresh[i] != null) {
+                try {
+                    executor.execute(createRefresh(1 << i, toRefresh[i], versions[i]));
+                } catch (RejectedExecutionException e) {
+                    Log.e(LOG_TAG, "Unable to refresh consumer " + (1 << i) + ", retrying", e);
+                    retry(i, versions[i], previousVersions[i]);
+                    refreshDone();
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a refresh that couldn't be queued as not delivered, and tries again after the
+     * debounce window.
+     */
+    private synchronized void retry(int index, long version, long previousVersion) {
+        // unless a later dispatch already delivered a newer version
+        if (mRefreshedVersion[index] == version) {
+            mRefreshedVersion[index] = previousVersion;
+            mRefreshCount[index]--;
+        }
+        if (!mHandler.hasMessages(MSG_DISPATCH)) {
+            if (mFirstPendingAt < 0) {
+                mFirstPendingAt = SystemClock.uptimeMillis();
+            }
+            mHandler.sendEmptyMessageDelayed(MSG_DISPATCH, mDebounceMs);
+        }
+    }
+
+    private Runnable createRefresh(final int consumer, final Consumer callback,
+                                   final long dataVersion) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.refresh(dataVersion);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Error refreshing consumer " + consumer, e);
+                } finally {
+                    refreshDone();
+                }
+            }
+        };
+    }
+
+    private synchronized void refreshDone() {
+        mRunningRefreshes--;
+        notifyAll();
+    }
+
+    public synchronized long getDataVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the number of changes recorded so far
+     */
+    public synchronized int getChangeCount() {
+        return mChangeCount;
+    }
+
+    /**
+     * @return the number of times the consumer has been woken up so far
+     */
+    public synchronized int getRefreshCount(int consumer) {
+        return mRefreshCount[indexOf(consumer)];
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.task;
+
+import android.content.SharedPreferences;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps track of the blocking calls the app makes (provider queries, shared preference commits
+ * and synchronous Glide loads): which thread made them and how long they took.
+ *
+ * Calls made on the main thread that take longer than {@link #getThresholdMillis()} are logged and
+ * remembered.  In strict mode, which the instrumentation tests turn on, such a call throws a
+ * {@link BlockingCallException} instead, so it fails the test that triggered it.
+ *
+ * The detector only runs in debug builds, or once enabled, so release builds don't pay for
+ * timing calls nobody looks at.
+ */
+public class BlockingCallDetector {
+    private static final String LOG_TAG = BlockingCallDetector.class.getSimpleName();
+
+    public static final String KIND_PROVIDER_QUERY = "provider query";
+    public static final String KIND_PREFS_COMMIT = "shared preferences commit";
+    public static final String KIND_IMAGE_GET = "image get";
+
+    /**
+     * One frame: anything longer on the main thread is a visible hitch.
+     */
+    static final long DEFAULT_THRESHOLD_MS = 16;
+    private static final int MAX_VIOLATIONS = 32;
+
+    // all guarded by BlockingCallDetector.class
+    private static boolean sEnabled = BuildConfig.DEBUG;
+    private static long sThresholdMs = DEFAULT_THRESHOLD_MS;
+    private static boolean sStrict;
+    private static final List<Violation> sViolations = new ArrayList<>();
+    private static int sCallCount;
+    private static int sMainThreadCallCount;
+
+    /**
+     * A blocking call made on the main thread that took too long.
+     */
+    public static class Violation {
+        public final String kind;
+        public final String what;
+        public final long durationMs;
+
+        Violation(String kind, String what, long durationMs) {
+            this.kind = kind;
+            this.what = what;
+            this.durationMs = durationMs;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " of " + what + " took " + durationMs + "ms on the main thread";
+        }
+    }
+
+    public static class BlockingCallException extends RuntimeException {
+        BlockingCallException(Violation violation) {
+            super(violation.toString());
+        }
+    }
+
+    private BlockingCallDetector() {
+    }
+
+    public static synchronized void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return whether calls are recorded, so callers know whether to do the extra work of timing
+     * them
+     */
+    public static synchronized boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Enables the detector and makes slow main-thread calls throw instead of only being logged.
+     */
+    public static synchronized void setStrict(boolean strict, long thresholdMs) {
+        sEnabled = true;
+        sStrict = strict;
+        sThresholdMs = thresholdMs;
+    }
+
+    public static synchronized long getThresholdMillis() {
+        return sThresholdMs;
+    }
+
+    /**
+     * @return the time to pass to {@link #end} once the blocking call returns
+     */
+    public static long begin() {
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Records a blocking call that started at {@code startedAt}.
+     *
+     * @throws BlockingCallException in strict mode, if the call was too slow for the main thread
+     */
+    public static void end(String kind, String what, long startedAt) {
+        long durationMs = SystemClock.uptimeMillis() - startedAt;
+        boolean onMainThread = Looper.myLooper() == Looper.getMainLooper();
+        Violation violation = null;
+        boolean strict;
+        synchronized (BlockingCallDetector.class) {
+            if (!sEnabled) {
+                return;
+            }
+            sCallCount++;
+            if (!onMainThread) {
+                return;
+            }
+            sMainThreadCallCount++;
+            if (durationMs <= sThresholdMs) {
+                return;
+            }
+            violation = new Violation(kind, what, durationMs);
+            if (sViolations.size() == MAX_VIOLATIONS) {
+                sViolations.remove(0);
+            }
+            sViolations.add(violation);
+            strict = sStrict;
+        }
+        if (strict) {
+            throw new BlockingCallException(violation);
+        }
+        Log.w(LOG_TAG, violation.toString());
+    }
+
+    /**
+     * Commits the editor, recording the write.
+     */
+    public static boolean commit(SharedPreferences.Editor editor, String what) {
+        long startedAt = begin();
+        try {
+            return editor.commit();
+        } finally {
+            end(KIND_PREFS_COMMIT, what, startedAt);
+        }
+    }
+
+    /**
+     * Waits for a synchronous image load, such as Glide's {@code into(width, height)}, recording
+     * the wait.
+     */
+    public static <T> T get(Future<T> load, String what)
+            throws InterruptedException, ExecutionException {
+        long startedAt = begin();
+        try {
+            return load.get();
+        } finally {
+            end(KIND_IMAGE_GET, what, startedAt);
+        }
+    }
+
+    /**
+     * @return the most recent slow main-thread calls, oldest first
+     */
+    public static synchronized List<Violation> getViolations() {
+        return new ArrayList<>(sViolations);
+    }
+
+    public static synchronized int getCallCount() {
+        return sCallCount;
+    }
+
+    public static synchronized int getMainThreadCallCount() {
+        return sMainThreadCallCount;
+    }
+
+    public static synchronized void reset() {
+        sViolations.clear();
+        sCallCount = 0;
+        sMainThreadCallCount = 0;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.task;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * App-wide pool for background work, with one queue per priority lane.
+ *
+ * Workers always take the oldest task of the most important lane that has room to run.  Each
+ * lane has a bounded queue, and all lanes but {@link #LANE_UI} may only occupy some of the
+ * workers, and together never all of them, so a burst of sync, widget or image work can never
+ * hold up something the user is waiting for.  Tasks are cancelled through the returned
+ * {@link Future}, which also drops them from their queue.
+ *
+ * The work of an IntentService, such as the widget, Muzei and GCM registration updates, stays
+ * on the service's own thread: the service only keeps its process alive until that returns.
+ * Debug builds report the queues of the lanes under the metrics/lanes URI.
+ */
+public class TaskScheduler {
+    private static final String LOG_TAG = TaskScheduler.class.getSimpleName();
+
+    /**
+     * Work the user is waiting for.
+     */
+    public static final int LANE_UI = 0;
+    /**
+     * Follow-up work of a sync.
+     */
+    public static final int LANE_SYNC = 1;
+    /**
+     * Pushing new data out to the widgets, Muzei and notifications.
+     */
+    public static final int LANE_FANOUT = 2;
+    /**
+     * Speculative loads, such as images that may be shown later.
+     */
+    public static final int LANE_PREFETCH = 3;
+    public static final int LANE_COUNT = 4;
+
+    private static final int[] QUEUE_CAPACITY = {16, 8, 32, 64};
+    private static final int[] MAX_RUNNING = {Integer.MAX_VALUE, 1, 2, 2};
+    private static final int[] THREAD_PRIORITY = {
+            Process.THREAD_PRIORITY_DEFAULT,
+            Process.THREAD_PRIORITY_BACKGROUND,
+            Process.THREAD_PRIORITY_BACKGROUND,
+            Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE
+    };
+
+    static final int WORKER_COUNT = 3;
+
+    private static TaskScheduler sInstance;
+
+    // the tasks of all the lanes but LANE_UI that may run at once, leaving a worker for it
+    private final int mMaxBackgroundRunning;
+
+    // all guarded by this
+    private final List<ArrayDeque<Task<?>>> mQueues = new ArrayList<>(LANE_COUNT);
+    private final int[] mRunning = new int[LANE_COUNT];
+    private int mBackgroundRunning = 0;
+    private final int[] mMaxQueueDepth = new int[LANE_COUNT];
+    private final int[] mCompleted = new int[LANE_COUNT];
+    private final int[] mRejected = new int[LANE_COUNT];
+    private final long[] mTotalWaitMs = new long[LANE_COUNT];
+    private final long[] mMaxWaitMs = new long[LANE_COUNT];
+
+    public static synchronized TaskScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TaskScheduler(WORKER_COUNT);
+        }
+        return sInstance;
+    }
+
+    TaskScheduler(int workerCount) {
+        mMaxBackgroundRunning = Math.max(1, workerCount - 1);
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mQueues.add(new ArrayDeque<Task<?>>(QUEUE_CAPACITY[i]));
+        }
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runTasks();
+                }
+            }, LOG_TAG + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private class Task<T> extends FutureTask<T> {
+        final int mLane;
+        final long mEnqueuedAt = SystemClock.uptimeMillis();
+
+        Task(int lane, Callable<T> callable) {
+            super(callable);
+            mLane = lane;
+        }
+
+        Task(int lane, Runnable runnable) {
+            super(runnable, null);
+            mLane = lane;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                dequeue(this);
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Queues a task on a lane.
+     *
+     * @throws RejectedExecutionException if the lane's queue is full
+     */
+    public <T> Future<T> submit(int lane, Callable<T> callable) {
+        return enqueue(new Task<>(lane, callable));
+    }
+
+    /**
+     * Queues a task on a lane.
+     *
+     * @throws RejectedExecutionException if the lane's queue is full
+     */
+    public Future<?> submit(int lane, Runnable runnable) {
+        return enqueue(new Task<Void>(lane, runnable));
+    }
+
+    /**
+     * @return an executor queueing its tasks on the given lane
+     */
+    public Executor getExecutor(final int lane) {
+        checkLane(lane);
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submit(lane, command);
+            }
+        };
+    }
+
+    private static void checkLane(int lane) {
+        if (lane < 0 || lane >= LANE_COUNT) {
+            throw new IllegalArgumentException("Unknown lane: " + lane);
+        }
+    }
+
+    private synchronized <T> Task<T> enqueue(Task<T> task) {
+        checkLane(task.mLane);
+        ArrayDeque<Task<?>> queue = mQueues.get(task.mLane);
+        if (queue.size() >= QUEUE_CAPACITY[task.mLane]) {
+            mRejected[task.mLane]++;
+            throw new RejectedExecutionException("Lane " + task.mLane + " is full");
+        }
+        queue.addLast(task);
+        mMaxQueueDepth[task.mLane] = Math.max(mMaxQueueDepth[task.mLane], queue.size());
+        notifyAll();
+        return task;
+    }
+
+    private synchronized void dequeue(Task<?> task) {
+        mQueues.get(task.mLane).remove(task);
+    }
+
+    private synchronized Task<?> takeTask() throws InterruptedException {
+        while (true) {
+            for (int lane = 0; lane < LANE_COUNT; lane++) {
+                ArrayDeque<Task<?>> queue = mQueues.get(lane);
+                if (lane != LANE_UI && mBackgroundRunning >= mMaxBackgroundRunning) {
+                    break;
+                }
+                if (!queue.isEmpty() && mRunning[lane] < MAX_RUNNING[lane]) {
+                    Task<?> task = queue.removeFirst();
+                    long waitMs = SystemClock.uptimeMillis() - task.mEnqueuedAt;
+                    mTotalWaitMs[lane] += waitMs;
+                    mMaxWaitMs[lane] = Math.max(mMaxWaitMs[lane], waitMs);
+                    mRunning[lane]++;
+                    if (lane != LANE_UI) {
+                        mBackgroundRunning++;
+                    }
+                    return task;
+                }
+            }
+            wait();
+        }
+    }
+
+    private synchronized void finishTask(Task<?> task) {
+        mRunning[task.mLane]--;
+        if (task.mLane != LANE_UI) {
+            mBackgroundRunning--;
+        }
+        mCompleted[task.mLane]++;
+        notifyAll();
+    }
+
+    private void runTasks() {
+        while (true) {
+            Task<?> task;
+            try {
+                task = takeTask();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Process.setThreadPriority(THREAD_PRIORITY[task.mLane]);
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Error running a task on lane " + task.mLane, e);
+            } finally {
+                // clear an interrupt left over from cancelling the task
+                Thread.interrupted();
+                finishTask(task);
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting on the lane
+     */
+    public synchronized int getQueueDepth(int lane) {
+        return mQueues.get(lane).size();
+    }
+
+    /**
+     * @return the most tasks ever waiting on the lane at once
+     */
+    public synchronized int getMaxQueueDepth(int lane) {
+        return mMaxQueueDepth[lane];
+    }
+
+    /**
+     * @return the average time the started tasks of the lane waited in its queue
+     */
+    public synchronized long getAverageWaitMillis(int lane) {
+        int started = mCompleted[lane] + mRunning[lane];
+        return started == 0 ? 0 : mTotalWaitMs[lane] / started;
+    }
+
+    public synchronized long getMaxWaitMillis(int lane) {
+        return mMaxWaitMs[lane];
+    }
+
+    public synchronized int getCompletedCount(int lane) {
+        return mCompleted[lane];
+    }
+
+    public synchronized int getRejectedCount(int lane) {
+        return mRejected[lane];
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.text.format.Time;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder for the compact multi-day forecast record sent to the watch face.  The watch face has a
+ * matching decoder (ForecastRecord in the wear module); both must agree on this layout, all
+ * values big-endian:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     1  version ({@link #VERSION})
+ *      1     1  reserved, 0
+ *      2     1  number of days (n)
+ *      3     1  reserved, 0
+ *      4     4  epoch day (days since 1970-01-01) of the local date of the first entry
+ *  8 + 6*i   2  day offset from the first entry
+ * 10 + 6*i   2  max temperature, tenths of a degree in the units the user picked
+ * 12 + 6*i   2  min temperature, tenths of a degree in the units the user picked
+ * </pre>
+ *
+ * A full 14 day forecast is 92 bytes.  Version 1 also had the units and the condition of each
+ * day, which the watch face never showed.
+ */
+public class ForecastRecord {
+    public static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 8;
+    static final int DAY_SIZE = 6;
+    static final int MAX_DAYS = 255;
+
+    /**
+     * Builds a record one day at a time, in ascending date order.
+     */
+    public static class Builder {
+        private final boolean mMetric;
+        private final ByteBuffer mDays;
+        private long mFirstEpochDay;
+        private int mCount = 0;
+
+        /**
+         * @param maxDays the most days that will be added
+         * @param isMetric true to encode Celsius, false to convert to Fahrenheit
+         */
+        public Builder(int maxDays, boolean isMetric) {
+            mMetric = isMetric;
+            mDays = ByteBuffer.allocate(Math.min(maxDays, MAX_DAYS) * DAY_SIZE);
+        }
+
+        /**
+         * @param dateInMillis the normalized (local midnight) date of the day
+         * @param high max temp, in Celsius
+         * @param low min temp, in Celsius
+         */
+        public Builder addDay(long dateInMillis, double high, double low) {
+            if (!mDays.hasRemaining()) {
+                return this;
+            }
+            long epochDay = getEpochDay(dateInMillis);
+            if (mCount == 0) {
+                mFirstEpochDay = epochDay;
+            }
+            mDays.putShort((short) (epochDay - mFirstEpochDay));
+            mDays.putShort(toTenths(high));
+            mDays.putShort(toTenths(low));
+            mCount++;
+            return this;
+        }
+
+        public int getDayCount() {
+            return mCount;
+        }
+
+        public byte[] build() {
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + mCount * DAY_SIZE);
+            record.put((byte) VERSION);
+            record.put((byte) 0);
+            record.put((byte) mCount);
+            record.put((byte) 0);
+            record.putInt((int) mFirstEpochDay);
+            record.put(mDays.array(), 0, mCount * DAY_SIZE);
+            return record.array();
+        }
+
+        private short toTenths(double celsius) {
+            double degrees = mMetric ? celsius : (celsius * 1.8) + 32;
+            return (short) Math.round(degrees * 10);
+        }
+    }
+
+    /**
+     * @return the local calendar day of a date as days since 1970-01-01, which is what the watch
+     * face counts its own today in.  Dividing the millis by a day would give the UTC day, one
+     * early for the local midnights east of UTC.
+     */
+    static long getEpochDay(long dateInMillis) {
+        Time time = new Time();
+        time.set(dateInMillis);
+        return Time.getJulianDay(dateInMillis, time.gmtoff) - Time.EPOCH_JULIAN_DAY;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WearDataLayer} backed by a single, long-lived {@link GoogleApiClient}.  The client is
+ * connected lazily and never disconnected, so consecutive syncs reuse the same connection.
+ */
+class GmsWearDataLayer implements WearDataLayer {
+    private static final String LOG_TAG = GmsWearDataLayer.class.getSimpleName();
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    GmsWearDataLayer(Context context) {
+        // Request access only to the Wearable API
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mGoogleApiClient.isConnected();
+    }
+
+    @Override
+    public boolean connect(long timeoutMs) {
+        ConnectionResult result = mGoogleApiClient.blockingConnect(timeoutMs, TimeUnit.MILLISECONDS);
+        if (!result.isSuccess()) {
+            Log.d(LOG_TAG, "Connection failed: " + result);
+        }
+        return result.isSuccess();
+    }
+
+    @Override
+    public boolean putDataItem(PutDataRequest request, long timeoutMs) {
+        DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                .await(timeoutMs, TimeUnit.MILLISECONDS);
+        if (!result.getStatus().isSuccess()) {
+            Log.d(LOG_TAG, "Put " + request.getUri() + " failed: " + result.getStatus());
+        }
+        return result.getStatus().isSuccess();
+    }
+}
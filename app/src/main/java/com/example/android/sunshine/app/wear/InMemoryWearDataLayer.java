@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.os.SystemClock;
+
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local stand-in for the Wearable Data Layer.  It keeps the newest item per path in memory and
+ * can simulate connection failures, failed puts and per-put latency, so that the publisher can
+ * be exercised without a paired watch.
+ */
+public class InMemoryWearDataLayer implements WearDataLayer {
+    private final Map<String, PutDataRequest> mItems = new HashMap<>();
+    private boolean mConnectable = true;
+    private boolean mConnected = false;
+    private long mPutLatencyMs = 0;
+    private int mFailNextPuts = 0;
+    private int mConnectCount = 0;
+    private int mPutCount = 0;
+
+    public synchronized void setConnectable(boolean connectable) {
+        mConnectable = connectable;
+        if (!connectable) {
+            mConnected = false;
+        }
+    }
+
+    public synchronized void setPutLatencyMs(long putLatencyMs) {
+        mPutLatencyMs = putLatencyMs;
+    }
+
+    public synchronized void failNextPuts(int count) {
+        mFailNextPuts = count;
+    }
+
+    public synchronized int getConnectCount() {
+        return mConnectCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    /**
+     * @param path the data item path, e.g. "/weather"
+     * @return the newest DataMap stored at path, or null if nothing was put there
+     */
+    public synchronized DataMap getDataMap(String path) {
+        PutDataRequest request = mItems.get(path);
+        return request == null ? null : DataMap.fromByteArray(request.getData());
+    }
+
+    /**
+     * @param path the data item path, e.g. "/weather"
+     * @return the number of assets of the newest item stored at path
+     */
+    public synchronized int getAssetCount(String path) {
+        PutDataRequest request = mItems.get(path);
+        return request == null ? 0 : request.getAssets().size();
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public synchronized boolean connect(long timeoutMs) {
+        mConnectCount++;
+        mConnected = mConnectable;
+        return mConnected;
+    }
+
+    @Override
+    public boolean putDataItem(PutDataRequest request, long timeoutMs) {
+        long latencyMs;
+        synchronized (this) {
+            latencyMs = mPutLatencyMs;
+        }
+        if (latencyMs > 0) {
+            SystemClock.sleep(latencyMs);
+        }
+        synchronized (this) {
+            if (!mConnected) {
+                return false;
+            }
+            if (mFailNextPuts > 0) {
+                mFailNextPuts--;
+                return false;
+            }
+            mItems.put(request.getUri().getPath(), request);
+            mPutCount++;
+            return true;
+        }
+    }
+}
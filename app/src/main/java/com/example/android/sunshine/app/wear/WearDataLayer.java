@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import com.google.android.gms.wearable.PutDataRequest;
+
+/**
+ * The small slice of the Wearable Data Layer that {@link WearPublisher} needs.  All methods are
+ * called from the publisher's worker thread, so implementations are free to block.
+ */
+public interface WearDataLayer {
+
+    /**
+     * @return true if the data layer is currently connected and items can be put.
+     */
+    boolean isConnected();
+
+    /**
+     * Blocks until the data layer is connected or the timeout expires.
+     *
+     * @param timeoutMs the maximum time to wait, in milliseconds
+     * @return true if the data layer is connected
+     */
+    boolean connect(long timeoutMs);
+
+    /**
+     * Blocks until the data item has been handed to the data layer or the timeout expires.
+     *
+     * @param request the data item to put
+     * @param timeoutMs the maximum time to wait, in milliseconds
+     * @return true if the item was accepted
+     */
+    boolean putDataItem(PutDataRequest request, long timeoutMs);
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Publishes data items to the Android Wear watch face without blocking the caller.
+ *
+ * Items are queued per path and only the newest item for a path is ever sent, so a burst of
+ * updates (e.g. a sync followed by a units change) costs a single put.  The newest item keeps
+ * the assets of the item it replaces that it doesn't set itself, such as the weather icon.  A
+ * dedicated worker thread keeps one data layer connection open for the life of the process and
+ * retries with exponential backoff when the connection or a put fails.
+ */
+public class WearPublisher {
+    private static final String LOG_TAG = WearPublisher.class.getSimpleName();
+
+    public static final String WEATHER_PATH = "/weather";
+    public static final String KEY_ICON = "icon";
+    public static final String KEY_MIN = "min";
+    public static final String KEY_MAX = "max";
+    public static final String FORECAST_PATH = "/forecast";
+    public static final String KEY_FORECAST = "forecast";
+
+    static final long CONNECT_TIMEOUT_MS = 30 * 1000;
+    static final long PUT_TIMEOUT_MS = 30 * 1000;
+    static final long MIN_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+    private static final int MSG_DRAIN = 0;
+
+    private static WearPublisher sInstance;
+
+    private final WearDataLayer mDataLayer;
+    private final long mMinBackoffMs;
+    private final Handler mHandler;
+
+    // Guarded by itself.  Keyed by data item path; insertion order is the send order.
+    private final LinkedHashMap<String, PendingItem> mPending = new LinkedHashMap<>();
+
+    // Only touched from the worker thread.
+    private long mBackoffMs = 0;
+
+    // Counters, guarded by this.
+    private int mPublishedCount = 0;
+    private int mCoalescedCount = 0;
+    private int mFailureCount = 0;
+    private long mTotalLatencyMs = 0;
+    private long mMaxLatencyMs = 0;
+
+    private static class PendingItem {
+        final PutDataMapRequest request;
+        final long enqueuedAt;
+
+        PendingItem(PutDataMapRequest request, long enqueuedAt) {
+            this.request = request;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * @param context Context used to build the data layer connection on first use
+     * @return the process-wide publisher
+     */
+    public static synchronized WearPublisher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearPublisher(
+                    new GmsWearDataLayer(context.getApplicationContext()), MIN_BACKOFF_MS);
+        }
+        return sInstance;
+    }
+
+    WearPublisher(WearDataLayer dataLayer, long minBackoffMs) {
+        mDataLayer = dataLayer;
+        mMinBackoffMs = minBackoffMs;
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what == MSG_DRAIN) {
+                    drain();
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Queues a data item for the watch.  Returns immediately; any item still waiting for the same
+     * path is replaced, handing over the assets the new item doesn't set.
+     *
+     * @param request the data item to publish
+     */
+    public void publish(PutDataMapRequest request) {
+        String path = request.getUri().getPath();
+        synchronized (mPending) {
+            PendingItem replaced = mPending.remove(path);
+            if (replaced != null) {
+                DataMap previous = replaced.request.getDataMap();
+                DataMap current = request.getDataMap();
+                for (String key : previous.keySet()) {
+                    Object value = previous.get(key);
+                    if (value instanceof Asset && !current.containsKey(key)) {
+                        current.putAsset(key, (Asset) value);
+                    }
+                }
+                synchronized (this) {
+                    mCoalescedCount++;
+                }
+            }
+            mPending.put(path, new PendingItem(request, SystemClock.elapsedRealtime()));
+        }
+        // If a retry is already scheduled we let the backoff run its course.
+        if (!mHandler.hasMessages(MSG_DRAIN)) {
+            mHandler.sendEmptyMessage(MSG_DRAIN);
+        }
+    }
+
+    /**
+     * Queues today's high, low and condition icon for the watch face.
+     *
+     * @param context Context used to read the units preference
+     * @param icon the condition icon, or null to keep the icon the watch already has
+     * @param high max temp, in Celsius
+     * @param low min temp, in Celsius
+     */
+    public void publishWeather(Context context, Bitmap icon, double high, double low) {
+        boolean isMetric = Utility.isMetric(context);
+        PutDataMapRequest request = PutDataMapRequest.create(WEATHER_PATH);
+        request.getDataMap().putDouble(KEY_MAX, isMetric ? high : (high * 1.8) + 32);
+        request.getDataMap().putDouble(KEY_MIN, isMetric ? low : (low * 1.8) + 32);
+        if (icon != null) {
+            request.getDataMap().putAsset(KEY_ICON, toAsset(icon));
+        }
+        request.setUrgent();
+        publish(request);
+    }
+
+    /**
+     * Queues the multi-day forecast for the watch face.
+     *
+     * @param record a record built with {@link ForecastRecord.Builder}
+     */
+    public void publishForecast(byte[] record) {
+        PutDataMapRequest request = PutDataMapRequest.create(FORECAST_PATH);
+        request.getDataMap().putByteArray(KEY_FORECAST, record);
+        // Not urgent: the watch only needs it when the user taps through the coming days, so
+        // it can ride along with the next batch the system sends.
+        publish(request);
+    }
+
+    public synchronized int getPublishedCount() {
+        return mPublishedCount;
+    }
+
+    public synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * @return the mean time from {@link #publish} to a successful put, in milliseconds
+     */
+    public synchronized long getAverageLatencyMs() {
+        return mPublishedCount == 0 ? 0 : mTotalLatencyMs / mPublishedCount;
+    }
+
+    public synchronized long getMaxLatencyMs() {
+        return mMaxLatencyMs;
+    }
+
+    /**
+     * Sends everything that is queued, oldest path first.  Runs on the worker thread only.
+     */
+    private void drain() {
+        if (!mDataLayer.isConnected() && !mDataLayer.connect(CONNECT_TIMEOUT_MS)) {
+            scheduleRetry();
+            return;
+        }
+        while (true) {
+            PendingItem item;
+            synchronized (mPending) {
+                Iterator<PendingItem> iterator = mPending.values().iterator();
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                item = iterator.next();
+                iterator.remove();
+            }
+            if (mDataLayer.putDataItem(item.request.asPutDataRequest(), PUT_TIMEOUT_MS)) {
+                long latencyMs = SystemClock.elapsedRealtime() - item.enqueuedAt;
+                synchronized (this) {
+                    mPublishedCount++;
+                    mTotalLatencyMs += latencyMs;
+                    mMaxLatencyMs = Math.max(mMaxLatencyMs, latencyMs);
+                }
+            } else {
+                String path = item.request.getUri().getPath();
+                synchronized (mPending) {
+                    // Put it back unless something newer arrived for the same path meanwhile.
+                    if (!mPending.containsKey(path)) {
+                        mPending.put(path, item);
+                    }
+                }
+                scheduleRetry();
+                return;
+            }
+        }
+        mBackoffMs = 0;
+    }
+
+    private void scheduleRetry() {
+        synchronized (this) {
+            mFailureCount++;
+        }
+        mBackoffMs = mBackoffMs == 0 ? mMinBackoffMs : Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+        Log.d(LOG_TAG, "Data layer unavailable, retrying in " + mBackoffMs + "ms");
+        mHandler.removeMessages(MSG_DRAIN);
+        mHandler.sendEmptyMessageDelayed(MSG_DRAIN, mBackoffMs);
+    }
+
+    /**
+     * Turn the bitmap to an Asset so we can send it to watch
+     * @param bitmap the image
+     * @return the Asset made from bitmap
+     */
+    private static Asset toAsset(Bitmap bitmap) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        return Asset.createFromBytes(byteStream.toByteArray());
+    }
+}
@@ -12,14 +12,11 @@ import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
-
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
  */
@@ -45,24 +42,54 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
+            // the forecast comes from the snapshot when there is one, or else from the query
+            private ForecastSnapshot snapshot = null;
             private Cursor data = null;
+            private WidgetArtCache artCache;
+            private boolean useRemoteArt;
+            // bytes of art attached to the rows served since the last refresh
+            private long artBytesSent;
+            private int rowsSent;
 
             @Override
             public void onCreate() {
-                // Nothing to do
+                artCache = new WidgetArtCache(DetailWidgetRemoteViewsService.this,
+                        getResources().getDimensionPixelSize(R.dimen.list_icon));
             }
 
             @Override
             public void onDataSetChanged() {
+                logBytesSent();
                 if (data != null) {
                     data.close();
+                    data = null;
+                }
+                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
+                snapshot = ForecastSnapshot.read(DetailWidgetRemoteViewsService.this, location);
+                if (snapshot == null) {
+                    queryForecast(location);
+                }
+
+                // Load the art for every row now, at icon size, so getViewAt never blocks on it
+                useRemoteArt = !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this);
+                int count = getCount();
+                if (useRemoteArt && count > 0) {
+                    int[] weatherIds = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        weatherIds[i] = getWeatherId(i);
+                    }
+                    artCache.prefetch(weatherIds);
+                } else {
+                    artCache.clear();
                 }
+            }
+
+            private void queryForecast(String location) {
                 // This method is called by the app hosting the widget (e.g., the launcher)
                 // However, our ContentProvider is not exported so it doesn't have access to the
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherForLocationUri = WeatherContract.WeatherEntry
                         .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
                 data = getContentResolver().query(weatherForLocationUri,
@@ -73,8 +100,28 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 Binder.restoreCallingIdentity(identityToken);
             }
 
+            private int getWeatherId(int position) {
+                if (snapshot != null) {
+                    return snapshot.getWeatherId(position);
+                }
+                data.moveToPosition(position);
+                return data.getInt(INDEX_WEATHER_CONDITION_ID);
+            }
+
+            private void logBytesSent() {
+                if (rowsSent > 0) {
+                    Log.d(LOG_TAG, "Sent " + artBytesSent + " bytes of art in " + rowsSent
+                            + " rows since the last refresh");
+                }
+                artBytesSent = 0;
+                rowsSent = 0;
+            }
+
             @Override
             public void onDestroy() {
+                logBytesSent();
+                artCache.clear();
+                snapshot = null;
                 if (data != null) {
                     data.close();
                     data = null;
@@ -83,45 +130,50 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public int getCount() {
+                if (snapshot != null) {
+                    return snapshot.getCount();
+                }
                 return data == null ? 0 : data.getCount();
             }
 
             @Override
             public RemoteViews getViewAt(int position) {
-                if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
+                if (position == AdapterView.INVALID_POSITION || position >= getCount()) {
+                    return null;
+                }
+                int weatherId;
+                String description;
+                long dateInMillis;
+                double maxTemp;
+                double minTemp;
+                if (snapshot != null) {
+                    weatherId = snapshot.getWeatherId(position);
+                    description = snapshot.getShortDesc(position);
+                    dateInMillis = snapshot.getDate(position);
+                    maxTemp = snapshot.getMaxTemp(position);
+                    minTemp = snapshot.getMinTemp(position);
+                } else if (data.moveToPosition(position)) {
+                    weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+                    description = data.getString(INDEX_WEATHER_DESC);
+                    dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+                    maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
+                    minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
+                } else {
                     return null;
                 }
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
                 int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
-                }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+                Bitmap weatherArtImage = useRemoteArt ? artCache.get(weatherId) : null;
                 String formattedDate = Utility.getFriendlyDayString(
                         DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
                 String formattedMaxTemperature =
                         Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
                 String formattedMinTemperature =
                         Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp);
                 if (weatherArtImage != null) {
                     views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
+                    artBytesSent += WidgetArtCache.getByteCount(weatherArtImage);
                 } else {
                     views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
                 }
@@ -141,6 +193,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         dateInMillis);
                 fillInIntent.setData(weatherUri);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
+                rowsSent++;
                 return views;
             }
 
@@ -161,7 +214,10 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
+                // the snapshot has no row ids, but a day is unique for the location
+                if (snapshot != null && position < snapshot.getCount())
+                    return snapshot.getDate(position);
+                if (data != null && data.moveToPosition(position))
                     return data.getLong(INDEX_WEATHER_ID);
                 return position;
             }
@@ -17,7 +17,6 @@ package com.example.android.sunshine.app.widget;
 
 import android.annotation.TargetApi;
 import android.app.IntentService;
-import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.Intent;
@@ -29,9 +28,9 @@ import android.util.DisplayMetrics;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
@@ -57,68 +56,60 @@ public class TodayWidgetIntentService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         // Retrieve all of the Today widget ids: these are the widgets we need to update
-        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
+        final AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
+        // Get today's data from the snapshot the sync wrote, or else from the ContentProvider
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
+        int weatherId;
+        String description;
+        double maxTemp;
+        double minTemp;
+        ForecastSnapshot snapshot = ForecastSnapshot.read(this, location);
+        if (snapshot != null) {
+            weatherId = snapshot.getWeatherId(0);
+            description = snapshot.getShortDesc(0);
+            maxTemp = snapshot.getMaxTemp(0);
+            minTemp = snapshot.getMinTemp(0);
+        } else {
+            Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                    .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+            Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS,
+                    null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            if (data == null) {
+                return;
+            }
+            if (!data.moveToFirst()) {
+                data.close();
+                return;
+            }
+
+            // Extract the weather data from the Cursor
+            weatherId = data.getInt(INDEX_WEATHER_ID);
+            description = data.getString(INDEX_SHORT_DESC);
+            maxTemp = data.getDouble(INDEX_MAX_TEMP);
+            minTemp = data.getDouble(INDEX_MIN_TEMP);
             data.close();
-            return;
         }
-
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
         int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
         String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
         String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
 
-        // Perform this loop procedure for each Today widget
-        for (int appWidgetId : appWidgetIds) {
-            // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
-            int layoutId;
-            if (widgetWidth >= largeWidth) {
-                layoutId = R.layout.widget_today_large;
-            } else if (widgetWidth >= defaultWidth) {
-                layoutId = R.layout.widget_today;
-            } else {
-                layoutId = R.layout.widget_today_small;
+        // Build each distinct layout once and push it to the widgets that need it
+        TodayWidgetRenderer.getInstance(this).render(new TodayWidgetRenderer.Host() {
+            @Override
+            public int getWidgetWidth(int appWidgetId) {
+                return TodayWidgetIntentService.this.getWidgetWidth(appWidgetManager, appWidgetId);
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
 
-            // Add the data to the RemoteViews
-            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
-            // Content Descriptions for RemoteViews were only added in ICS MR1
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                setRemoteContentDescription(views, description);
+            @Override
+            public void updateAppWidget(int appWidgetId, RemoteViews views) {
+                // Tell the AppWidgetManager to perform an update on the current app widget
+                appWidgetManager.updateAppWidget(appWidgetId, views);
             }
-            views.setTextViewText(R.id.widget_description, description);
-            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
-
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
-            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
-
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
-        }
+        }, appWidgetIds, weatherArtResourceId, description, formattedMaxTemperature,
+                formattedMinTemperature);
     }
 
     private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
@@ -143,9 +134,4 @@ public class TodayWidgetIntentService extends IntentService {
         }
         return  getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
     }
-
-    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
-    private void setRemoteContentDescription(RemoteViews views, String description) {
-        views.setContentDescription(R.id.widget_icon, description);
-    }
 }
@@ -43,6 +43,11 @@ public class TodayWidgetProvider extends AppWidgetProvider {
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        TodayWidgetRenderer.getInstance(context).forget(appWidgetIds);
+    }
+
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
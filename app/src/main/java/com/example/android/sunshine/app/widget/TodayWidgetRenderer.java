@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.annotation.TargetApi;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.os.Build;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.widget.RemoteViews;
+
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+
+import java.util.Arrays;
+
+/**
+ * Builds the RemoteViews for the Today widgets and fans them out to every widget id.
+ *
+ * Widgets are grouped into layout buckets (small, default, large) by width, and each bucket's
+ * RemoteViews is built once per version of the data rather than once per widget.  The renderer
+ * also remembers what it last pushed to each widget, so a widget whose layout and content are
+ * unchanged is not updated again.
+ */
+public class TodayWidgetRenderer {
+    /**
+     * The part of the widget host the renderer talks to, so it can be driven without real
+     * widgets.
+     */
+    public interface Host {
+        /**
+         * @return the current width of the widget, in pixels
+         */
+        int getWidgetWidth(int appWidgetId);
+
+        void updateAppWidget(int appWidgetId, RemoteViews views);
+    }
+
+    private static TodayWidgetRenderer sInstance;
+
+    private final Context mContext;
+    private final int mDefaultWidth;
+    private final int mLargeWidth;
+    private PendingIntent mLaunchIntent;
+
+    // layout id -> views built for mContentHash
+    private final SparseArray<RemoteViews> mViews = new SparseArray<>();
+    private int mContentHash;
+    // widget id -> hash of the layout and content last pushed to it
+    private final SparseIntArray mPushed = new SparseIntArray();
+
+    private int mBuildCount;
+    private int mUpdateCount;
+    private int mSkippedCount;
+
+    public static synchronized TodayWidgetRenderer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TodayWidgetRenderer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    TodayWidgetRenderer(Context context) {
+        mContext = context;
+        Resources resources = context.getResources();
+        mDefaultWidth = resources.getDimensionPixelSize(R.dimen.widget_today_default_width);
+        mLargeWidth = resources.getDimensionPixelSize(R.dimen.widget_today_large_width);
+    }
+
+    /**
+     * Pushes today's weather to each of the given widgets whose layout or content changed since
+     * the last push.
+     *
+     * @return the number of widgets updated
+     */
+    public synchronized int render(Host host, int[] appWidgetIds, int weatherArtResourceId,
+                                   String description, String formattedMaxTemperature,
+                                   String formattedMinTemperature) {
+        int contentHash = Arrays.hashCode(new Object[]{weatherArtResourceId, description,
+                formattedMaxTemperature, formattedMinTemperature});
+        if (contentHash != mContentHash) {
+            mContentHash = contentHash;
+            mViews.clear();
+        }
+
+        int updated = 0;
+        for (int appWidgetId : appWidgetIds) {
+            int layoutId = getLayoutForWidth(host.getWidgetWidth(appWidgetId));
+            int pushedHash = 31 * contentHash + layoutId;
+            if (mPushed.indexOfKey(appWidgetId) >= 0 && mPushed.get(appWidgetId) == pushedHash) {
+                mSkippedCount++;
+                continue;
+            }
+
+            RemoteViews views = mViews.get(layoutId);
+            if (views == null) {
+                views = buildViews(layoutId, weatherArtResourceId, description,
+                        formattedMaxTemperature, formattedMinTemperature);
+                mViews.put(layoutId, views);
+            }
+            host.updateAppWidget(appWidgetId, views);
+            mPushed.put(appWidgetId, pushedHash);
+            updated++;
+        }
+        mUpdateCount += updated;
+        return updated;
+    }
+
+    /**
+     * Drops what was last pushed to the given widgets, e.g. when they are deleted.
+     */
+    public synchronized void forget(int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds) {
+            mPushed.delete(appWidgetId);
+        }
+    }
+
+    private int getLayoutForWidth(int widgetWidth) {
+        if (widgetWidth >= mLargeWidth) {
+            return R.layout.widget_today_large;
+        } else if (widgetWidth >= mDefaultWidth) {
+            return R.layout.widget_today;
+        } else {
+            return R.layout.widget_today_small;
+        }
+    }
+
+    private RemoteViews buildViews(int layoutId, int weatherArtResourceId, String description,
+                                   String formattedMaxTemperature, String formattedMinTemperature) {
+        mBuildCount++;
+        RemoteViews views = new RemoteViews(mContext.getPackageName(), layoutId);
+
+        // Add the data to the RemoteViews
+        views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+        // Content Descriptions for RemoteViews were only added in ICS MR1
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            setRemoteContentDescription(views, description);
+        }
+        views.setTextViewText(R.id.widget_description, description);
+        views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
+        views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+
+        // Create an Intent to launch MainActivity; the same one serves every widget
+        if (mLaunchIntent == null) {
+            Intent launchIntent = new Intent(mContext, MainActivity.class);
+            mLaunchIntent = PendingIntent.getActivity(mContext, 0, launchIntent, 0);
+        }
+        views.setOnClickPendingIntent(R.id.widget, mLaunchIntent);
+        return views;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+    private void setRemoteContentDescription(RemoteViews views, String description) {
+        views.setContentDescription(R.id.widget_icon, description);
+    }
+
+    /**
+     * @return the number of RemoteViews built so far
+     */
+    public synchronized int getBuildCount() {
+        return mBuildCount;
+    }
+
+    /**
+     * @return the number of widget updates pushed so far
+     */
+    public synchronized int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * @return the number of widget updates skipped because nothing had changed
+     */
+    public synchronized int getSkippedCount() {
+        return mSkippedCount;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.task.BlockingCallDetector;
+import com.example.android.sunshine.app.task.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Remote weather art for widget rows, decoded once per condition at the size of the row's icon.
+ *
+ * Widget rows cross the binder with their bitmaps, so the art is scaled down to the icon's size
+ * up front instead of being sent at its original size.  {@link #prefetch} loads every missing
+ * condition in parallel, and {@link #get} then only reads from memory.  Only the art of the
+ * conditions of the last prefetch is kept, so the art of a pack no longer selected, or of
+ * conditions no longer shown, is dropped.
+ */
+class WidgetArtCache {
+    private static final String LOG_TAG = WidgetArtCache.class.getSimpleName();
+
+    private static final long PREFETCH_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Context mContext;
+    private final int mSizePx;
+
+    // art url -> bitmap, so conditions sharing the same art share one decode
+    private final Map<String, Bitmap> mArtByUrl = new HashMap<>();
+    // weather id -> art url, for the weather ids of the last prefetch
+    private final SparseArray<String> mUrlByWeatherId = new SparseArray<>();
+
+    WidgetArtCache(Context context, int sizePx) {
+        mContext = context.getApplicationContext();
+        mSizePx = sizePx;
+    }
+
+    /**
+     * Loads the art for each of the given conditions that is not cached yet, blocking until all
+     * of them are loaded or failed, and drops the art of any other condition.
+     */
+    void prefetch(int[] weatherIds) {
+        mUrlByWeatherId.clear();
+        Set<String> urls = new HashSet<>();
+        for (int weatherId : weatherIds) {
+            if (mUrlByWeatherId.indexOfKey(weatherId) >= 0) {
+                continue;
+            }
+            String url = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            mUrlByWeatherId.put(weatherId, url);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        mArtByUrl.keySet().retainAll(urls);
+
+        Map<String, Future<Bitmap>> loads = new HashMap<>();
+        List<String> failed = new ArrayList<>();
+        for (final String url : urls) {
+            if (mArtByUrl.containsKey(url)) {
+                continue;
+            }
+            try {
+                loads.put(url, TaskScheduler.getInstance().submit(TaskScheduler.LANE_PREFETCH,
+                        new Callable<Bitmap>() {
+                            @Override
+                            public Bitmap call() throws Exception {
+                                return BlockingCallDetector.get(Glide.with(mContext)
+                                        .load(url)
+                                        .asBitmap()
+                                        .fitCenter()
+                                        .into(mSizePx, mSizePx), url);
+                            }
+                        }));
+            } catch (RejectedExecutionException e) {
+                // the row falls back to the local icon
+                failed.add(url);
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + PREFETCH_TIMEOUT_MS;
+        for (Map.Entry<String, Future<Bitmap>> load : loads.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                mArtByUrl.put(load.getKey(), load.getValue().get(remaining, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException | ExecutionException | TimeoutException
+                    | CancellationException e) {
+                load.getValue().cancel(true);
+                failed.add(load.getKey());
+            }
+        }
+        if (!failed.isEmpty()) {
+            Log.e(LOG_TAG, "Error retrieving widget art from " + failed);
+        }
+    }
+
+    /**
+     * @return the cached art for the condition, or null if it is not cached and the row should
+     * fall back to the local icon
+     */
+    Bitmap get(int weatherId) {
+        String url = mUrlByWeatherId.get(weatherId);
+        return url == null ? null : mArtByUrl.get(url);
+    }
+
+    /**
+     * @return the number of bytes a bitmap adds to the RemoteViews it is set on
+     */
+    static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    void clear() {
+        mArtByUrl.clear();
+        mUrlByWeatherId.clear();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Drives TickScheduler with a fake clock through an hour of interactive mode and counts the
+    timer wakeups it asks for.
+ */
+public class TestTickScheduler extends AndroidTestCase {
+    // an arbitrary time that is not on a second or minute boundary
+    private static final long TEST_START = 1419033600000L + 12345L;
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static class TestClock implements TickScheduler.Clock {
+        long mNow;
+
+        TestClock(long now) {
+            mNow = now;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    private static int countWakeupsInAnHour(boolean showSeconds) {
+        TestClock clock = new TestClock(TEST_START);
+        TickScheduler scheduler = new TickScheduler(clock, showSeconds);
+        int wakeups = 0;
+        while (true) {
+            long delayMs = scheduler.getDelayMs();
+            assertTrue("Error: the scheduler asked for a non-positive delay", delayMs > 0);
+            if (clock.mNow + delayMs > TEST_START + HOUR_MS) {
+                return wakeups;
+            }
+            clock.mNow += delayMs;
+            wakeups++;
+        }
+    }
+
+    public void testWakesOnBoundaries() {
+        TestClock clock = new TestClock(TEST_START);
+        TickScheduler scheduler = new TickScheduler(clock, true);
+        clock.mNow += scheduler.getDelayMs();
+        assertEquals(0, clock.mNow % TickScheduler.SECOND_MS);
+
+        scheduler.setShowSeconds(false);
+        clock.mNow += scheduler.getDelayMs();
+        assertEquals(0, clock.mNow % TickScheduler.MINUTE_MS);
+    }
+
+    public void testNoSecondsModeReducesWakeups() {
+        int withSeconds = countWakeupsInAnHour(true);
+        int withoutSeconds = countWakeupsInAnHour(false);
+
+        assertEquals(3600, withSeconds);
+        assertEquals(60, withoutSeconds);
+        assertTrue("Error: no-seconds mode did not reduce wakeups per hour",
+                withoutSeconds < withSeconds);
+    }
+}
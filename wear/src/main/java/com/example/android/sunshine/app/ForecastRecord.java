@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+/**
+ * Decoder for the compact multi-day forecast record published by the phone app (see
+ * ForecastRecord in the app module for the byte layout).  Every accessor reads straight out of
+ * the record's byte array, so nothing is allocated on the draw path.
+ */
+final class ForecastRecord {
+    static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int DAY_SIZE = 6;
+
+    private ForecastRecord() {
+    }
+
+    /**
+     * @return true if record is a complete record of a version this decoder understands
+     */
+    static boolean isValid(byte[] record) {
+        return record != null
+                && record.length >= HEADER_SIZE
+                && record[0] == VERSION
+                && record.length >= HEADER_SIZE + getDayCount(record) * DAY_SIZE;
+    }
+
+    static int getDayCount(byte[] record) {
+        return record[2] & 0xff;
+    }
+
+    /**
+     * @return the date of entry i, in days since 1970-01-01 UTC
+     */
+    static int getEpochDay(byte[] record, int i) {
+        return readInt(record, 4) + readShort(record, HEADER_SIZE + i * DAY_SIZE);
+    }
+
+    static int getMaxTenths(byte[] record, int i) {
+        return readShort(record, HEADER_SIZE + i * DAY_SIZE + 2);
+    }
+
+    static int getMinTenths(byte[] record, int i) {
+        return readShort(record, HEADER_SIZE + i * DAY_SIZE + 4);
+    }
+
+    /**
+     * @return the index of the entry for epochDay, or -1 if the record doesn't cover it
+     */
+    static int indexOfEpochDay(byte[] record, int epochDay) {
+        int count = getDayCount(record);
+        for (int i = 0; i < count; i++) {
+            if (getEpochDay(record, i) == epochDay) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (short) ((b[offset] << 8) | (b[offset + 1] & 0xff));
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return (b[offset] << 24)
+                | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8)
+                | (b[offset + 3] & 0xff);
+    }
+}
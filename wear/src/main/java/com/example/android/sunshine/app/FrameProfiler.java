@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataMap;
+
+/**
+ * Opt-in profiler for the watch face engine.  Records draw durations in a fixed histogram, timer
+ * wakeups, time spent ambient vs interactive and data layer updates.
+ *
+ * It is off unless the {@link #TAG} log tag is enabled, e.g.
+ * {@code adb shell setprop log.tag.WatchFaceProfiler DEBUG}, so release watches pay only a
+ * boolean check per call.
+ */
+final class FrameProfiler {
+    static final String TAG = "WatchFaceProfiler";
+
+    /**
+     * Path of the debug DataItem the summary is exported to.
+     */
+    static final String PROFILE_PATH = "/debug/watchface-profile";
+
+    // Upper bound, in microseconds, of each draw histogram bucket.  The last bucket is open ended.
+    // 16ms is one frame at 60fps.
+    static final long[] BUCKET_LIMITS_US = {1000, 2000, 4000, 8000, 16000, 33000};
+
+    private final boolean mEnabled;
+    private final long[] mDrawBuckets = new long[BUCKET_LIMITS_US.length + 1];
+    private long mDrawCount;
+    private long mDrawTotalUs;
+    private long mDrawMaxUs;
+    private long mWakeups;
+    private long mTimeTicks;
+    private long mDataUpdates;
+    private long mAmbientMs;
+    private long mInteractiveMs;
+    private boolean mVisible;
+    private boolean mAmbient;
+    private long mModeSince;
+
+    FrameProfiler() {
+        this(Log.isLoggable(TAG, Log.DEBUG));
+    }
+
+    FrameProfiler(boolean enabled) {
+        mEnabled = enabled;
+        mModeSince = SystemClock.elapsedRealtime();
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return a timestamp to hand back to {@link #drawFinished}
+     */
+    long drawStarted() {
+        return mEnabled ? SystemClock.elapsedRealtimeNanos() : 0;
+    }
+
+    void drawFinished(long startNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        long durationUs = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && durationUs > BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        mDrawBuckets[bucket]++;
+        mDrawCount++;
+        mDrawTotalUs += durationUs;
+        mDrawMaxUs = Math.max(mDrawMaxUs, durationUs);
+    }
+
+    /**
+     * Called for each interactive mode timer wakeup.
+     */
+    void onWakeup() {
+        if (mEnabled) {
+            mWakeups++;
+        }
+    }
+
+    /**
+     * Called for each system time tick (once a minute, in both modes).
+     */
+    void onTimeTick() {
+        if (mEnabled) {
+            mTimeTicks++;
+        }
+    }
+
+    /**
+     * Called for each data item received from the phone.
+     */
+    void onDataUpdate() {
+        if (mEnabled) {
+            mDataUpdates++;
+        }
+    }
+
+    /**
+     * Called whenever visibility or ambient mode changes, to split the time between modes.
+     */
+    void onModeChanged(boolean visible, boolean ambient) {
+        if (!mEnabled) {
+            return;
+        }
+        accumulateModeTime();
+        mVisible = visible;
+        mAmbient = ambient;
+    }
+
+    private void accumulateModeTime() {
+        long now = SystemClock.elapsedRealtime();
+        if (mVisible) {
+            if (mAmbient) {
+                mAmbientMs += now - mModeSince;
+            } else {
+                mInteractiveMs += now - mModeSince;
+            }
+        }
+        mModeSince = now;
+    }
+
+    /**
+     * @return timer wakeups per minute of interactive time
+     */
+    float getWakeupsPerMinute() {
+        return mInteractiveMs == 0 ? 0 : mWakeups * 60000f / mInteractiveMs;
+    }
+
+    long getWakeups() {
+        return mWakeups;
+    }
+
+    long getDrawCount() {
+        return mDrawCount;
+    }
+
+    long[] getDrawBuckets() {
+        return mDrawBuckets;
+    }
+
+    DataMap toDataMap() {
+        accumulateModeTime();
+        DataMap dataMap = new DataMap();
+        dataMap.putLong("draws", mDrawCount);
+        dataMap.putLong("draw_mean_us", mDrawCount == 0 ? 0 : mDrawTotalUs / mDrawCount);
+        dataMap.putLong("draw_max_us", mDrawMaxUs);
+        dataMap.putLongArray("draw_bucket_limits_us", BUCKET_LIMITS_US);
+        dataMap.putLongArray("draw_buckets", mDrawBuckets);
+        dataMap.putLong("wakeups", mWakeups);
+        dataMap.putFloat("wakeups_per_minute", getWakeupsPerMinute());
+        dataMap.putLong("time_ticks", mTimeTicks);
+        dataMap.putLong("data_updates", mDataUpdates);
+        dataMap.putLong("ambient_ms", mAmbientMs);
+        dataMap.putLong("interactive_ms", mInteractiveMs);
+        return dataMap;
+    }
+
+    String summary() {
+        accumulateModeTime();
+        StringBuilder sb = new StringBuilder();
+        sb.append("draws=").append(mDrawCount)
+                .append(" mean=").append(mDrawCount == 0 ? 0 : mDrawTotalUs / mDrawCount).append("us")
+                .append(" max=").append(mDrawMaxUs).append("us")
+                .append(" histogram=[");
+        for (int i = 0; i < mDrawBuckets.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            if (i < BUCKET_LIMITS_US.length) {
+                sb.append("<=").append(BUCKET_LIMITS_US[i] / 1000);
+            } else {
+                sb.append('>').append(BUCKET_LIMITS_US[i - 1] / 1000);
+            }
+            sb.append("ms:").append(mDrawBuckets[i]);
+        }
+        sb.append("] wakeups=").append(mWakeups)
+                .append(" (").append(getWakeupsPerMinute()).append("/min)")
+                .append(" timeTicks=").append(mTimeTicks)
+                .append(" dataUpdates=").append(mDataUpdates)
+                .append(" ambient=").append(mAmbientMs / 1000).append("s")
+                .append(" interactive=").append(mInteractiveMs / 1000).append("s");
+        return sb.toString();
+    }
+}
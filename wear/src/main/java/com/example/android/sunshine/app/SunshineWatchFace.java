@@ -34,6 +34,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
@@ -43,7 +44,6 @@ import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
-import android.widget.Toast;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -56,6 +56,7 @@ import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
@@ -68,7 +69,8 @@ import java.util.concurrent.TimeUnit;
 
 
 /**
- * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
+ * Digital watch face with seconds. In ambient mode, or in interactive mode when
+ * R.bool.show_seconds_interactive is false, the seconds aren't displayed. On devices with
  * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
  */
 public class SunshineWatchFace extends CanvasWatchFaceService {
@@ -76,18 +78,17 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
     private static final Typeface BOLD_TYPEFACE =
             Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
-    private static final String DEGREE  = "\u00b0";
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
 
     /**
-     * Update rate in milliseconds for interactive mode. We update once a second since seconds are
-     * displayed in interactive mode.
+     * Handler message id for updating the time periodically in interactive mode.
      */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final int MSG_UPDATE_TIME = 0;
 
     /**
-     * Handler message id for updating the time periodically in interactive mode.
+     * How often the frame profiler summary is exported, when profiling is enabled.
      */
-    private static final int MSG_UPDATE_TIME = 0;
+    private static final long PROFILE_EXPORT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
 
     @Override
     public Engine onCreateEngine() {
@@ -137,6 +138,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                mTextLayout.invalidate();
                 invalidate();
             }
         };
@@ -145,17 +147,35 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         float mSeparatorYOffset;
         float mSeparatorLength;
         float mTempOffset;
+        boolean mIsRound;
+        TextLayoutCache mTextLayout;
+        final Rect mIconSrc = new Rect();
+        final Rect mIconDst = new Rect();
         private GoogleApiClient mGoogleApiClient;
 
         private static final String weatherPath = "/weather";
         private static final String iconKey = "icon";
         private static final String minKey = "min";
         private static final String maxKey = "max";
+        private static final String forecastPath = "/forecast";
+        private static final String forecastKey = "forecast";
 
         private String minWeather = "0";
         private String maxWeather = "0";
         private long lastUpdate = 0;
 
+        // multi-day forecast from the phone, see ForecastRecord
+        private byte[] mForecast;
+        // days after today currently shown; 0 shows today
+        private int mSelectedDay = 0;
+        private String mShownMax = maxWeather;
+        private String mShownMin = minWeather;
+        final Calendar mForecastCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+        final FrameProfiler mProfiler = new FrameProfiler();
+        TickScheduler mTickScheduler;
+        private long mLastProfileExport = SystemClock.elapsedRealtime();
+
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
@@ -237,6 +257,10 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mIconPaint.setAntiAlias(true);
 
             mCalendar = Calendar.getInstance();
+            mTextLayout = new TextLayoutCache(mHourPaint, mMinutePaint, mSecondsPaint, mDatePaint,
+                    mMaxPaint, mMinPaint, resources.getString(R.string.format_temperature));
+            mTickScheduler = new TickScheduler(TickScheduler.SYSTEM_CLOCK,
+                    resources.getBoolean(R.bool.show_seconds_interactive));
         }
 
         @Override
@@ -256,10 +280,13 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
                 // Update time zone in case it changed while we weren't visible.
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                mTextLayout.invalidate();
                 invalidate();
             } else {
                 unregisterReceiver();
+                exportProfile();
             }
+            mProfiler.onModeChanged(visible, isInAmbientMode());
 
             // Whether the timer should be running depends on whether we're visible (as well as
             // whether we're in ambient mode), so we may need to start or stop the timer.
@@ -289,9 +316,9 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
             // Load resources that have alternate values for round watches.
             Resources resources = SunshineWatchFace.this.getResources();
-            boolean isRound = insets.isRound();
+            mIsRound = insets.isRound();
             // TODO : apply round vs square differences
-            if (isRound) {
+            if (mIsRound) {
                 mHourPaint.setTextSize(resources.getDimension(R.dimen.hour_size_round));
                 mMinutePaint.setTextSize(resources.getDimension(R.dimen.minute_size_round));
                 mSecondsPaint.setTextSize(resources.getDimension(R.dimen.second_size_round));
@@ -304,6 +331,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 mSeparatorLength = resources.getDimension(R.dimen.separator_length_round);
                 mTempOffset = resources.getDimension(R.dimen.temp_y_offset_round);
             }
+            mTextLayout.invalidate();
             //mTimeXOffset = resources.getDimension(isRound
             //        ? R.dimen.hour_x_offset : R.dimen.hour_x_offset);
 //            float textSize = resources.getDimension(isRound
@@ -321,12 +349,18 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            mProfiler.onTimeTick();
+            if (mProfiler.isEnabled() && SystemClock.elapsedRealtime() - mLastProfileExport
+                    >= PROFILE_EXPORT_INTERVAL_MS) {
+                exportProfile();
+            }
             invalidate();
         }
 
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
+            mProfiler.onModeChanged(isVisible(), inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
                 if (mLowBitAmbient) {
@@ -344,6 +378,9 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     mSeparatorPaint.setColor(ContextCompat.getColor(getApplicationContext(), R.color.white));
                     mMaxPaint.setColor(ContextCompat.getColor(getApplicationContext(), R.color.white));
                     mMinPaint.setColor(ContextCompat.getColor(getApplicationContext(), R.color.white));
+                    // always come back to today's weather
+                    mSelectedDay = 0;
+                    updateShownDay();
                 } else {
                     mDatePaint.setColor(ContextCompat.getColor(getApplicationContext(), R.color.date_color));
                     mSeparatorPaint.setColor(ContextCompat.getColor(getApplicationContext(), R.color.separator_color));
@@ -359,8 +396,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Captures tap event (and tap type) and toggles the background color if the user finishes
-         * a tap.
+         * Captures tap event (and tap type) and steps to the next forecast day if the user
+         * finishes a tap.
          */
         @Override
         public void onTapCommand(int tapType, int x, int y, long eventTime) {
@@ -373,9 +410,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     break;
                 case TAP_TYPE_TAP:
                     // The user has completed the tap gesture.
-                    // TODO: Add code to handle the tap gesture.
-                    Toast.makeText(getApplicationContext(), R.string.message, Toast.LENGTH_SHORT)
-                            .show();
+                    mSelectedDay++;
+                    updateShownDay();
                     break;
             }
             invalidate();
@@ -383,6 +419,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long drawStart = mProfiler.drawStarted();
             // Draw the background.
             if (isInAmbientMode()) {
                 canvas.drawColor(Color.BLACK);
@@ -390,136 +427,37 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
             }
 
-            // Draw H:MM am/pm in ambient mode or H:MM:SS in interactive mode.
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            String hour = String.format(Locale.ENGLISH, "%d", mCalendar.get(Calendar.HOUR));
-            String min = String.format(Locale.ENGLISH, "%02d", mCalendar.get(Calendar.MINUTE));
-            String sec = String.format(Locale.ENGLISH, "%02d", mCalendar.get(Calendar.SECOND));
-            String ampm = mCalendar.get(Calendar.AM_PM) == 0 ? "AM" : "PM";
-            String[] timeStrings;
-            Paint[] paints;
-            if (isInAmbientMode()) {
-                timeStrings = new String[]{hour, ":", min, " " + ampm};
-                paints = new Paint[]{mHourPaint, mMinutePaint, mMinutePaint, mSecondsPaint, mSecondsPaint};
-            } else {
-                timeStrings = new String[]{hour, ":", min, ":", sec};
-                paints = new Paint[]{mHourPaint, mMinutePaint, mMinutePaint, mSecondsPaint, mSecondsPaint};
-            }
-            int total = 0;
-            for (int i = 0; i < timeStrings.length; i++) {
-                total += paints[i].measureText(timeStrings[i]);
-            }
-            int xOffset = bounds.width() - total;
-            xOffset = xOffset / 2;
-            int offset = 0;
-            for (int i = 0; i < timeStrings.length; i++) {
-                canvas.drawText(timeStrings[i], xOffset + offset, mTimeYOffset, paints[i]);
-                offset += paints[i].measureText(timeStrings[i]);
-            }
-
-            // draw day, date
-            int daynum = mCalendar.get(Calendar.DAY_OF_WEEK);
-            String day;
-            switch (daynum) {
-                case Calendar.SUNDAY:
-                    day = "SUN";
-                    break;
-                case Calendar.MONDAY:
-                    day = "MON";
-                    break;
-                case Calendar.TUESDAY:
-                    day = "TUE";
-                    break;
-                case Calendar.WEDNESDAY:
-                    day = "WED";
-                    break;
-                case Calendar.THURSDAY:
-                    day = "THUR";
-                    break;
-                case Calendar.FRIDAY:
-                    day = "FRI";
-                    break;
-                case Calendar.SATURDAY:
-                    day = "SAT";
-                    break;
-                default:
-                    day = "day error";
-                    break;
-            }
-            int monthnum = mCalendar.get(Calendar.MONTH);
-            String month;
-            switch (monthnum) {
-                case Calendar.JANUARY:
-                    month = "JAN";
-                    break;
-                case Calendar.FEBRUARY:
-                    month = "FEB";
-                    break;
-                case Calendar.MARCH:
-                    month = "MAR";
-                    break;
-                case Calendar.APRIL:
-                    month = "APR";
-                    break;
-                case Calendar.MAY:
-                    month = "MAY";
-                    break;
-                case Calendar.JUNE:
-                    month = "JUN";
-                    break;
-                case Calendar.JULY:
-                    month = "JUL";
-                    break;
-                case Calendar.AUGUST:
-                    month = "AUG";
-                    break;
-                case Calendar.SEPTEMBER:
-                    month = "SEP";
-                    break;
-                case Calendar.OCTOBER:
-                    month = "OCT";
-                    break;
-                case Calendar.NOVEMBER:
-                    month = "NOV";
-                    break;
-                case Calendar.DECEMBER:
-                    month = "DEC";
-                    break;
-                default:
-                    month = "month error";
-                    break;
-            }
+            // Draw H:MM am/pm in ambient mode or H:MM:SS in interactive mode (if seconds are shown).
+            // Text is only re-measured when the minute, the mode or the screen changes.
+            mCalendar.setTimeInMillis(System.currentTimeMillis());
+            Calendar dateCalendar = mSelectedDay > 0 ? mForecastCalendar : mCalendar;
+            mTextLayout.layout(mCalendar, dateCalendar,
+                    isInAmbientMode() || !mTickScheduler.isShowingSeconds(), mIsRound,
+                    bounds.width(), mShownMax, mShownMin);
+            mTextLayout.drawTime(canvas, mTimeYOffset, mCalendar.get(Calendar.SECOND));
 
-            String dayofmonth = String.format(Locale.ENGLISH, "%d", mCalendar.get(Calendar.DAY_OF_MONTH));
-            String year = String.format(Locale.ENGLISH, "%d", mCalendar.get(Calendar.YEAR));
-            String dateText = day + ", " + month + " " + dayofmonth + " " + year;
-            xOffset = (int) (bounds.width() - mDatePaint.measureText(dateText));
-            xOffset = xOffset / 2;
-            canvas.drawText(dateText, xOffset, mDateYOffset, mDatePaint);
-            int dateOffsetSave = xOffset;
+            // draw day, date of the day being shown
+            mTextLayout.drawDate(canvas, mDateYOffset);
+            int dateOffsetSave = (int) mTextLayout.getDateX();
 
-            xOffset = (int) (bounds.width() - mSeparatorLength);
+            int xOffset = (int) (bounds.width() - mSeparatorLength);
             xOffset = xOffset / 2;
             canvas.drawLine(xOffset, mSeparatorYOffset, xOffset + mSeparatorLength, mSeparatorYOffset, mSeparatorPaint);
 
-            String maxTemp = maxWeather + DEGREE;
-            String minTemp = minWeather + DEGREE;
-            xOffset = (int) (mMaxPaint.measureText(maxTemp.substring(0, maxTemp.length() - 1)) / 2);
-            xOffset = (bounds.width() / 2) - xOffset;
-            canvas.drawText(maxTemp, xOffset, mTempOffset, mMaxPaint);
-            canvas.drawText(" " + minTemp, xOffset + mMaxPaint.measureText(maxTemp), mTempOffset, mMinPaint);
-            if (icon != null) {
+            mTextLayout.drawTemperatures(canvas, mTempOffset);
+            // the icon is today's condition, so it is hidden while another day is shown
+            if (icon != null && mSelectedDay == 0) {
                 Bitmap toDraw = null;
                 if (isInAmbientMode()) {
                     toDraw = BWIcon;
                 } else {
                     toDraw = icon;
                 }
-                canvas.drawBitmap(toDraw, new Rect(0, 0, icon.getWidth(), icon.getHeight()),
-                        new Rect(dateOffsetSave - 25, (int) mTempOffset - 50, dateOffsetSave + 50, (int) mTempOffset + 25),
-                        mIconPaint);
+                mIconSrc.set(0, 0, icon.getWidth(), icon.getHeight());
+                mIconDst.set(dateOffsetSave - 25, (int) mTempOffset - 50, dateOffsetSave + 50, (int) mTempOffset + 25);
+                canvas.drawBitmap(toDraw, mIconSrc, mIconDst, mIconPaint);
             }
+            mProfiler.drawFinished(drawStart);
         }
 
         /**
@@ -542,15 +480,15 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * Handle updating the time in interactive mode, waking up again only when
+         * {@link #mTickScheduler} says the time shown will next change.
          */
         private void handleUpdateTimeMessage() {
+            mProfiler.onWakeup();
             invalidate();
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
+                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME,
+                        mTickScheduler.getDelayMs());
             }
         }
 
@@ -561,6 +499,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 @Override
                 public void onResult(@NonNull DataItemBuffer dataItems) {
                     for (DataItem dataItem : dataItems) {
+                        mProfiler.onDataUpdate();
                         DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
                         maxWeather = String.format(Locale.ENGLISH, "%d", (int) Math.round(dataMap.getDouble(maxKey)));
                         minWeather = String.format(Locale.ENGLISH, "%d", (int) Math.round(dataMap.getDouble(minKey)));
@@ -573,6 +512,16 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     dataItems.release();
                 }
             });
+            Wearable.DataApi.getDataItems(mGoogleApiClient, new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME).path(forecastPath).build()).setResultCallback(new ResultCallback<DataItemBuffer>() {
+                @Override
+                public void onResult(@NonNull DataItemBuffer dataItems) {
+                    for (DataItem dataItem : dataItems) {
+                        mProfiler.onDataUpdate();
+                        updateForecast(DataMapItem.fromDataItem(dataItem).getDataMap().getByteArray(forecastKey));
+                    }
+                    dataItems.release();
+                }
+            });
         }
 
         @Override
@@ -591,6 +540,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 if (event.getType() == DataEvent.TYPE_CHANGED) {
                     DataItem item = event.getDataItem();
                     if (item.getUri().getPath().equals(weatherPath)) {
+                        mProfiler.onDataUpdate();
                         DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
                         Asset asset = dataMap.getAsset(iconKey);
                         if (asset != null) {
@@ -598,6 +548,9 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                         } else {
                             updateWeather(dataMap.getDouble(maxKey), dataMap.getDouble(minKey));
                         }
+                    } else if (item.getUri().getPath().equals(forecastPath)) {
+                        mProfiler.onDataUpdate();
+                        updateForecast(DataMapItem.fromDataItem(item).getDataMap().getByteArray(forecastKey));
                     }
                 }
             }
@@ -608,6 +561,49 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             maxWeather = String.format(Locale.ENGLISH, "%d", (int) Math.round(max));
             minWeather = String.format(Locale.ENGLISH, "%d", (int) Math.round(min));
             lastUpdate = System.currentTimeMillis();
+            updateShownDay();
+            invalidate();
+        }
+
+        private void updateForecast(byte[] record) {
+            if (!ForecastRecord.isValid(record)) {
+                Log.w("WATCHFACE", "Ignoring unknown forecast record");
+                return;
+            }
+            mForecast = record;
+            updateShownDay();
+            invalidate();
+        }
+
+        /**
+         * Points the temperature row (and the date row, for days after today) at
+         * {@link #mSelectedDay}, wrapping back to today once the forecast runs out.
+         */
+        private void updateShownDay() {
+            int index = -1;
+            if (mSelectedDay > 0 && mForecast != null) {
+                long now = System.currentTimeMillis();
+                // the phone encodes each day as the epoch day of its local date
+                int today = (int) ((now + mCalendar.getTimeZone().getOffset(now)) / DAY_IN_MILLIS);
+                int todayIndex = ForecastRecord.indexOfEpochDay(mForecast, today);
+                if (todayIndex >= 0
+                        && todayIndex + mSelectedDay < ForecastRecord.getDayCount(mForecast)) {
+                    index = todayIndex + mSelectedDay;
+                }
+            }
+            if (index < 0) {
+                mSelectedDay = 0;
+                mShownMax = maxWeather;
+                mShownMin = minWeather;
+            } else {
+                mShownMax = String.format(Locale.ENGLISH, "%d",
+                        Math.round(ForecastRecord.getMaxTenths(mForecast, index) / 10f));
+                mShownMin = String.format(Locale.ENGLISH, "%d",
+                        Math.round(ForecastRecord.getMinTenths(mForecast, index) / 10f));
+                mForecastCalendar.setTimeInMillis(
+                        ForecastRecord.getEpochDay(mForecast, index) * DAY_IN_MILLIS);
+            }
+            mTextLayout.invalidate();
             invalidate();
         }
 
@@ -633,6 +629,23 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             });
         }
 
+        /**
+         * Dumps the profiler summary to the log and, when connected, to a debug DataItem the
+         * phone can read.  Does nothing unless profiling is enabled.
+         */
+        private void exportProfile() {
+            if (!mProfiler.isEnabled()) {
+                return;
+            }
+            mLastProfileExport = SystemClock.elapsedRealtime();
+            Log.d(FrameProfiler.TAG, mProfiler.summary());
+            if (mGoogleApiClient.isConnected()) {
+                PutDataMapRequest request = PutDataMapRequest.create(FrameProfiler.PROFILE_PATH);
+                request.getDataMap().putAll(mProfiler.toDataMap());
+                Wearable.DataApi.putDataItem(mGoogleApiClient, request.asPutDataRequest());
+            }
+        }
+
         private void makeBWIcon() {
             BWIcon = Bitmap.createBitmap(
                     icon.getWidth(),
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Resolved strings, glyph widths and x-offsets for the time, date and temperature rows of the
+ * watch face.
+ *
+ * The layout is keyed by (minute, short time format, round/square, font size, surface width) and
+ * only re-measured when that key changes or {@link #invalidate()} is called, so a frame just draws
+ * precomputed strings at precomputed positions.  The seconds, which change every frame, come from
+ * a table of the 60 possible strings and their widths.
+ */
+final class TextLayoutCache {
+    // indexed by Calendar.DAY_OF_WEEK - 1
+    private static final String[] DAYS = {"SUN", "MON", "TUE", "WED", "THUR", "FRI", "SAT"};
+    // indexed by Calendar.MONTH
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL",
+            "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] TWO_DIGITS = new String[60];
+
+    static {
+        for (int i = 0; i < TWO_DIGITS.length; i++) {
+            TWO_DIGITS[i] = String.format(Locale.ENGLISH, "%02d", i);
+        }
+    }
+
+    private final Paint mHourPaint;
+    private final Paint mSecondsPaint;
+    private final Paint mDatePaint;
+    private final Paint mMaxPaint;
+    private final Paint mMinPaint;
+    // R.string.format_temperature
+    private final String mTemperatureFormat;
+
+    // the key of the current layout
+    private long mMinute = -1;
+    private boolean mShortTime;
+    private boolean mRound;
+    private float mTextSize;
+    private int mWidth;
+
+    // time row: H, ':', MM and either ':' or ' AM'/' PM', plus the seconds when they are shown
+    private final String[] mTimeText = new String[4];
+    private final float[] mTimeWidths = new float[4];
+    private final Paint[] mTimePaints;
+    private float mTimeFixedWidth;
+    private final float[] mSecondWidths = new float[60];
+    private float mSecondWidthsTextSize = -1;
+
+    // date row
+    private String mDateText;
+    private float mDateX;
+
+    // temperature row
+    private String mMaxText;
+    private String mMinText;
+    private float mMaxX;
+    private float mMinX;
+
+    TextLayoutCache(Paint hourPaint, Paint minutePaint, Paint secondsPaint, Paint datePaint,
+                    Paint maxPaint, Paint minPaint, String temperatureFormat) {
+        mHourPaint = hourPaint;
+        mSecondsPaint = secondsPaint;
+        mDatePaint = datePaint;
+        mMaxPaint = maxPaint;
+        mMinPaint = minPaint;
+        mTemperatureFormat = temperatureFormat;
+        mTimePaints = new Paint[]{hourPaint, minutePaint, minutePaint, secondsPaint};
+    }
+
+    /**
+     * Forces a re-layout on the next frame, e.g. after the time zone, the temperatures or the day
+     * being shown changed.
+     */
+    void invalidate() {
+        mMinute = -1;
+    }
+
+    /**
+     * Re-measures everything if the key changed since the last call; otherwise does nothing.
+     *
+     * @param time the current time
+     * @param date the day to show in the date row
+     * @param shortTime true to lay out H:MM AM/PM, false for H:MM:SS
+     * @param round whether the screen is round
+     * @param width the width of the surface
+     * @param max max temperature to show, without the degree sign
+     * @param min min temperature to show, without the degree sign
+     */
+    void layout(Calendar time, Calendar date, boolean shortTime, boolean round, int width,
+                String max, String min) {
+        long minute = time.getTimeInMillis() / TickScheduler.MINUTE_MS;
+        float textSize = mHourPaint.getTextSize();
+        if (minute == mMinute && shortTime == mShortTime && round == mRound
+                && textSize == mTextSize && width == mWidth) {
+            return;
+        }
+        mMinute = minute;
+        mShortTime = shortTime;
+        mRound = round;
+        mTextSize = textSize;
+        mWidth = width;
+
+        layoutTime(time);
+        layoutDate(date);
+        layoutTemperatures(max, min);
+    }
+
+    private void layoutTime(Calendar time) {
+        mTimeText[0] = String.format(Locale.ENGLISH, "%d", time.get(Calendar.HOUR));
+        mTimeText[1] = ":";
+        mTimeText[2] = TWO_DIGITS[time.get(Calendar.MINUTE)];
+        if (mShortTime) {
+            mTimeText[3] = time.get(Calendar.AM_PM) == Calendar.AM ? " AM" : " PM";
+        } else {
+            mTimeText[3] = ":";
+        }
+        mTimeFixedWidth = 0;
+        for (int i = 0; i < mTimeText.length; i++) {
+            mTimeWidths[i] = mTimePaints[i].measureText(mTimeText[i]);
+            mTimeFixedWidth += mTimeWidths[i];
+        }
+        if (!mShortTime && mSecondsPaint.getTextSize() != mSecondWidthsTextSize) {
+            mSecondWidthsTextSize = mSecondsPaint.getTextSize();
+            for (int i = 0; i < TWO_DIGITS.length; i++) {
+                mSecondWidths[i] = mSecondsPaint.measureText(TWO_DIGITS[i]);
+            }
+        }
+    }
+
+    private void layoutDate(Calendar date) {
+        mDateText = DAYS[date.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY] + ", "
+                + MONTHS[date.get(Calendar.MONTH)] + " "
+                + date.get(Calendar.DAY_OF_MONTH) + " "
+                + date.get(Calendar.YEAR);
+        mDateX = (int) (mWidth - mDatePaint.measureText(mDateText)) / 2;
+    }
+
+    private void layoutTemperatures(String max, String min) {
+        mMaxText = String.format(mTemperatureFormat, max);
+        mMinText = " " + String.format(mTemperatureFormat, min);
+        // center the max temperature's digits, ignoring the degree sign
+        mMaxX = (mWidth / 2) - (int) (mMaxPaint.measureText(max) / 2);
+        mMinX = mMaxX + mMaxPaint.measureText(mMaxText);
+    }
+
+    /**
+     * Draws the time row, centered horizontally.
+     *
+     * @param second the current second, ignored in short time format
+     */
+    void drawTime(Canvas canvas, float y, int second) {
+        float total = mShortTime ? mTimeFixedWidth : mTimeFixedWidth + mSecondWidths[second];
+        float x = (int) (mWidth - total) / 2;
+        for (int i = 0; i < mTimeText.length; i++) {
+            canvas.drawText(mTimeText[i], x, y, mTimePaints[i]);
+            x += mTimeWidths[i];
+        }
+        if (!mShortTime) {
+            canvas.drawText(TWO_DIGITS[second], x, y, mSecondsPaint);
+        }
+    }
+
+    void drawDate(Canvas canvas, float y) {
+        canvas.drawText(mDateText, mDateX, y, mDatePaint);
+    }
+
+    void drawTemperatures(Canvas canvas, float y) {
+        canvas.drawText(mMaxText, mMaxX, y, mMaxPaint);
+        canvas.drawText(mMinText, mMinX, y, mMinPaint);
+    }
+
+    /**
+     * @return the x-offset of the date row, which the condition icon is aligned to
+     */
+    float getDateX() {
+        return mDateX;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the interactive mode timer next has to wake up: at the next second boundary when
+ * seconds are shown, otherwise at the next minute boundary.  Weather and forecast updates from the
+ * phone invalidate the face as they arrive, so they never need to be polled for here.
+ */
+final class TickScheduler {
+    static final long SECOND_MS = TimeUnit.SECONDS.toMillis(1);
+    static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Source of the current time, so the schedule can be driven by a test clock.
+     */
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final Clock mClock;
+    private boolean mShowSeconds;
+
+    TickScheduler(Clock clock, boolean showSeconds) {
+        mClock = clock;
+        mShowSeconds = showSeconds;
+    }
+
+    boolean isShowingSeconds() {
+        return mShowSeconds;
+    }
+
+    void setShowSeconds(boolean showSeconds) {
+        mShowSeconds = showSeconds;
+    }
+
+    /**
+     * @return milliseconds from now until the next visible change of the time
+     */
+    long getDelayMs() {
+        long period = mShowSeconds ? SECOND_MS : MINUTE_MS;
+        return period - (mClock.currentTimeMillis() % period);
+    }
+}